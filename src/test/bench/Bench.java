@@ -0,0 +1,177 @@
+package test.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 极简的基准测试工具：预热、多轮测量、吞吐量、耗时分位数和分配速率
+ *
+ * 一：和 TestChannel 中 Duration.between(...) 的单次计时相比
+ *  1. 先预热若干轮，让 JIT 编译完成以后再测量
+ *  2. 每轮固定时长，统计吞吐量的平均值和标准差
+ *  3. 每次调用单独计时（包含几十纳秒的 nanoTime 开销），给出 p50/p90/p99/p99.9/max
+ *  4. 通过 com.sun.management.ThreadMXBean 统计测量线程分配的字节数
+ *
+ * 二：参数可以通过系统属性调整：bench.warmup（预热轮数）、bench.iterations（测量轮数）、
+ *    bench.time（每轮毫秒数）、bench.output（结果追加写入的 CSV 文件）
+ */
+public class Bench {
+
+    @FunctionalInterface
+    public interface Operation {
+        void run(Blackhole blackhole) throws Exception;
+    }
+
+    // 最多保留多少个耗时样本，超过以后做蓄水池抽样
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationNanos;
+    private final List<BenchResult> results = new ArrayList<>();
+
+    public Bench() {
+        this(Integer.getInteger("bench.warmup", 3), Integer.getInteger("bench.iterations", 5),
+                Long.getLong("bench.time", 500));
+    }
+
+    public Bench(int warmupIterations, int iterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+    }
+
+    public BenchResult run(String name, Operation operation) throws Exception {
+        Blackhole blackhole = new Blackhole();
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operation, blackhole, null);
+        }
+
+        Samples samples = new Samples();
+        double[] throughput = new double[iterations];
+        long ops = 0;
+        long nanos = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long count = iteration(operation, blackhole, samples);
+            long elapsed = System.nanoTime() - start;
+            throughput[i] = count * 1e9 / elapsed;
+            ops += count;
+            nanos += elapsed;
+        }
+        long allocatedAfter = allocatedBytes();
+
+        double mean = Arrays.stream(throughput).average().orElse(0);
+        double variance = Arrays.stream(throughput).map(t -> (t - mean) * (t - mean)).sum()
+                / Math.max(1, iterations - 1);
+        boolean allocationSupported = allocatedBefore >= 0 && allocatedAfter >= 0;
+        long allocated = allocatedAfter - allocatedBefore;
+        BenchResult result = new BenchResult(name, mean, Math.sqrt(variance), samples.percentiles(),
+                allocationSupported ? (double) allocated / ops : -1,
+                allocationSupported ? allocated * 1e9 / nanos : -1);
+        results.add(result);
+        return result;
+    }
+
+    private long iteration(Operation operation, Blackhole blackhole, Samples samples) throws Exception {
+        long deadline = System.nanoTime() + iterationNanos;
+        long count = 0;
+        long now;
+        do {
+            long start = System.nanoTime();
+            operation.run(blackhole);
+            now = System.nanoTime();
+            if (samples != null) {
+                samples.add(now - start);
+            }
+            count++;
+        } while (now < deadline);
+        blackhole.flush();
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    public List<BenchResult> results() {
+        return Collections.unmodifiableList(results);
+    }
+
+    public void report(PrintStream out) {
+        out.println(BenchResult.header());
+        results.forEach(out::println);
+    }
+
+    // 如果设置了 bench.output，把结果追加到 CSV 文件中，便于对比不同版本的数据
+    public void save() throws IOException {
+        String output = System.getProperty("bench.output");
+        if (output == null) {
+            return;
+        }
+        Path path = Paths.get(output);
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(path)) {
+            lines.add("benchmark,ops/s,error,p50,p90,p99,p99.9,max,B/op,B/s");
+        }
+        for (BenchResult result : results) {
+            lines.add(result.toCsv());
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 耗时样本，超过上限以后按蓄水池抽样替换，保证每个样本被保留的概率相同
+     */
+    private static final class Samples {
+        private final long[] values = new long[MAX_SAMPLES];
+        private long seen;
+
+        void add(long value) {
+            if (seen < MAX_SAMPLES) {
+                values[(int) seen] = value;
+            } else {
+                long index = ThreadLocalRandom.current().nextLong(seen + 1);
+                if (index < MAX_SAMPLES) {
+                    values[(int) index] = value;
+                }
+            }
+            seen++;
+        }
+
+        long[] percentiles() {
+            int size = (int) Math.min(seen, MAX_SAMPLES);
+            if (size == 0) {
+                return new long[5];
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return new long[] { at(sorted, 0.50), at(sorted, 0.90), at(sorted, 0.99), at(sorted, 0.999),
+                    sorted[size - 1] };
+        }
+
+        private static long at(long[] sorted, double percentile) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+        }
+    }
+}
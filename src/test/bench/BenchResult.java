@@ -0,0 +1,72 @@
+package test.bench;
+
+/**
+ * 一个基准测试的结果
+ */
+public final class BenchResult {
+
+    private final String name;
+    private final double opsPerSecond;
+    private final double opsPerSecondError;
+    private final long[] percentiles;
+    private final double allocatedBytesPerOp;
+    private final double allocationRate;
+
+    BenchResult(String name, double opsPerSecond, double opsPerSecondError, long[] percentiles,
+            double allocatedBytesPerOp, double allocationRate) {
+        this.name = name;
+        this.opsPerSecond = opsPerSecond;
+        this.opsPerSecondError = opsPerSecondError;
+        this.percentiles = percentiles;
+        this.allocatedBytesPerOp = allocatedBytesPerOp;
+        this.allocationRate = allocationRate;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // 各轮吞吐量的平均值
+    public double opsPerSecond() {
+        return opsPerSecond;
+    }
+
+    // 各轮吞吐量的标准差
+    public double opsPerSecondError() {
+        return opsPerSecondError;
+    }
+
+    // 单次调用耗时（纳秒）的 p50、p90、p99、p99.9、最大值
+    public long[] percentiles() {
+        return percentiles.clone();
+    }
+
+    // 每次调用在测量线程上分配的字节数，JVM 不支持时为 -1
+    public double allocatedBytesPerOp() {
+        return allocatedBytesPerOp;
+    }
+
+    // 测量线程的分配速率（字节/秒），JVM 不支持时为 -1
+    public double allocationRate() {
+        return allocationRate;
+    }
+
+    public static String header() {
+        return String.format("%-40s %14s %10s %10s %10s %10s %10s %10s %12s %10s", "benchmark", "ops/s", "error",
+                "p50(ns)", "p90(ns)", "p99(ns)", "p99.9(ns)", "max(ns)", "B/op", "MB/s");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-40s %14.1f %10.1f %10d %10d %10d %10d %10d %12.1f %10.1f", name, opsPerSecond,
+                opsPerSecondError, percentiles[0], percentiles[1], percentiles[2], percentiles[3], percentiles[4],
+                allocatedBytesPerOp, allocationRate / (1024 * 1024));
+    }
+
+    // 逗号分隔，方便保存下来和其他版本的结果对比
+    public String toCsv() {
+        return name + "," + opsPerSecond + "," + opsPerSecondError + "," + percentiles[0] + "," + percentiles[1]
+                + "," + percentiles[2] + "," + percentiles[3] + "," + percentiles[4] + "," + allocatedBytesPerOp
+                + "," + allocationRate;
+    }
+}
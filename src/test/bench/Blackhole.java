@@ -0,0 +1,23 @@
+package test.bench;
+
+/**
+ * 吸收被测代码的结果，防止 JIT 把没有使用的计算当作死代码消除
+ */
+public final class Blackhole {
+
+    private volatile long sink;
+    private long accumulator;
+
+    public void consume(long value) {
+        accumulator ^= value;
+    }
+
+    public void consume(Object value) {
+        accumulator ^= System.identityHashCode(value);
+    }
+
+    // 每轮结束时写一次 volatile 字段，让累加结果对外可见
+    void flush() {
+        sink = accumulator;
+    }
+}
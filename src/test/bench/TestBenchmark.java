@@ -0,0 +1,719 @@
+package test.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import test.nio.buffer.BufferPool;
+import test.nio.cache.CachedFile;
+import test.nio.cache.MappedFileCache;
+import test.nio.charset.StreamingDecoder;
+import test.nio.compress.BlockCompressor;
+import test.nio.compress.Codec;
+import test.nio.compress.DeflateCodec;
+import test.nio.compress.LzCodec;
+import test.nio.charset.StreamingEncoder;
+import test.nio.copy.DirectorySync;
+import test.nio.copy.DirectorySync.ChangeDetection;
+import test.nio.copy.FileChecksum;
+import test.nio.copy.FileCopier;
+import test.nio.copy.FileCopier.Strategy;
+import test.nio.log.MappedLog;
+import test.nio.record.EpochClock;
+import test.nio.record.RecordReader;
+import test.nio.record.RecordSchema;
+import test.nio.record.RecordSchema.Field;
+import test.nio.record.RecordWriter;
+import test.webNIO.async.AsyncConnection;
+import test.webNIO.async.AsyncHandler;
+import test.webNIO.async.AsyncServer;
+import test.webNIO.client.ClientPool;
+import test.webNIO.client.RpcFrame;
+import test.webNIO.reactor.BlockingServer;
+import test.webNIO.reactor.ChannelHandler;
+import test.webNIO.reactor.Connection;
+import test.webNIO.reactor.HashedWheelTimer;
+import test.webNIO.reactor.OutboundQueue;
+import test.webNIO.reactor.ReactorServer;
+import test.webNIO.reactor.codec.FixedLengthFrameDecoder;
+
+/**
+ * I/O 相关的基准测试，替代 TestChannel 中单次、未预热的耗时打印
+ * 测试数据在临时目录中生成，不依赖本机的文件
+ */
+public class TestBenchmark {
+
+    // 非直接缓冲区、直接缓冲区（TestNIO.testNIO3）和缓冲区池
+    @Test
+    public void testBuffers() throws Exception {
+        Bench bench = new Bench();
+        BufferPool pool = BufferPool.getDefault();
+
+        bench.run("buffer.allocate.heap", bh -> bh.consume(ByteBuffer.allocate(1024)));
+        bench.run("buffer.allocate.direct", bh -> bh.consume(ByteBuffer.allocateDirect(1024)));
+        bench.run("buffer.pool.acquireRelease", bh -> {
+            ByteBuffer buffer = pool.acquire(1024);
+            bh.consume(buffer);
+            pool.release(buffer);
+        });
+
+        ByteBuffer heap = ByteBuffer.allocate(1024);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        bench.run("buffer.putGetLong.heap", bh -> bh.consume(putGetLongs(heap)));
+        bench.run("buffer.putGetLong.direct", bh -> bh.consume(putGetLongs(direct)));
+
+        bench.report(System.out);
+        bench.save();
+    }
+
+    private static long putGetLongs(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.remaining() >= 8) {
+            buffer.putLong(buffer.position());
+        }
+        buffer.flip();
+        long sum = 0;
+        while (buffer.remaining() >= 8) {
+            sum += buffer.getLong();
+        }
+        return sum;
+    }
+
+    /**
+     * 1000 个 16K 的文件随机读取：每次打开文件读进直接缓冲区，和从映射文件缓存中取视图拷贝进同一个缓冲区；
+     * 缓存容量分别能放下全部文件和一半文件（一半时会不断淘汰、重新映射）
+     */
+    @Test
+    public void testFileCache() throws Exception {
+        Bench bench = new Bench();
+        int fileCount = 1000;
+        int fileSize = 16 * 1024;
+        Path dir = Files.createTempDirectory("bench-cache");
+        try {
+            Path[] paths = new Path[fileCount];
+            byte[] data = new byte[fileSize];
+            for (int i = 0; i < fileCount; i++) {
+                new Random(i).nextBytes(data);
+                paths[i] = Files.write(dir.resolve(i + ".bin"), data);
+            }
+            ByteBuffer target = ByteBuffer.allocateDirect(fileSize);
+            Random random = new Random(42);
+
+            bench.run("file.openRead.16K", bh -> {
+                target.clear();
+                try (FileChannel channel = FileChannel.open(paths[random.nextInt(fileCount)], StandardOpenOption.READ)) {
+                    while (target.hasRemaining() && channel.read(target) >= 0) {
+                    }
+                }
+                bh.consume(target.get(0));
+            });
+            for (int percent : new int[] { 100, 50 }) {
+                try (MappedFileCache cache = new MappedFileCache((long) fileCount * fileSize * percent / 100)) {
+                    bench.run("file.mappedCache." + percent + "%.16K", bh -> {
+                        target.clear();
+                        CachedFile file = cache.acquire(paths[random.nextInt(fileCount)]);
+                        target.put(file.view());
+                        file.release();
+                        bh.consume(target.get(0));
+                    });
+                    System.out.println(cache.stats());
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // TestChannel 中的每种复制方式，覆盖不同的文件大小
+    @Test
+    public void testCopyStrategies() throws Exception {
+        Bench bench = new Bench();
+        Path dir = Files.createTempDirectory("bench-copy");
+        try {
+            for (int size : new int[] { 64 * 1024, 1024 * 1024, 16 * 1024 * 1024 }) {
+                Path source = dir.resolve("source-" + size);
+                Path target = dir.resolve("target-" + size);
+                byte[] data = new byte[size];
+                new Random(size).nextBytes(data);
+                Files.write(source, data);
+
+                FileCopier copier = new FileCopier().mapWindowSize(4 * 1024 * 1024).minSegmentSize(4 * 1024 * 1024);
+                for (Strategy strategy : Strategy.values()) {
+                    copier.strategy(strategy);
+                    bench.run("copy." + strategy + "." + size / 1024 + "K", bh -> bh.consume(copier.copy(source, target)));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    /**
+     * 2000 个 16K 的小文件整个目录复制：单线程和 8 个线程（每个设备最多 8 个并发）；
+     * 再加一次按大小和修改时间全部跳过的同步，也就是每晚没有变化时的开销
+     */
+    @Test
+    public void testDirectorySync() throws Exception {
+        Bench bench = new Bench();
+        Path source = Files.createTempDirectory("bench-sync-source");
+        Path target = Files.createTempDirectory("bench-sync-target");
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool parallel = new ForkJoinPool(8);
+        try {
+            byte[] data = new byte[16 * 1024];
+            Random random = new Random(2000);
+            for (int d = 0; d < 20; d++) {
+                Path dir = Files.createDirectory(source.resolve("dir-" + d));
+                for (int i = 0; i < 100; i++) {
+                    random.nextBytes(data);
+                    Files.write(dir.resolve(i + ".jpg"), data);
+                }
+            }
+            DirectorySync sequential = new DirectorySync().pool(single).maxConcurrentPerDevice(1)
+                    .changeDetection(ChangeDetection.ALWAYS);
+            DirectorySync concurrent = new DirectorySync().pool(parallel).maxConcurrentPerDevice(8)
+                    .changeDetection(ChangeDetection.ALWAYS);
+            DirectorySync incremental = new DirectorySync().pool(parallel).maxConcurrentPerDevice(8);
+            bench.run("sync.sequential.2000x16K", bh -> bh.consume(sequential.sync(source, target)));
+            bench.run("sync.parallel8.2000x16K", bh -> bh.consume(concurrent.sync(source, target)));
+            bench.run("sync.unchanged.2000x16K", bh -> bh.consume(incremental.sync(source, target)));
+            System.out.println(concurrent.sync(source, target));
+        } finally {
+            single.shutdown();
+            parallel.shutdown();
+            for (Path root : new Path[] { source, target }) {
+                try (Stream<Path> paths = Files.walk(root)) {
+                    for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // 64M 文件的校验和：单线程一个窗口和按 4M 窗口并行；复制时顺便计算校验和的额外开销
+    @Test
+    public void testChecksum() throws Exception {
+        Bench bench = new Bench();
+        Path source = Files.createTempFile("bench-checksum", ".bin");
+        Path target = Files.createTempFile("bench-checksum", ".bin");
+        try {
+            byte[] data = new byte[64 * 1024 * 1024];
+            new Random(64).nextBytes(data);
+            Files.write(source, data);
+
+            FileChecksum sequential = new FileChecksum().windowSize(Integer.MAX_VALUE).pool(new ForkJoinPool(1));
+            FileChecksum parallel = new FileChecksum().windowSize(4 * 1024 * 1024);
+            bench.run("checksum." + FileChecksum.algorithm() + ".sequential.64M",
+                    bh -> bh.consume(sequential.checksum(source)));
+            bench.run("checksum." + FileChecksum.algorithm() + ".parallel.64M",
+                    bh -> bh.consume(parallel.checksum(source)));
+
+            FileCopier copier = new FileCopier().strategy(Strategy.TRANSFER);
+            bench.run("copy.TRANSFER.64M", bh -> bh.consume(copier.checksum(false).copy(source, target)));
+            bench.run("copy.TRANSFER.checksum.64M", bh -> bh.consume(copier.checksum(true).copy(source, target)));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // testChannel6 中的字符集编解码：每次分配新缓冲区的 encode()/decode() 和复用缓冲区的流式编解码
+    @Test
+    public void testCharset() throws Exception {
+        Bench bench = new Bench();
+        String text = "保持饥饿，大智若愚 Stay hungry, stay foolish! 我爱你!";
+        for (String name : new String[] { "GBK", "UTF-8" }) {
+            Charset charset = Charset.forName(name);
+            CharsetEncoder encoder = charset.newEncoder();
+            CharsetDecoder decoder = charset.newDecoder();
+            CharBuffer chars = CharBuffer.wrap(text);
+            ByteBuffer bytes = ByteBuffer.allocate(1024);
+            CharBuffer decoded = CharBuffer.allocate(1024);
+            ByteBuffer encoded = encoder.encode(CharBuffer.wrap(text));
+
+            bench.run("charset.encode.allocating." + name, bh -> bh.consume(encoder.encode(chars.duplicate())));
+            bench.run("charset.encode.reused." + name, bh -> {
+                bytes.clear();
+                encoder.reset().encode(chars.duplicate(), bytes, true);
+                encoder.flush(bytes);
+                bh.consume(bytes.position());
+            });
+            bench.run("charset.decode.allocating." + name, bh -> bh.consume(decoder.decode(encoded.duplicate())));
+            bench.run("charset.decode.reused." + name, bh -> {
+                decoded.clear();
+                decoder.reset().decode(encoded.duplicate(), decoded, true);
+                decoder.flush(decoded);
+                bh.consume(decoded.position());
+            });
+
+            StreamingEncoder streamingEncoder = new StreamingEncoder(charset);
+            StreamingDecoder streamingDecoder = new StreamingDecoder(charset);
+            bench.run("charset.encode.streaming." + name, bh -> {
+                bytes.clear();
+                streamingEncoder.encode(chars.duplicate(), bytes, true);
+                bh.consume(bytes.position());
+            });
+            bench.run("charset.decode.streaming." + name, bh -> {
+                decoded.clear();
+                streamingDecoder.decode(encoded.duplicate(), decoded, true);
+                bh.consume(decoded.position());
+            });
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // 压缩阶段的每种算法压缩、解压一块（直接缓冲区）：日志文本、随机数据（不可压缩）和 1.jpg 开头的一块
+    @Test
+    public void testCompression() throws Exception {
+        Bench bench = new Bench();
+        int blockSize = BlockCompressor.DEFAULT_BLOCK_SIZE;
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; log.length() < blockSize; i++) {
+            log.append("2026-10-18T10:").append(i % 60).append(" INFO GET /static/").append(i % 97)
+                    .append(".jpg 200 ").append(i * 31 % 5000).append(" bytes in ").append(i % 17).append(" ms\n");
+        }
+        byte[] random = new byte[blockSize];
+        new Random(42).nextBytes(random);
+        byte[] jpeg = Arrays.copyOf(Files.readAllBytes(Paths.get("1.jpg")), blockSize);
+        byte[][] inputs = { Arrays.copyOf(log.toString().getBytes(StandardCharsets.US_ASCII), blockSize), random, jpeg };
+        String[] inputNames = { "text", "random", "jpeg" };
+
+        ByteBuffer src = ByteBuffer.allocateDirect(blockSize);
+        ByteBuffer compressed = ByteBuffer.allocateDirect(blockSize * 2);
+        ByteBuffer restored = ByteBuffer.allocateDirect(blockSize);
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < inputs.length; i++) {
+            src.clear();
+            src.put(inputs[i]).flip();
+            Codec[] codecs = { new LzCodec(), new DeflateCodec(1), new DeflateCodec(6) };
+            String[] codecNames = { "lz", "deflate1", "deflate6" };
+            for (int j = 0; j < codecs.length; j++) {
+                Codec codec = codecs[j];
+                String name = "compress." + codecNames[j] + "." + inputNames[i];
+                BenchResult compress = bench.run(name, bh -> {
+                    compressed.clear();
+                    bh.consume(codec.compress(src.duplicate(), compressed));
+                });
+                compressed.flip();
+                int compressedLength = compressed.remaining();
+                BenchResult decompress = bench.run(name.replace("compress.", "decompress."), bh -> {
+                    restored.clear();
+                    codec.decompress(compressed.duplicate(), restored);
+                    bh.consume(restored.get(0));
+                });
+                summary.append(String.format("%-30s ratio=%.3f 压缩 %.1f MB/s 解压 %.1f MB/s%n", name,
+                        (double) compressedLength / blockSize, compress.opsPerSecond() * blockSize / (1024 * 1024),
+                        decompress.opsPerSecond() * blockSize / (1024 * 1024)));
+                codec.close();
+            }
+        }
+        bench.report(System.out);
+        System.out.print(summary);
+        bench.save();
+    }
+
+    // 同样的消息（序号、发送时间、文本）：TestNonBlockingNIO 中拼接、解析字符串的做法和二进制记录
+    @Test
+    public void testRecordCodec() throws Exception {
+        Bench bench = new Bench();
+        String text = "保持饥饿，大智若愚 Stay hungry, stay foolish!";
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        long[] seq = { 0 };
+
+        ByteBuffer textBuffer = ByteBuffer.allocate(1024);
+        bench.run("message.text.encode", bh -> {
+            textBuffer.clear();
+            textBuffer.put((LocalDateTime.now().toString() + "\n" + seq[0]++ + "\n" + text).getBytes(StandardCharsets.UTF_8));
+            bh.consume(textBuffer.position());
+        });
+        textBuffer.flip();
+        bench.run("message.text.decode", bh -> {
+            String[] parts = new String(textBuffer.array(), 0, textBuffer.limit(), StandardCharsets.UTF_8).split("\n", 3);
+            bh.consume(LocalDateTime.parse(parts[0]));
+            bh.consume(Long.parseLong(parts[1]));
+            bh.consume(parts[2]);
+        });
+
+        RecordSchema schema = RecordSchema.builder(1, 1).int64("seq").timestamp("sentAt").bytes("text").build();
+        Field seqField = schema.field("seq");
+        Field sentAt = schema.field("sentAt");
+        Field textField = schema.field("text");
+        RecordWriter writer = new RecordWriter(schema);
+        RecordReader reader = new RecordReader(schema);
+        byte[] textCopy = new byte[textBytes.length];
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024) }) {
+            String kind = buffer.isDirect() ? "direct" : "heap";
+            int[] length = new int[1];
+            bench.run("message.record.encode." + kind, bh -> {
+                length[0] = writer.wrap(buffer, 0)
+                        .putLong(seqField, seq[0]++)
+                        .putTimestamp(sentAt, EpochClock.nanos())
+                        .putBytes(textField, textBytes, 0, textBytes.length)
+                        .finish();
+                bh.consume(length[0]);
+            });
+            // 读出全部字段，消息体拷贝出来，和文本解码的工作量相当
+            bench.run("message.record.decode." + kind, bh -> {
+                reader.wrap(buffer, 0, length[0]);
+                bh.consume(reader.getLong(seqField));
+                bh.consume(reader.getTimestamp(sentAt));
+                bh.consume(reader.getBytes(textField, textCopy, 0));
+            });
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // 内存映射日志追加 128 字节的消息：不刷盘（只依赖操作系统回写）和每 1000 条刷一次盘
+    @Test
+    public void testMappedLog() throws Exception {
+        Bench bench = new Bench();
+        ByteBuffer message = ByteBuffer.allocate(128);
+        for (int flushEvery : new int[] { 0, 1000 }) {
+            Path dir = Files.createTempDirectory("bench-log");
+            try (MappedLog log = new MappedLog(dir, 64 * 1024 * 1024, 4096, flushEvery, 0)) {
+                bench.run("log.append.128B.flushEvery" + flushEvery, bh -> {
+                    message.clear();
+                    bh.consume(log.append(message));
+                });
+            } finally {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(dir);
+            }
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    /**
+     * 已经挂着 10 万个空闲超时（相当于 10 万条空闲连接）时，再添加并取消一个超时的开销：
+     * 时间轮是链表的插入和删除，ScheduledThreadPoolExecutor 是加锁的堆操作
+     */
+    @Test
+    public void testTimeouts() throws Exception {
+        int pending = 100_000;
+        Runnable task = () -> {
+        };
+        Bench bench = new Bench();
+
+        HashedWheelTimer timer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 512);
+        Random random = new Random(0);
+        for (int i = 0; i < pending; i++) {
+            timer.schedule(task, 30 + random.nextInt(60), TimeUnit.SECONDS);
+        }
+        bench.run("timeout.wheel.scheduleCancel", bh -> bh.consume(timer.schedule(task, 60, TimeUnit.SECONDS).cancel()));
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        // 不开启的话取消的任务要等到期才从队列中移除
+        executor.setRemoveOnCancelPolicy(true);
+        try {
+            for (int i = 0; i < pending; i++) {
+                executor.schedule(task, 30 + random.nextInt(60), TimeUnit.SECONDS);
+            }
+            bench.run("timeout.executor.scheduleCancel",
+                    bh -> bh.consume(executor.schedule(task, 60, TimeUnit.SECONDS).cancel(false)));
+        } finally {
+            executor.shutdownNow();
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // 选择器服务端的本机回环往返：客户端发 1K，服务端原样发回
+    @Test
+    public void testSelectorEcho() throws Exception {
+        int messageSize = 1024;
+        ChannelHandler echo = TestBenchmark::echo;
+        Bench bench = new Bench();
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), echo,
+                () -> new FixedLengthFrameDecoder(messageSize), 1);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            socketChannel.connect(server.getLocalAddress());
+            ByteBuffer request = ByteBuffer.allocateDirect(messageSize);
+            ByteBuffer response = ByteBuffer.allocateDirect(messageSize);
+            bench.run("selector.echo.1K", bh -> {
+                request.clear();
+                while (request.hasRemaining()) {
+                    socketChannel.write(request);
+                }
+                response.clear();
+                while (response.hasRemaining()) {
+                    if (socketChannel.read(response) < 0) {
+                        throw new IOException("server closed");
+                    }
+                }
+                bh.consume(response.get(0));
+            });
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    // 和 testSelectorEcho 相同的往返，服务端换成完成通知模型（AsynchronousChannelGroup）
+    @Test
+    public void testAsyncEcho() throws Exception {
+        int messageSize = 1024;
+        AsyncHandler echo = TestBenchmark::echo;
+        Bench bench = new Bench();
+        try (AsyncServer server = new AsyncServer(new InetSocketAddress("127.0.0.1", 0), echo,
+                () -> new FixedLengthFrameDecoder(messageSize), 1);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            socketChannel.connect(server.getLocalAddress());
+            ByteBuffer request = ByteBuffer.allocateDirect(messageSize);
+            ByteBuffer response = ByteBuffer.allocateDirect(messageSize);
+            bench.run("async.echo.1K", bh -> {
+                request.clear();
+                while (request.hasRemaining()) {
+                    socketChannel.write(request);
+                }
+                response.clear();
+                while (response.hasRemaining()) {
+                    if (socketChannel.read(response) < 0) {
+                        throw new IOException("server closed");
+                    }
+                }
+                bh.consume(response.get(0));
+            });
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    /**
+     * 同一个地址的小请求：每次调用新建一条连接、连接池中一次只发一个请求等响应、
+     * 连接池中一次提交 100 个请求流水线地发出（一次操作是 100 个请求）
+     */
+    @Test
+    public void testClientPool() throws Exception {
+        int messageSize = 64;
+        ChannelHandler echo = (connection, frame) -> {
+            BufferPool pool = BufferPool.getDefault();
+            ByteBuffer response = RpcFrame.encode(pool, RpcFrame.correlationId(frame), RpcFrame.body(frame));
+            connection.write(response, () -> pool.release(response));
+        };
+        Bench bench = new Bench();
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), echo,
+                () -> RpcFrame.decoder(64 * 1024), 1);
+                ClientPool pool = new ClientPool()) {
+            server.start();
+            pool.start();
+            InetSocketAddress address = server.getLocalAddress();
+            ByteBuffer request = ByteBuffer.allocate(messageSize);
+
+            ByteBuffer frame = ByteBuffer.allocateDirect(RpcFrame.HEADER_SIZE + messageSize);
+            ByteBuffer response = ByteBuffer.allocateDirect(RpcFrame.HEADER_SIZE + messageSize);
+            bench.run("client.connectPerCall.64B", bh -> {
+                try (SocketChannel socketChannel = SocketChannel.open(address)) {
+                    frame.clear();
+                    frame.putInt(8 + messageSize).putLong(1).position(frame.limit());
+                    frame.flip();
+                    OutboundQueue.writeFully(socketChannel, frame);
+                    response.clear();
+                    while (response.hasRemaining()) {
+                        if (socketChannel.read(response) < 0) {
+                            throw new IOException("server closed");
+                        }
+                    }
+                    bh.consume(response.get(0));
+                }
+            });
+            bench.run("client.pool.sequential.64B", bh -> {
+                request.clear();
+                bh.consume(pool.call(address, request).get());
+            });
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[100];
+            bench.run("client.pool.pipelined.64Bx100", bh -> {
+                for (int i = 0; i < futures.length; i++) {
+                    request.clear();
+                    futures[i] = pool.call(address, request);
+                }
+                CompletableFuture.allOf(futures).get();
+                bh.consume(futures[futures.length - 1].get());
+            });
+            System.out.println("连接数：" + pool.connectionCount(address));
+        }
+        bench.report(System.out);
+        bench.save();
+    }
+
+    /**
+     * 同一个回显处理器分别跑在选择器服务端、完成通知服务端和阻塞式服务端（虚拟线程，JDK 21 以下退回平台线程）上，
+     * 客户端用一个选择器线程驱动所有连接，每条连接发一个请求、等到回显以后再发下一个
+     * 连接数和轮数通过系统属性 load.connections（默认 10000）、load.rounds（默认 10）调整，
+     * 注意两端的连接都在本进程中，需要两倍于连接数的文件描述符
+     */
+    @Test
+    public void testServerModes() throws Exception {
+        int connections = Integer.getInteger("load.connections", 10000);
+        int rounds = Integer.getInteger("load.rounds", 10);
+        int messageSize = 64;
+        ChannelHandler echo = TestBenchmark::echo;
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+
+        try (ReactorServer server = new ReactorServer(address, echo, () -> new FixedLengthFrameDecoder(messageSize))) {
+            server.start();
+            echoLoad("reactor", server.getLocalAddress(), connections, rounds, messageSize);
+            System.out.println(server.snapshot());
+        }
+        try (AsyncServer server = new AsyncServer(address, TestBenchmark::echo,
+                () -> new FixedLengthFrameDecoder(messageSize))) {
+            server.start();
+            echoLoad("async", server.getLocalAddress(), connections, rounds, messageSize);
+        }
+        try (BlockingServer server = new BlockingServer(address, echo, () -> new FixedLengthFrameDecoder(messageSize))) {
+            server.start();
+            echoLoad(server.isVirtualThreads() ? "blocking.virtual" : "blocking.platform", server.getLocalAddress(),
+                    connections, rounds, messageSize);
+        }
+    }
+
+    private static void echoLoad(String name, InetSocketAddress address, int connections, int rounds,
+            int messageSize) throws IOException {
+        long[] latencies = new long[connections * rounds];
+        int completed = 0;
+        try (Selector selector = Selector.open()) {
+            long connectStart = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new EchoClient(channel, messageSize));
+            }
+            long connectNanos = System.nanoTime() - connectStart;
+
+            long start = System.nanoTime();
+            for (SelectionKey key : selector.keys()) {
+                ((EchoClient) key.attachment()).send();
+            }
+            while (completed < latencies.length) {
+                if (selector.select(5000) == 0) {
+                    throw new IOException(name + " stalled after " + completed + " responses");
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    EchoClient client = (EchoClient) key.attachment();
+                    long latency = client.receive();
+                    if (latency < 0) {
+                        continue;
+                    }
+                    latencies[completed++] = latency;
+                    if (++client.rounds < rounds) {
+                        client.send();
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-20s 连接 %d（建立用时 %d ms），请求 %d，%.0f 次/秒，p50 %d us，p99 %d us，max %d us%n",
+                    name, connections, connectNanos / 1_000_000, completed, completed * 1e9 / elapsed,
+                    latencies[latencies.length / 2] / 1000, latencies[(int) (latencies.length * 0.99)] / 1000,
+                    latencies[latencies.length - 1] / 1000);
+        }
+    }
+
+    // 负载测试中的一条客户端连接
+    private static final class EchoClient {
+        private final SocketChannel channel;
+        private final ByteBuffer request;
+        private final ByteBuffer response;
+        private long sentAt;
+        int rounds;
+
+        EchoClient(SocketChannel channel, int messageSize) {
+            this.channel = channel;
+            this.request = ByteBuffer.allocateDirect(messageSize);
+            this.response = ByteBuffer.allocateDirect(messageSize);
+        }
+
+        void send() throws IOException {
+            request.clear();
+            sentAt = System.nanoTime();
+            OutboundQueue.writeFully(channel, request);
+        }
+
+        // 收齐一个回显时返回往返耗时，否则返回 -1
+        long receive() throws IOException {
+            if (channel.read(response) < 0) {
+                throw new IOException("server closed");
+            }
+            if (response.hasRemaining()) {
+                return -1;
+            }
+            response.clear();
+            return System.nanoTime() - sentAt;
+        }
+    }
+
+    // frame 只在回调期间有效，拷贝到池化的缓冲区再写出
+    static void echo(Connection connection, ByteBuffer frame) {
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer copy = pool.acquire(frame.remaining());
+        copy.put(frame).flip();
+        connection.write(copy, () -> pool.release(copy));
+    }
+
+    static void echo(AsyncConnection connection, ByteBuffer frame) {
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer copy = pool.acquire(frame.remaining());
+        copy.put(frame).flip();
+        connection.write(copy, () -> pool.release(copy));
+    }
+}
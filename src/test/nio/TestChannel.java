@@ -2,6 +2,7 @@ package test.nio;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -13,20 +14,48 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.Map.Entry;
 import java.util.stream.Stream;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
+import test.nio.buffer.BufferArena;
+import test.nio.buffer.BufferPool;
+import test.nio.buffer.DirectMemory;
+import test.nio.buffer.OffHeapAccounting;
+import test.nio.charset.StreamingDecoder;
+import test.nio.charset.StreamingEncoder;
+import test.nio.compress.BlockCompressor;
+import test.nio.compress.BlockDecompressor;
+import test.nio.compress.Codec;
+import test.nio.compress.DeflateCodec;
+import test.nio.compress.LzCodec;
+import test.nio.copy.CopyResult;
+import test.nio.copy.DirectorySync;
+import test.nio.copy.DirectorySync.ChangeDetection;
+import test.nio.copy.FileChecksum;
+import test.nio.copy.FileCopier;
+import test.nio.copy.FileCopier.Strategy;
+import test.nio.log.MappedLog;
+
 /**
  *  一：通道（channel）：用于源节点和目标节点之间的连接，在 java NIO 中负责缓冲区数据的传输，
  *      channel 本身不存储数据，因此需要配合缓冲区来进行数据的传输
@@ -65,6 +94,326 @@ import org.junit.Test;
 
 public class TestChannel {
     
+    // 统一的文件复制引擎：同一个文件依次使用每种策略复制，最后由引擎自动选择
+    @Test
+    public void testFileCopier() throws Exception {
+        Path source = Files.createTempFile("source", ".bin");
+        Path target = Files.createTempFile("target", ".bin");
+        try {
+            byte[] data = new byte[32 * 1024 * 1024];
+            new Random(42).nextBytes(data);
+            Files.write(source, data);
+            
+            // 映射窗口和并行分段都调小一些，让 32M 的文件也能用到多个窗口和分段
+            FileCopier copier = new FileCopier().mapWindowSize(4 * 1024 * 1024).minSegmentSize(4 * 1024 * 1024)
+                    .parallelism(4);
+            for (Strategy strategy : Strategy.values()) {
+                System.out.println(copier.strategy(strategy).copy(source, target));
+                System.out.println("内容一致：" + Arrays.equals(data, Files.readAllBytes(target)));
+            }
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+    
+    /**
+     * 复制的时候压缩：源文件经过 BlockCompressor 写成压缩块，再经过 BlockDecompressor 还原，
+     * 用于目标在慢速链路另一端（网络文件系统、跨机房）的场合，用 CPU 换带宽
+     * 文本压缩得很好，1.jpg 按魔数识别为 JPEG，原样写出，只多了块头
+     */
+    @Test
+    public void testCompressedCopy() throws Exception {
+        Path text = Files.createTempFile("text", ".txt");
+        Path compressed = Files.createTempFile("compressed", ".blk");
+        Path restored = Files.createTempFile("restored", ".bin");
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 50000; i++) {
+                builder.append(i).append(",保持饥饿，大智若愚,Stay hungry, stay foolish!,").append(i % 13).append('\n');
+            }
+            Files.write(text, builder.toString().getBytes(StandardCharsets.UTF_8));
+            
+            for (Path source : new Path[] { text, Paths.get("1.jpg") }) {
+                for (Codec codec : new Codec[] { new LzCodec(), new DeflateCodec(), new DeflateCodec(9) }) {
+                    long start = System.nanoTime();
+                    try (BlockCompressor compressor = new BlockCompressor(codec);
+                            FileChannel inChannel = FileChannel.open(source, StandardOpenOption.READ);
+                            FileChannel outChannel = FileChannel.open(compressed, StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                        compressor.compress(inChannel, outChannel);
+                        System.out.print(source.getFileName() + "，" + codec.getClass().getSimpleName() + "：" + compressor.stats());
+                    }
+                    long compressNanos = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    try (BlockDecompressor decompressor = new BlockDecompressor();
+                            FileChannel inChannel = FileChannel.open(compressed, StandardOpenOption.READ);
+                            FileChannel outChannel = FileChannel.open(restored, StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                        decompressor.decompress(inChannel, outChannel);
+                    }
+                    System.out.println("，压缩 " + compressNanos / 1_000_000 + " ms，解压 "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms，内容一致："
+                            + Arrays.equals(Files.readAllBytes(source), Files.readAllBytes(restored)));
+                }
+            }
+        } finally {
+            Files.delete(text);
+            Files.delete(compressed);
+            Files.delete(restored);
+        }
+    }
+    
+    
+    /**
+     * 目录同步：两层目录、几百个小文件加上几个大文件，第一次全部复制；
+     * 第二次按大小和修改时间全部跳过；改掉几个文件以后只复制这几个；
+     * 最后改掉一个文件的内容但保持大小和修改时间不变，只有 CHECKSUM 模式能发现
+     */
+    @Test
+    public void testDirectorySync() throws Exception {
+        Path source = Files.createTempDirectory("sync-source");
+        Path target = Files.createTempDirectory("sync-target");
+        try {
+            Random random = new Random(42);
+            for (int d = 0; d < 4; d++) {
+                Path dir = Files.createDirectories(source.resolve("dir-" + d).resolve("sub"));
+                for (int i = 0; i < 100; i++) {
+                    byte[] data = new byte[1024 + random.nextInt(63 * 1024)];
+                    random.nextBytes(data);
+                    Files.write((i % 2 == 0 ? dir : dir.getParent()).resolve(i + ".bin"), data);
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                byte[] data = new byte[8 * 1024 * 1024];
+                random.nextBytes(data);
+                Files.write(source.resolve("large-" + i + ".bin"), data);
+            }
+            for (String name : new String[] { "0.jpg", "1.jpg", "2.jpg" }) {
+                Files.copy(Paths.get(name), source.resolve(name));
+            }
+
+            DirectorySync sync = new DirectorySync().maxConcurrentPerDevice(4);
+            System.out.println("第一次：" + sync.sync(source, target));
+            System.out.println("第二次：" + sync.sync(source, target));
+
+            for (int i = 0; i < 5; i++) {
+                Files.write(source.resolve("dir-" + i % 4).resolve("sub").resolve(i * 2 + ".bin"),
+                        ("修改过的文件 " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            System.out.println("修改 5 个文件以后：" + sync.sync(source, target));
+
+            // 大小和修改时间都不变，只有内容变了
+            Path sneaky = source.resolve("large-0.bin");
+            FileTime modified = Files.getLastModifiedTime(sneaky);
+            try (FileChannel channel = FileChannel.open(sneaky, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 4096);
+            }
+            Files.setLastModifiedTime(sneaky, modified);
+            System.out.println("SIZE_AND_MTIME：" + sync.sync(source, target));
+            System.out.println("CHECKSUM：" + sync.changeDetection(ChangeDetection.CHECKSUM).sync(source, target));
+            System.out.println("内容一致：" + Arrays.equals(Files.readAllBytes(sneaky),
+                    Files.readAllBytes(target.resolve("large-0.bin"))));
+        } finally {
+            deleteTree(source);
+            deleteTree(target);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    /**
+     * 复制以后校验：复制的同时得到源文件的校验和，再按窗口并行计算目标文件的校验和进行比较，
+     * 最后改掉目标文件的一个字节，校验和不再一致
+     */
+    @Test
+    public void testFileChecksum() throws Exception {
+        Path source = Files.createTempFile("source", ".bin");
+        Path target = Files.createTempFile("target", ".bin");
+        try {
+            byte[] data = new byte[64 * 1024 * 1024];
+            new Random(42).nextBytes(data);
+            Files.write(source, data);
+
+            CopyResult result = new FileCopier().strategy(Strategy.TRANSFER).checksum(true).copy(source, target);
+            System.out.println(result);
+
+            // 单线程一个窗口和多线程 4M 一个窗口
+            FileChecksum sequential = new FileChecksum().windowSize(Integer.MAX_VALUE).pool(new ForkJoinPool(1));
+            FileChecksum parallel = new FileChecksum().windowSize(4 * 1024 * 1024);
+            for (FileChecksum checksum : new FileChecksum[] { sequential, parallel }) {
+                Instant start = Instant.now();
+                long value = checksum.checksum(target);
+                System.out.printf("%s=%08x，一致：%s，耗时 %d ms%n", FileChecksum.algorithm(), value,
+                        value == result.checksum(), Duration.between(start, Instant.now()).toMillis());
+            }
+
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] { (byte) ~data[12345678] }), 12345678);
+            }
+            System.out.println("改掉一个字节以后一致：" + parallel.matches(source, target));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+    
+    /**
+     * 显式释放本地内存：在 arena 中分配直接缓冲区、映射文件窗口，关闭 arena 时立即全部释放，
+     * 不等 GC；同样的循环跑很多轮，JVM 的直接内存和映射区占用都保持不变
+     */
+    @Test
+    public void testDirectMemory() throws Exception {
+        System.out.println("支持显式释放：" + DirectMemory.isSupported());
+        Path file = Files.createTempFile("direct-memory", ".bin");
+        try {
+            Files.write(file, new byte[8 * 1024 * 1024]);
+            for (int round = 0; round < 100; round++) {
+                try (BufferArena arena = new BufferArena("testDirectMemory");
+                        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer buffer = arena.allocate(4 * 1024 * 1024);
+                    for (long position = 0; position < channel.size(); position += 1024 * 1024) {
+                        MappedByteBuffer window = arena.map(channel, MapMode.READ_ONLY, position, 1024 * 1024);
+                        buffer.put(window);
+                        if (!buffer.hasRemaining()) {
+                            buffer.clear();
+                        }
+                        // 每个窗口用完就解除映射，不必等到 arena 关闭
+                        arena.free(window);
+                    }
+                    if (round == 0) {
+                        System.out.println("arena 关闭前：" + OffHeapAccounting.snapshot() + "，直接内存："
+                                + DirectMemory.directMemoryUsed() + "，映射区：" + DirectMemory.mappedMemoryUsed());
+                    }
+                }
+            }
+            System.out.println("100 轮以后：" + OffHeapAccounting.snapshot() + "，直接内存："
+                    + DirectMemory.directMemoryUsed() + "，映射区：" + DirectMemory.mappedMemoryUsed());
+
+            // 池中的空闲缓冲区也可以在流量高峰过后主动释放
+            BufferPool pool = BufferPool.getDefault();
+            for (int i = 0; i < 64; i++) {
+                pool.release(pool.acquire(64 * 1024));
+            }
+            System.out.println("BufferPool 持有：" + OffHeapAccounting.liveBytes(BufferPool.OWNER) + "，trim 释放："
+                    + pool.trim() + "，之后持有：" + OffHeapAccounting.liveBytes(BufferPool.OWNER));
+        } finally {
+            // 映射已经解除，Windows 上也可以立即删除文件
+            Files.delete(file);
+        }
+    }
+    
+    /**
+     * 内存映射日志：写满的分段自动滚动，最后一条记录被破坏（模拟写到一半时崩溃）以后重新打开，
+     * 恢复时只扫描最后一个分段，丢掉坏记录，之前的消息都能通过偏移量随机读取
+     */
+    @Test
+    public void testMappedLog() throws Exception {
+        Path dir = Files.createTempDirectory("mapped-log");
+        try {
+            try (MappedLog log = new MappedLog(dir, 64 * 1024, 1024, 100, 0)) {
+                for (int i = 0; i < 5000; i++) {
+                    log.append(ByteBuffer.wrap(("message-" + i).getBytes(StandardCharsets.UTF_8)));
+                }
+                System.out.println("分段数：" + log.segmentCount() + "，消息数：" + log.nextOffset());
+            }
+
+            // 破坏最后一条记录的内容，CRC 校验会失败
+            Path last;
+            try (Stream<Path> files = Files.list(dir)) {
+                last = files.filter(path -> path.toString().endsWith(".log")).max(Path::compareTo).get();
+            }
+            try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(8);
+                long position = 0;
+                long previous = 0;
+                while (true) {
+                    header.clear();
+                    channel.read(header, position);
+                    header.flip();
+                    int length = header.getInt();
+                    if (length == 0) {
+                        break;
+                    }
+                    previous = position;
+                    position += 8 + length;
+                }
+                channel.write(ByteBuffer.wrap(new byte[] { '#' }), previous + 8);
+            }
+
+            try (MappedLog log = new MappedLog(dir, 64 * 1024, 1024, 100, 0)) {
+                System.out.println("恢复后消息数：" + log.nextOffset());
+                for (long offset : new long[] { 0, 1234, 4998 }) {
+                    System.out.println(offset + " -> " + StandardCharsets.UTF_8.decode(log.read(offset)));
+                }
+                long offset = log.append(ByteBuffer.wrap("重新写入".getBytes(StandardCharsets.UTF_8)));
+                System.out.println(offset + " -> " + StandardCharsets.UTF_8.decode(log.read(offset)));
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+    
+    /**
+     * 流式编解码：和 testChannel6 的 encode()/decode() 不同，输入按很小的片段到达，输出写进很小的复用缓冲区，
+     * 汉字和代理对（emoji）被拆在两个片段之间时依然能正确还原
+     */
+    @Test
+    public void testChannel7() {
+        String string = "保持饥饿，大智若愚 Stay hungry, stay foolish! 我爱你\uD83D\uDE00!";
+        for (String name : new String[] { "GBK", "UTF-8" }) {
+            Charset charset = Charset.forName(name);
+            StreamingEncoder encoder = new StreamingEncoder(charset);
+            StreamingDecoder decoder = new StreamingDecoder(charset);
+
+            // 编码：每次只给 3 个字符，输出缓冲区只有 5 个字节
+            ByteBuffer bytes = ByteBuffer.allocate(5);
+            ByteBuffer encoded = ByteBuffer.allocate(1024);
+            for (int i = 0; i < string.length(); i += 3) {
+                CharBuffer piece = CharBuffer.wrap(string, i, Math.min(i + 3, string.length()));
+                boolean last = i + 3 >= string.length();
+                CoderResult result;
+                do {
+                    result = encoder.encode(piece, bytes, last);
+                    bytes.flip();
+                    encoded.put(bytes);
+                    bytes.clear();
+                } while (result.isOverflow());
+            }
+            encoded.flip();
+            System.out.println(name + " 编码后 " + encoded.remaining() + " 个字节");
+
+            // 解码：每次只给 1 个字节，输出缓冲区只有 4 个字符
+            CharBuffer chars = CharBuffer.allocate(4);
+            StringBuilder decoded = new StringBuilder();
+            while (encoded.hasRemaining()) {
+                ByteBuffer piece = encoded.duplicate();
+                piece.limit(piece.position() + 1);
+                boolean last = piece.limit() == encoded.limit();
+                CoderResult result;
+                do {
+                    result = decoder.decode(piece, chars, last);
+                    chars.flip();
+                    decoded.append(chars);
+                    chars.clear();
+                } while (result.isOverflow());
+                encoded.position(piece.position());
+            }
+            // GBK 中没有 emoji，编码时被替换成了 '?'
+            System.out.println(decoded + "，还原一致：" + string.equals(decoded.toString()));
+        }
+    }
     
     @Test
     public void testChannel6() throws CharacterCodingException {
@@ -166,6 +515,7 @@ public class TestChannel {
     
     
     // 使用直接缓冲区完成文件的复制（内存映射文件）：速度很快，但是如果垃圾回收机制不及时回收，会导致数据已经复制完毕，但是程序依然引用物理内存（但是无法管理物理内存，这是操作系统负责的）
+    // 所以复制完以后用 DirectMemory.free 立即解除映射，见 testDirectMemory
     @Test
     public void TestChannel2() {
         Instant now = Instant.now();
@@ -183,6 +533,8 @@ public class TestChannel {
             // 将字节数组中的数据放进到outMap 中
             inMap.get(buffer);
             outMap.put(buffer);
+            DirectMemory.free(inMap);
+            DirectMemory.free(outMap);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -204,12 +556,17 @@ public class TestChannel {
                 FileChannel inChannel = fis.getChannel();
                 FileChannel outChannel = fos.getChannel()) {
 
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            while (inChannel.read(buffer) != -1) {
-                buffer.flip();
-                outChannel.write(buffer);
-                // 一定要记得刷新缓冲区
-                buffer.clear();
+            // 从缓冲区池借用直接缓冲区，避免写入通道时再拷贝一次到临时的直接缓冲区
+            ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+            try {
+                while (inChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    outChannel.write(buffer);
+                    // 一定要记得刷新缓冲区
+                    buffer.clear();
+                }
+            } finally {
+                BufferPool.getDefault().release(buffer);
             }
         } catch (Exception e) {
             e.printStackTrace();
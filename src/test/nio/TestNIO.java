@@ -1,9 +1,17 @@
 package test.nio;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 
+import test.nio.buffer.BufferPool;
+import test.nio.record.EpochClock;
+import test.nio.record.RecordReader;
+import test.nio.record.RecordSchema;
+import test.nio.record.RecordSchema.Field;
+import test.nio.record.RecordWriter;
+
 /**
  *一：缓冲区(Buffer):在 javaNIO 中负责数据的存储，缓冲区其实底层就是数组，用于存储不同数据类型的数据
  *
@@ -36,6 +44,87 @@ import org.junit.Test;
  */
 public class TestNIO {
 
+    // 缓冲区池：按尺寸分级复用直接缓冲区，线程本地缓存命中时没有任何同步开销
+    @Test
+    public void testBufferPool() {
+        BufferPool pool = new BufferPool(512, 8, 4, 16, true);
+        
+        for (int i = 0; i < 10; i++) {
+            ByteBuffer buffer = pool.acquire(1000);
+            buffer.put("abcde".getBytes());
+            pool.release(buffer);
+        }
+        // 申请 1000 个字节会向上取整到 1024 这一级
+        ByteBuffer buffer = pool.acquire(1000);
+        System.out.println(buffer.isDirect() + "---" + buffer.capacity() + "---" + buffer.position());
+        
+        // 故意不归还，泄漏检测会记录申请的位置
+        System.out.println(pool.stats());
+        pool.leaks().forEach(Throwable::printStackTrace);
+        
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+        } catch (IllegalStateException e) {
+            System.out.println("重复归还：" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 和 testNIO1/TestNIO2 手动移动 position、拷贝到 byte[] 再构造 String 不同，
+     * RecordWriter/RecordReader 按 schema 在固定的绝对位置读写有类型的字段，不移动 position，也不创建对象
+     * 版本 2 在末尾追加了字段：版本 1 的读取方跳过它们，版本 2 的读取方读版本 1 的记录时得到默认值
+     */
+    @Test
+    public void testRecord() {
+        RecordSchema v1 = RecordSchema.builder(1, 1).int64("id").timestamp("sentAt").bytes("payload").build();
+        RecordSchema v2 = RecordSchema.builder(1, 2).int64("id").timestamp("sentAt").bytes("payload")
+                .since(2).int32("priority").bytes("traceId").build();
+        // 字段在初始化时查一次，之后每条消息只用这些句柄
+        Field id = v2.field("id");
+        Field sentAt = v2.field("sentAt");
+        Field payload = v2.field("payload");
+        Field priority = v2.field("priority");
+        Field traceId = v2.field("traceId");
+        System.out.println(v2);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        byte[] text = "保持饥饿，大智若愚".getBytes(StandardCharsets.UTF_8);
+        RecordWriter writer = new RecordWriter(v2);
+        int length = writer.wrap(buffer, 0)
+                .putLong(id, 42)
+                .putTimestamp(sentAt, EpochClock.nanos())
+                .putInt(priority, 7)
+                .putBytes(payload, text, 0, text.length)
+                .finish();
+        // 绝对位置的读写不影响 position 和 limit
+        System.out.println("记录长度：" + length + "，position：" + buffer.position() + "，limit：" + buffer.limit());
+
+        // 版本 1 的读取方：不认识 priority 和 traceId，按记录头跳过
+        RecordReader oldReader = new RecordReader(v1);
+        oldReader.wrap(buffer, 0, length);
+        byte[] dst = new byte[64];
+        int n = oldReader.getBytes(v1.field("payload"), dst, 0);
+        System.out.println("v1 读 v2：id=" + oldReader.getLong(v1.field("id")) + "，sentAt="
+                + EpochClock.toInstant(oldReader.getTimestamp(v1.field("sentAt"))) + "，payload="
+                + new String(dst, 0, n, StandardCharsets.UTF_8) + "，encodedLength=" + oldReader.encodedLength());
+
+        // 版本 1 写、版本 2 读：记录中没有的字段读出默认值
+        int oldLength = new RecordWriter(v1).wrap(buffer, length).putLong(v1.field("id"), 43).finish();
+        RecordReader reader = new RecordReader(v2);
+        reader.wrap(buffer, length, oldLength);
+        System.out.println("v2 读 v1：version=" + reader.version() + "，id=" + reader.getLong(id) + "，has(priority)="
+                + reader.has(priority) + "，priority=" + reader.getInt(priority) + "，traceId 长度="
+                + reader.bytesLength(traceId));
+
+        // 截断的记录在 wrap 时就被发现，不会读到记录之外
+        try {
+            reader.wrap(buffer, 0, length - 1);
+        } catch (RuntimeException e) {
+            System.out.println("截断的记录：" + e.getMessage());
+        }
+    }
+
     @Test
     public void testNIO3() {
 //        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
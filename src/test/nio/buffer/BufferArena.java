@@ -0,0 +1,102 @@
+package test.nio.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * 有作用域的堆外内存：在 arena 中分配的直接缓冲区和映射区，在 close() 时全部释放，
+ * 配合 try-with-resources 使用，本地内存的生命周期和代码块一致，不再依赖 GC
+ *
+ *  try (BufferArena arena = new BufferArena("copy")) {
+ *      ByteBuffer buffer = arena.allocate(64 * 1024);
+ *      MappedByteBuffer map = arena.map(channel, MapMode.READ_ONLY, 0, size);
+ *      ...
+ *  }   // 这里释放 buffer、解除 map 的映射
+ *
+ * 一：也可以用 free() 提前释放其中一个缓冲区，比如按窗口映射大文件时每处理完一个窗口就解除映射
+ *
+ * 二：分配和释放都按 owner 记入 OffHeapAccounting
+ *
+ * 三：释放以后再访问缓冲区或者它的视图会让 JVM 崩溃（见 DirectMemory），所以缓冲区和视图都不能逃出 arena 的作用域。
+ *    JDK 14+ 的 MemorySegment/Arena 在释放以后访问会抛异常而不是崩溃，但这个工程以 Java 8 为目标，用不了
+ *
+ * 所有方法都是线程安全的
+ */
+public class BufferArena implements AutoCloseable {
+
+    private final String owner;
+    private final Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long liveBytes;
+    private boolean closed;
+
+    // owner 是记账用的名字，多个 arena 可以使用同一个名字
+    public BufferArena(String owner) {
+        this.owner = owner;
+    }
+
+    public synchronized ByteBuffer allocate(int capacity) {
+        ensureOpen();
+        return track(ByteBuffer.allocateDirect(capacity));
+    }
+
+    public synchronized MappedByteBuffer map(FileChannel channel, MapMode mode, long position, long size)
+            throws IOException {
+        ensureOpen();
+        return track(channel.map(mode, position, size));
+    }
+
+    private <T extends ByteBuffer> T track(T buffer) {
+        buffers.add(buffer);
+        liveBytes += buffer.capacity();
+        OffHeapAccounting.allocated(owner, buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * 提前释放在这个 arena 中分配的缓冲区
+     * @return 是否立即释放了本地内存（当前 JDK 不支持显式释放时由 GC 回收，但仍然从记账中扣除）
+     */
+    public synchronized boolean free(ByteBuffer buffer) {
+        if (!buffers.remove(buffer)) {
+            throw new IllegalArgumentException("buffer not allocated by this arena or already freed: " + buffer);
+        }
+        liveBytes -= buffer.capacity();
+        OffHeapAccounting.freed(owner, buffer.capacity());
+        return DirectMemory.free(buffer);
+    }
+
+    // 这个 arena 当前持有的字节数
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("arena closed: " + owner);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ByteBuffer buffer : buffers) {
+            OffHeapAccounting.freed(owner, buffer.capacity());
+            DirectMemory.free(buffer);
+        }
+        buffers.clear();
+        liveBytes = 0;
+    }
+}
@@ -0,0 +1,287 @@
+package test.nio.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按尺寸分级的直接缓冲区池
+ *
+ * 一：为什么要池化
+ *  每次读写都 allocate(1024) 会产生大量短命的垃圾对象，而且非直接缓冲区在写入通道时，
+ *  JDK 内部还要先拷贝到一块临时的直接缓冲区中。直接缓冲区分配和回收都比较昂贵，所以适合复用
+ *
+ * 二：结构
+ *  1. 尺寸分级：512、1K、2K ... 每一级是上一级的两倍，申请时向上取整到最近的一级
+ *  2. 线程本地缓存：每个线程每一级最多缓存若干个，命中时不需要任何同步
+ *  3. 共享池：线程本地缓存满了以后归还到共享池，其他线程缓存为空时从共享池取
+ *  4. 超过最大一级的申请不池化，直接分配，归还时丢弃
+ *
+ * 三：使用约定
+ *  acquire() 得到的缓冲区已经 clear()，容量可能大于申请的大小；
+ *  用完以后必须把原缓冲区（不能是 slice()/duplicate() 得到的视图）release() 回来
+ *
+ * 四：本地内存
+ *  1. 池满了或者超过最大一级而被丢弃的缓冲区默认通过 DirectMemory.free 立即释放，不等 GC，
+ *     所以 release() 以后缓冲区和它的视图都绝对不能再访问
+ *  2. 池中持有的字节数以 "BufferPool" 的名义记入 OffHeapAccounting；流量高峰过后可以调用 trim() 释放空闲的缓冲区
+ */
+public class BufferPool {
+
+    private static final BufferPool DEFAULT = new BufferPool(512, 8, 16, 256,
+            Boolean.getBoolean("bufferPool.leakDetection"));
+
+    // OffHeapAccounting 中的归属方
+    public static final String OWNER = "BufferPool";
+
+    private final int minSize;
+    private final int maxSize;
+    private final int[] classSizes;
+    private final int threadCacheSize;
+    private final int sharedPoolSize;
+    private final boolean freeOnDiscard;
+
+    private final Queue<ByteBuffer>[] sharedPools;
+    private final AtomicInteger[] sharedCounts;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+
+    // 泄漏检测：记录每个未归还缓冲区的申请位置
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder threadCacheHits = new LongAdder();
+    private final LongAdder sharedPoolHits = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder unpooledAllocations = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param minSize         最小一级的容量，必须是 2 的幂
+     * @param classCount      一共多少级
+     * @param threadCacheSize 每个线程每一级最多缓存多少个
+     * @param sharedPoolSize  共享池每一级最多保存多少个
+     * @param leakDetection   是否记录申请位置用于泄漏检测（有额外开销，调试时打开）
+     */
+    public BufferPool(int minSize, int classCount, int threadCacheSize, int sharedPoolSize, boolean leakDetection) {
+        this(minSize, classCount, threadCacheSize, sharedPoolSize, leakDetection, true);
+    }
+
+    /**
+     * @param freeOnDiscard 丢弃的缓冲区是否立即释放本地内存，为 false 时交给 GC
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int minSize, int classCount, int threadCacheSize, int sharedPoolSize, boolean leakDetection,
+            boolean freeOnDiscard) {
+        if (minSize <= 0 || Integer.bitCount(minSize) != 1) {
+            throw new IllegalArgumentException("minSize must be a power of two: " + minSize);
+        }
+        if (classCount <= 0 || classCount > 20) {
+            throw new IllegalArgumentException("classCount: " + classCount);
+        }
+        this.minSize = minSize;
+        this.classSizes = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            classSizes[i] = minSize << i;
+        }
+        this.maxSize = classSizes[classCount - 1];
+        this.threadCacheSize = threadCacheSize;
+        this.sharedPoolSize = sharedPoolSize;
+        this.freeOnDiscard = freeOnDiscard;
+
+        this.sharedPools = new Queue[classCount];
+        this.sharedCounts = new AtomicInteger[classCount];
+        for (int i = 0; i < classCount; i++) {
+            sharedPools[i] = new ConcurrentLinkedQueue<>();
+            sharedCounts[i] = new AtomicInteger();
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[classCount];
+            for (int i = 0; i < classCount; i++) {
+                caches[i] = new ArrayDeque<>(threadCacheSize);
+            }
+            return caches;
+        });
+        this.outstanding = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+    }
+
+    // 申请一个容量不小于 size 的直接缓冲区
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        acquires.increment();
+        ByteBuffer buffer;
+        int index = sizeClass(size);
+        if (index < 0) {
+            unpooledAllocations.increment();
+            buffer = allocate(size);
+        } else {
+            buffer = threadCaches.get()[index].pollLast();
+            if (buffer != null) {
+                threadCacheHits.increment();
+            } else if ((buffer = sharedPools[index].poll()) != null) {
+                sharedCounts[index].decrementAndGet();
+                sharedPoolHits.increment();
+            } else {
+                buffer = allocate(classSizes[index]);
+            }
+            buffer.clear();
+        }
+        if (outstanding != null) {
+            outstanding.put(buffer, new Throwable("buffer acquired here, capacity " + buffer.capacity()));
+        }
+        return buffer;
+    }
+
+    // 归还缓冲区，归还以后调用方不能再使用它
+    public void release(ByteBuffer buffer) {
+        if (outstanding != null && outstanding.remove(buffer) == null) {
+            throw new IllegalStateException("buffer released twice or not acquired from this pool: " + buffer);
+        }
+        releases.increment();
+        int index = buffer.isDirect() ? exactSizeClass(buffer.capacity()) : -1;
+        if (index < 0) {
+            // 不池化的大缓冲区
+            discard(buffer);
+            return;
+        }
+        ArrayDeque<ByteBuffer> cache = threadCaches.get()[index];
+        if (cache.size() < threadCacheSize) {
+            cache.offerLast(buffer);
+        } else if (sharedCounts[index].incrementAndGet() <= sharedPoolSize) {
+            sharedPools[index].offer(buffer);
+        } else {
+            sharedCounts[index].decrementAndGet();
+            discard(buffer);
+        }
+    }
+
+    private void discard(ByteBuffer buffer) {
+        discards.increment();
+        if (buffer.isDirect()) {
+            OffHeapAccounting.freed(OWNER, buffer.capacity());
+            if (freeOnDiscard) {
+                DirectMemory.free(buffer);
+            }
+        }
+    }
+
+    /**
+     * 释放共享池和当前线程缓存中的空闲缓冲区，返回释放的字节数
+     * 其他线程的线程缓存只能由各自的线程清理（或者随线程结束被 GC 回收）
+     */
+    public long trim() {
+        long bytes = 0;
+        for (ArrayDeque<ByteBuffer> cache : threadCaches.get()) {
+            ByteBuffer buffer;
+            while ((buffer = cache.pollLast()) != null) {
+                bytes += buffer.capacity();
+                discard(buffer);
+            }
+        }
+        for (int i = 0; i < sharedPools.length; i++) {
+            ByteBuffer buffer;
+            while ((buffer = sharedPools[i].poll()) != null) {
+                sharedCounts[i].decrementAndGet();
+                bytes += buffer.capacity();
+                discard(buffer);
+            }
+        }
+        return bytes;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocations.increment();
+        allocatedBytes.add(capacity);
+        OffHeapAccounting.allocated(OWNER, capacity);
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    // 向上取整到最近的一级，超过最大一级返回 -1
+    private int sizeClass(int size) {
+        if (size > maxSize) {
+            return -1;
+        }
+        if (size <= minSize) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(minSize);
+    }
+
+    private int exactSizeClass(int capacity) {
+        int index = sizeClass(capacity);
+        return index >= 0 && classSizes[index] == capacity ? index : -1;
+    }
+
+    public int getMaxPooledSize() {
+        return maxSize;
+    }
+
+    // 当前未归还缓冲区的申请位置，只有打开泄漏检测时才有数据
+    public List<Throwable> leaks() {
+        if (outstanding == null) {
+            return Collections.emptyList();
+        }
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(acquires.sum(), releases.sum(), threadCacheHits.sum(), sharedPoolHits.sum(),
+                allocations.sum(), allocatedBytes.sum(), unpooledAllocations.sum(), discards.sum());
+    }
+
+    /**
+     * 使用情况快照
+     */
+    public static final class Stats {
+        public final long acquires;
+        public final long releases;
+        public final long threadCacheHits;
+        public final long sharedPoolHits;
+        public final long allocations;
+        public final long allocatedBytes;
+        public final long unpooledAllocations;
+        public final long discards;
+
+        Stats(long acquires, long releases, long threadCacheHits, long sharedPoolHits, long allocations,
+                long allocatedBytes, long unpooledAllocations, long discards) {
+            this.acquires = acquires;
+            this.releases = releases;
+            this.threadCacheHits = threadCacheHits;
+            this.sharedPoolHits = sharedPoolHits;
+            this.allocations = allocations;
+            this.allocatedBytes = allocatedBytes;
+            this.unpooledAllocations = unpooledAllocations;
+            this.discards = discards;
+        }
+
+        // 借出未还的数量
+        public long outstanding() {
+            return acquires - releases;
+        }
+
+        @Override
+        public String toString() {
+            return "BufferPool.Stats[acquires=" + acquires + ", releases=" + releases + ", outstanding="
+                    + outstanding() + ", threadCacheHits=" + threadCacheHits + ", sharedPoolHits="
+                    + sharedPoolHits + ", allocations=" + allocations + ", allocatedBytes=" + allocatedBytes
+                    + ", unpooledAllocations=" + unpooledAllocations + ", discards=" + discards + "]";
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package test.nio.buffer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * 直接缓冲区和映射缓冲区的显式释放
+ *
+ * 一：为什么需要
+ *  DirectByteBuffer/MappedByteBuffer 对应的本地内存和映射区只有在缓冲区对象被 GC 回收以后才释放（TestChannel2 的注释）。
+ *  堆内存充足时 GC 迟迟不发生，本地内存先耗尽（OutOfMemoryError: Direct buffer memory）；
+ *  映射区没有解除时，Windows 上文件不能删除或重命名，Linux 上被删除的文件占用的磁盘空间也不会释放
+ *
+ * 二：做法（都通过反射，兼容不同的 JDK）
+ *  1. JDK 9+：sun.misc.Unsafe.invokeCleaner(ByteBuffer)
+ *  2. JDK 8：((sun.nio.ch.DirectBuffer) buffer).cleaner().clean()
+ *  3. 都不可用时 free 返回 false，仍然由 GC 回收
+ *
+ * 三：释放以后再访问这个缓冲区或者它的任何视图（slice、duplicate）会直接让 JVM 崩溃，
+ *    所以只能释放自己独占、确定不再被引用的缓冲区；视图本身不能释放
+ */
+public final class DirectMemory {
+
+    // JDK 9+：Unsafe.invokeCleaner，已经绑定了 Unsafe 实例
+    private static final MethodHandle INVOKE_CLEANER;
+    // JDK 8：DirectByteBuffer.cleaner() 和 Cleaner.clean()
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        MethodHandle invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner = MethodHandles.lookup()
+                    .unreflect(unsafeClass.getMethod("invokeCleaner", ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // JDK 8 没有 invokeCleaner
+            try {
+                cleaner = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+                cleaner.setAccessible(true);
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                clean.setAccessible(true);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                cleaner = null;
+                clean = null;
+            }
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private DirectMemory() {
+    }
+
+    // 当前 JDK 是否支持显式释放
+    public static boolean isSupported() {
+        return INVOKE_CLEANER != null || CLEAN != null;
+    }
+
+    /**
+     * 立即释放直接缓冲区的本地内存，或者解除映射缓冲区的映射
+     * @return 释放成功返回 true；堆缓冲区、视图或者当前 JDK 不支持时返回 false，这时只能等 GC
+     */
+    public static boolean free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || !isSupported()) {
+            return false;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                // 视图（slice、duplicate）会抛出 IllegalArgumentException
+                INVOKE_CLEANER.invokeExact(buffer);
+                return true;
+            }
+            // 视图没有 cleaner
+            Object cleaner = CLEANER.invoke(buffer);
+            if (cleaner == null) {
+                return false;
+            }
+            CLEAN.invoke(cleaner);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    // JVM 中所有直接缓冲区（allocateDirect）占用的字节数，包括还没有被 GC 回收的
+    public static long directMemoryUsed() {
+        return memoryUsed("direct");
+    }
+
+    // JVM 中所有映射缓冲区映射的字节数
+    public static long mappedMemoryUsed() {
+        return memoryUsed("mapped");
+    }
+
+    private static long memoryUsed(String name) {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals(name)) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,47 @@
+package test.nio.buffer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按归属方统计当前持有的堆外内存（直接缓冲区和映射区）字节数
+ *
+ * BufferPool 以 "BufferPool" 的名义记账，BufferArena 以创建时指定的名字记账。
+ * DirectMemory.directMemoryUsed() 只能看到整个 JVM 的总量，这里可以看出是谁占着不放；
+ * 长时间运行的进程里某个归属方的数字只涨不跌，通常就是泄漏
+ *
+ * 所有方法都是线程安全的
+ */
+public final class OffHeapAccounting {
+
+    private static final ConcurrentHashMap<String, LongAdder> LIVE_BYTES = new ConcurrentHashMap<>();
+
+    private OffHeapAccounting() {
+    }
+
+    public static void allocated(String owner, long bytes) {
+        LIVE_BYTES.computeIfAbsent(owner, key -> new LongAdder()).add(bytes);
+    }
+
+    public static void freed(String owner, long bytes) {
+        LIVE_BYTES.computeIfAbsent(owner, key -> new LongAdder()).add(-bytes);
+    }
+
+    public static long liveBytes(String owner) {
+        LongAdder adder = LIVE_BYTES.get(owner);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    // 归属方 → 当前持有的字节数，按名字排序
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        LIVE_BYTES.forEach((owner, adder) -> snapshot.put(owner, adder.sum()));
+        return snapshot;
+    }
+
+    public static long totalLiveBytes() {
+        return LIVE_BYTES.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+}
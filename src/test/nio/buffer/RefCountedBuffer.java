@@ -0,0 +1,79 @@
+package test.nio.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带引用计数的池化缓冲区，用于一份数据同时交给多个消费者（例如广播给多条连接的待写队列）
+ *
+ * 一：使用约定
+ *  1. 创建时引用计数为 1，属于创建者；先通过 buffer() 写入数据并 flip()，之后不能再修改
+ *  2. 每交给一个消费者之前 retain() 一次，消费者拿到的是 view() 得到的只读视图，各自有独立的 position/limit，
+ *     用完以后调用 release()（可以直接把 onRelease() 作为 Connection.write 的回调）
+ *  3. 创建者分发完以后释放自己的那一次引用，计数降到 0 时缓冲区归还给缓冲区池
+ *
+ * 二：视图和原缓冲区共享同一块直接内存，分发给几千个消费者也只有一份数据，不会按接收者逐一拷贝
+ *
+ * 三：retain()/release() 可以在任意线程调用
+ */
+public final class RefCountedBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    // 复用同一个回调对象，分发时不需要为每个接收者创建 lambda
+    private final Runnable releaser = this::release;
+
+    private RefCountedBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    // 从缓冲区池申请一个容量不小于 size 的缓冲区，处于写模式
+    public static RefCountedBuffer allocate(BufferPool pool, int size) {
+        return new RefCountedBuffer(pool, pool.acquire(size));
+    }
+
+    // 底层缓冲区，只有创建者在分发之前可以写入
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // 当前 position 到 limit 之间数据的只读视图，每个消费者一个
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public RefCountedBuffer retain() {
+        int count;
+        do {
+            count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+        } while (!refCnt.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    // 返回 true 表示这是最后一次引用，缓冲区已经归还给缓冲区池
+    public boolean release() {
+        int count = refCnt.decrementAndGet();
+        if (count == 0) {
+            pool.release(buffer);
+            return true;
+        }
+        if (count < 0) {
+            throw new IllegalStateException("buffer released too many times");
+        }
+        return false;
+    }
+
+    // release() 的回调形式
+    public Runnable onRelease() {
+        return releaser;
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+}
@@ -0,0 +1,119 @@
+package test.nio.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.nio.buffer.DirectMemory;
+import test.nio.buffer.OffHeapAccounting;
+
+/**
+ * MappedFileCache 中的一个文件：整个文件以只读方式映射进内存
+ *
+ * 一：引用计数
+ *  1. 缓存本身持有一次引用，MappedFileCache.acquire() 每次返回之前再加一次，调用方用完以后 release()
+ *  2. 被淘汰或者失效时缓存释放自己的那一次引用，文件仍然可以被正在使用它的调用方访问，
+ *     最后一次 release() 时才解除映射（DirectMemory.free），不会有视图在解除映射以后还被访问
+ *  3. 交给多个消费者时每个消费者 retain() 一次
+ *
+ * 二：view() 只是 duplicate()，不打开文件也不拷贝数据，每个请求一个独立的 position/limit
+ *
+ * 三：retain()/release() 可以在任意线程调用
+ */
+public final class CachedFile {
+
+    private final Path path;
+    private final MappedByteBuffer map;
+    private final long lastModified;
+    // 缓存持有的一次引用
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    private final Runnable releaser = this::release;
+    // 最近一次检查修改时间的时刻
+    private volatile long checkedNanos;
+
+    CachedFile(Path path, MappedByteBuffer map, long lastModified, long checkedNanos) {
+        this.path = path;
+        this.map = map;
+        this.lastModified = lastModified;
+        this.checkedNanos = checkedNanos;
+        OffHeapAccounting.allocated(MappedFileCache.OWNER, map.capacity());
+    }
+
+    // 整个文件内容的只读视图（读模式），每个消费者一个
+    public ByteBuffer view() {
+        return map.duplicate();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public long size() {
+        return map.capacity();
+    }
+
+    // 映射时文件的修改时间（毫秒）
+    public long lastModified() {
+        return lastModified;
+    }
+
+    public CachedFile retain() {
+        int count;
+        do {
+            count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("file already unmapped: " + path);
+            }
+        } while (!refCnt.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    // 返回 true 表示这是最后一次引用，映射已经解除
+    public boolean release() {
+        int count = refCnt.decrementAndGet();
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            throw new IllegalStateException("file released too many times: " + path);
+        }
+        OffHeapAccounting.freed(MappedFileCache.OWNER, map.capacity());
+        DirectMemory.free(map);
+        return true;
+    }
+
+    // 可以直接作为 Connection.write 的回调，不需要每次创建 lambda
+    public Runnable onRelease() {
+        return releaser;
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+
+    /**
+     * 距离上一次检查超过 intervalNanos 时重新读取文件属性，修改时间或者大小变了（包括文件被删除）返回 false
+     * 没有到检查时间时直接返回 true，不产生系统调用
+     */
+    boolean isCurrent(long nowNanos, long intervalNanos) throws IOException {
+        if (nowNanos - checkedNanos < intervalNanos) {
+            return true;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (attributes.lastModifiedTime().toMillis() != lastModified || attributes.size() != map.capacity()) {
+            return false;
+        }
+        checkedNanos = nowNanos;
+        return true;
+    }
+}
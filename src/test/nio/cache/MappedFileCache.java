@@ -0,0 +1,267 @@
+package test.nio.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 读多写少的静态文件缓存：热点文件以只读的 MappedByteBuffer 常驻（TestChannel2 的做法），
+ * 命中时不打开文件、不拷贝数据，直接把 duplicate() 视图交给 socket
+ *
+ * 一：容量：所有映射的总字节数不超过 maxMappedBytes，超出时按最近最少使用的顺序淘汰，
+ *    单个文件超过 maxFileSize 时不缓存（acquire 返回 null），调用方改用 FileRegion（transferTo）发送
+ *
+ * 二：失效：命中时如果距离上一次检查超过 checkInterval（默认 1 秒），重新读取修改时间和大小，变了就重新映射，
+ *    所以文件更新以后最多 checkInterval 之后生效。更新文件时应该写到临时文件再 rename 过来：
+ *    已经映射的旧文件仍然有效；原地截短正在被映射的文件，访问映射区时会出错（SIGBUS，JVM 抛出 InternalError）
+ *
+ * 三：淘汰和失效都只是释放缓存自己的那一次引用，正在发送的文件等发送完才解除映射，见 CachedFile
+ *
+ * 四：所有方法都是线程安全的。查找在锁内完成，读取文件属性、打开和映射文件都在锁外
+ *
+ *  CachedFile file = cache.acquire(path);
+ *  if (file != null) {
+ *      connection.write(file.view(), file.onRelease());
+ *  }
+ */
+public class MappedFileCache implements Closeable {
+
+    // OffHeapAccounting 中的归属方
+    public static final String OWNER = "MappedFileCache";
+
+    private final long maxMappedBytes;
+    private volatile long maxFileSize;
+    private volatile long checkIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+    // 访问顺序的 LinkedHashMap，最久没有访问的在最前面
+    private final LinkedHashMap<Path, CachedFile> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long mappedBytes;
+    private boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+
+    /**
+     * @param maxMappedBytes 所有映射的总字节数上限，单个文件默认最大为它的 1/8
+     */
+    public MappedFileCache(long maxMappedBytes) {
+        if (maxMappedBytes <= 0) {
+            throw new IllegalArgumentException("maxMappedBytes: " + maxMappedBytes);
+        }
+        this.maxMappedBytes = maxMappedBytes;
+        this.maxFileSize = maxMappedBytes / 8;
+    }
+
+    // 超过这个大小的文件不缓存
+    public MappedFileCache maxFileSize(long maxFileSize) {
+        if (maxFileSize < 0 || maxFileSize > maxMappedBytes) {
+            throw new IllegalArgumentException("maxFileSize: " + maxFileSize);
+        }
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    // 命中时每隔多久检查一次修改时间，0 表示每次都检查
+    public MappedFileCache checkInterval(long interval, TimeUnit unit) {
+        this.checkIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * 取得 path 的缓存，必要时映射进来，用完以后必须 release() 一次
+     * @return 文件太大不缓存时返回 null
+     * @throws java.nio.file.NoSuchFileException 文件不存在
+     */
+    public CachedFile acquire(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        CachedFile file;
+        synchronized (this) {
+            ensureOpen();
+            file = entries.get(key);
+            if (file != null) {
+                // 在锁内加引用：文件还在缓存中，缓存持有的那一次引用保证它没有被解除映射
+                file.retain();
+            }
+        }
+        if (file != null) {
+            boolean current;
+            try {
+                current = file.isCurrent(System.nanoTime(), checkIntervalNanos);
+            } catch (IOException | RuntimeException e) {
+                // 读不到文件属性（例如没有权限），上面加的引用要还回去，否则映射永远不会解除
+                file.release();
+                throw e;
+            }
+            if (current) {
+                hits.increment();
+                return file;
+            }
+            invalidations.increment();
+            remove(key, file);
+            file.release();
+        }
+        misses.increment();
+        return load(key);
+    }
+
+    private CachedFile load(Path key) throws IOException {
+        CachedFile loaded;
+        try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            // 先读属性再映射：映射之后文件再被修改，下一次检查时能发现
+            BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+            long size = channel.size();
+            // 单个映射不能超过 2G
+            if (size > maxFileSize || size > Integer.MAX_VALUE) {
+                uncacheable.increment();
+                return null;
+            }
+            MappedByteBuffer map = channel.map(MapMode.READ_ONLY, 0, size);
+            // 映射建立以后关闭通道不影响映射
+            loaded = new CachedFile(key, map, attributes.lastModifiedTime().toMillis(), System.nanoTime());
+        }
+        synchronized (this) {
+            if (closed) {
+                loaded.release();
+                throw new IllegalStateException("cache closed");
+            }
+            CachedFile existing = entries.get(key);
+            if (existing != null && existing.lastModified() == loaded.lastModified()
+                    && existing.size() == loaded.size()) {
+                // 其他线程已经映射了同一个版本，用它的，丢掉自己的
+                loaded.release();
+                return existing.retain();
+            }
+            if (existing != null) {
+                entries.remove(key);
+                mappedBytes -= existing.size();
+                existing.release();
+            }
+            entries.put(key, loaded);
+            mappedBytes += loaded.size();
+            evict(loaded);
+            return loaded.retain();
+        }
+    }
+
+    // 从最久没有访问的开始淘汰，直到总字节数回到上限以内；刚加入的文件不淘汰
+    private void evict(CachedFile keep) {
+        Iterator<CachedFile> iterator = entries.values().iterator();
+        while (mappedBytes > maxMappedBytes && iterator.hasNext()) {
+            CachedFile eldest = iterator.next();
+            if (eldest == keep) {
+                continue;
+            }
+            iterator.remove();
+            mappedBytes -= eldest.size();
+            evictions.increment();
+            eldest.release();
+        }
+    }
+
+    // 只有缓存中的还是 file 这个版本时才移除，另一个线程可能已经换成了新版本
+    private synchronized void remove(Path key, CachedFile file) {
+        if (entries.get(key) == file) {
+            entries.remove(key);
+            mappedBytes -= file.size();
+            file.release();
+        }
+    }
+
+    // 主动让一个文件失效，例如收到文件已更新的通知时，不必等到下一次检查
+    public synchronized void invalidate(Path path) {
+        CachedFile file = entries.remove(path.toAbsolutePath().normalize());
+        if (file != null) {
+            mappedBytes -= file.size();
+            invalidations.increment();
+            file.release();
+        }
+    }
+
+    public synchronized long mappedBytes() {
+        return mappedBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public Stats stats() {
+        long bytes;
+        int count;
+        synchronized (this) {
+            bytes = mappedBytes;
+            count = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), uncacheable.sum(), count,
+                bytes);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cache closed");
+        }
+    }
+
+    // 释放缓存持有的所有引用，正在被使用的文件在最后一次 release() 时解除映射
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (CachedFile file : entries.values()) {
+            file.release();
+        }
+        entries.clear();
+        mappedBytes = 0;
+    }
+
+    /**
+     * 使用情况快照
+     */
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long invalidations;
+        public final long uncacheable;
+        public final int entries;
+        public final long mappedBytes;
+
+        Stats(long hits, long misses, long evictions, long invalidations, long uncacheable, int entries,
+                long mappedBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.uncacheable = uncacheable;
+            this.entries = entries;
+            this.mappedBytes = mappedBytes;
+        }
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("MappedFileCache.Stats[hits=%d, misses=%d, hitRatio=%.3f, evictions=%d, "
+                    + "invalidations=%d, uncacheable=%d, entries=%d, mappedBytes=%d]", hits, misses, hitRatio(),
+                    evictions, invalidations, uncacheable, entries, mappedBytes);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package test.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 流式编解码共用的 ASCII 快速路径
+ *
+ * 下面这些字符集中 0x00-0x7F 的字节和字符一一对应，而且多字节字符的第一个字节一定不小于 0x80，
+ * 所以在字符边界上遇到小于 0x80 的字节可以直接转换成字符，不需要经过 CharsetDecoder。
+ * ISO-2022 一类带转义状态的字符集不满足这个条件，不能走快速路径
+ */
+final class Charsets {
+
+    private static final Set<String> ASCII_COMPATIBLE = new HashSet<>(Arrays.asList("US-ASCII", "UTF-8",
+            "ISO-8859-1", "GBK", "GB2312", "GB18030", "Big5", "windows-1252"));
+
+    private Charsets() {
+    }
+
+    static boolean isAsciiCompatible(Charset charset) {
+        return ASCII_COMPATIBLE.contains(charset.name());
+    }
+
+    // 从 in 的当前位置开始把连续的 ASCII 字节转换成字符，遇到非 ASCII 字节、输入耗尽或输出已满时停止
+    static void decodeAscii(ByteBuffer in, CharBuffer out) {
+        int n = Math.min(in.remaining(), out.remaining());
+        int i = 0;
+        if (in.hasArray() && out.hasArray()) {
+            byte[] src = in.array();
+            char[] dst = out.array();
+            int sp = in.arrayOffset() + in.position();
+            int dp = out.arrayOffset() + out.position();
+            while (i < n && src[sp + i] >= 0) {
+                dst[dp + i] = (char) src[sp + i];
+                i++;
+            }
+        } else {
+            int sp = in.position();
+            int dp = out.position();
+            byte b;
+            while (i < n && (b = in.get(sp + i)) >= 0) {
+                out.put(dp + i, (char) b);
+                i++;
+            }
+        }
+        in.position(in.position() + i);
+        out.position(out.position() + i);
+    }
+
+    // 从 in 的当前位置开始把连续的 ASCII 字符转换成字节，遇到非 ASCII 字符、输入耗尽或输出已满时停止
+    static void encodeAscii(CharBuffer in, ByteBuffer out) {
+        int n = Math.min(in.remaining(), out.remaining());
+        int i = 0;
+        if (in.hasArray() && out.hasArray()) {
+            char[] src = in.array();
+            byte[] dst = out.array();
+            int sp = in.arrayOffset() + in.position();
+            int dp = out.arrayOffset() + out.position();
+            while (i < n && src[sp + i] < 0x80) {
+                dst[dp + i] = (byte) src[sp + i];
+                i++;
+            }
+        } else {
+            int sp = in.position();
+            int dp = out.position();
+            char c;
+            while (i < n && (c = in.get(sp + i)) < 0x80) {
+                out.put(dp + i, (byte) c);
+                i++;
+            }
+        }
+        in.position(in.position() + i);
+        out.position(out.position() + i);
+    }
+}
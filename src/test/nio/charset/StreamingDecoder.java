@@ -0,0 +1,117 @@
+package test.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 流式解码器：把一段段到达的字节解码到调用方提供的 CharBuffer 中，不分配新的缓冲区和字符串
+ *
+ * 一：和 CharsetDecoder.decode(ByteBuffer) / new String(byte[]) 的区别
+ *  1. 输出写入调用方复用的 CharBuffer，而不是每次分配新的 CharBuffer 或 String
+ *  2. 一个多字节字符（GBK 两个字节、UTF-8 最多四个字节）被拆在两次读取之间时，
+ *     前半截保存在内部的小缓冲区中，和下一段字节拼起来再解码，不会出现乱码
+ *  3. 每次调用以后输入缓冲区都被完全消费（除非输出已满），调用方可以直接 clear() 复用
+ *  4. 兼容 ASCII 的字符集（UTF-8、GBK 等）先走 ASCII 快速路径，纯英文文本不经过 CharsetDecoder
+ *
+ * 二：非法的字节序列默认替换为 '�'
+ *
+ * 不是线程安全的，每条连接一个实例
+ */
+public class StreamingDecoder {
+
+    private final CharsetDecoder decoder;
+    private final boolean asciiCompatible;
+    // 上一次调用剩下的不完整字节序列，读模式
+    private final ByteBuffer carry;
+
+    public StreamingDecoder(Charset charset) {
+        this(charset, CodingErrorAction.REPLACE);
+    }
+
+    public StreamingDecoder(Charset charset, CodingErrorAction errorAction) {
+        this.decoder = charset.newDecoder().onMalformedInput(errorAction).onUnmappableCharacter(errorAction);
+        this.asciiCompatible = Charsets.isAsciiCompatible(charset);
+        this.carry = ByteBuffer.allocate(16);
+        carry.flip();
+    }
+
+    /**
+     * 解码 in 中的字节并写入 out
+     * @param endOfInput 没有更多的输入了，剩下的不完整字节序列按非法输入处理
+     * @return UNDERFLOW 表示输入已经全部消费，OVERFLOW 表示 out 已满，需要处理 out 以后用同一个 in 再次调用
+     */
+    public CoderResult decode(ByteBuffer in, CharBuffer out, boolean endOfInput) {
+        if (carry.hasRemaining()) {
+            CoderResult result = decodeCarry(in, out, endOfInput);
+            if (result.isOverflow() || carry.hasRemaining()) {
+                return result;
+            }
+        }
+        if (asciiCompatible) {
+            Charsets.decodeAscii(in, out);
+        }
+        CoderResult result = decoder.decode(in, out, endOfInput);
+        if (result.isOverflow()) {
+            return result;
+        }
+        if (result.isError()) {
+            // 使用 REPORT 时由调用方处理
+            return result;
+        }
+        if (in.hasRemaining()) {
+            // 末尾不完整的字节序列先保存起来，让调用方可以复用 in
+            carry.compact();
+            carry.put(in);
+            carry.flip();
+        }
+        if (endOfInput) {
+            return finish(out);
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    // 把 in 开头的字节补到上次剩下的半个字符后面，解码出这一个字符
+    private CoderResult decodeCarry(ByteBuffer in, CharBuffer out, boolean endOfInput) {
+        int carried = carry.remaining();
+        int borrowed = Math.min(in.remaining(), carry.capacity() - carried);
+        carry.compact();
+        for (int i = 0; i < borrowed; i++) {
+            carry.put(in.get(in.position() + i));
+        }
+        carry.flip();
+        CoderResult result = decoder.decode(carry, out, endOfInput && borrowed == in.remaining());
+        int left = carry.remaining();
+        if (left <= borrowed) {
+            // 上次剩下的字节都已经解码，借来还没用掉的字节本来就还在 in 中
+            in.position(in.position() + borrowed - left);
+            carry.position(carry.limit());
+        } else {
+            in.position(in.position() + borrowed);
+        }
+        return result;
+    }
+
+    private CoderResult finish(CharBuffer out) {
+        CoderResult result = decoder.flush(out);
+        if (!result.isOverflow()) {
+            decoder.reset();
+        }
+        return result;
+    }
+
+    // 丢弃保存的半个字符，重新开始
+    public void reset() {
+        decoder.reset();
+        carry.clear();
+        carry.flip();
+    }
+
+    // 是否有不完整的字节序列等待下一段输入
+    public boolean hasPendingInput() {
+        return carry.hasRemaining();
+    }
+}
@@ -0,0 +1,107 @@
+package test.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 流式编码器：把一段段到达的字符编码到调用方提供的 ByteBuffer 中，是 StreamingDecoder 的反方向
+ *
+ * 一：和 testChannel6 中的 CharsetEncoder.encode(CharBuffer) 相比
+ *  1. 输出写入调用方复用的 ByteBuffer（可以是池化的直接缓冲区，直接交给 SocketChannel.write）
+ *  2. 代理对（例如 emoji）的高位代理在一次调用的末尾时先保存起来，和下一段字符的低位代理一起编码
+ *  3. 兼容 ASCII 的字符集先走 ASCII 快速路径
+ *
+ * 二：无法编码的字符默认替换为字符集的替换字节（通常是 '?'）
+ *
+ * 不是线程安全的，每条连接一个实例
+ */
+public class StreamingEncoder {
+
+    private final CharsetEncoder encoder;
+    private final boolean asciiCompatible;
+    // 上一次调用末尾剩下的高位代理，读模式
+    private final CharBuffer carry;
+
+    public StreamingEncoder(Charset charset) {
+        this(charset, CodingErrorAction.REPLACE);
+    }
+
+    public StreamingEncoder(Charset charset, CodingErrorAction errorAction) {
+        this.encoder = charset.newEncoder().onMalformedInput(errorAction).onUnmappableCharacter(errorAction);
+        this.asciiCompatible = Charsets.isAsciiCompatible(charset);
+        this.carry = CharBuffer.allocate(2);
+        carry.flip();
+    }
+
+    /**
+     * 编码 in 中的字符并写入 out
+     * @param endOfInput 没有更多的输入了，剩下的单个高位代理按非法输入处理
+     * @return UNDERFLOW 表示输入已经全部消费，OVERFLOW 表示 out 已满，需要处理 out 以后用同一个 in 再次调用
+     */
+    public CoderResult encode(CharBuffer in, ByteBuffer out, boolean endOfInput) {
+        if (carry.hasRemaining()) {
+            CoderResult result = encodeCarry(in, out, endOfInput);
+            if (result.isOverflow() || carry.hasRemaining()) {
+                return result;
+            }
+        }
+        if (asciiCompatible) {
+            Charsets.encodeAscii(in, out);
+        }
+        CoderResult result = encoder.encode(in, out, endOfInput);
+        if (result.isOverflow() || result.isError()) {
+            return result;
+        }
+        if (in.hasRemaining()) {
+            carry.compact();
+            carry.put(in);
+            carry.flip();
+        }
+        if (endOfInput) {
+            return finish(out);
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    // 和 StreamingDecoder.decodeCarry 相同：借 in 开头的一个字符补到高位代理后面
+    private CoderResult encodeCarry(CharBuffer in, ByteBuffer out, boolean endOfInput) {
+        int borrowed = Math.min(in.remaining(), carry.capacity() - carry.remaining());
+        carry.compact();
+        for (int i = 0; i < borrowed; i++) {
+            carry.put(in.get(in.position() + i));
+        }
+        carry.flip();
+        CoderResult result = encoder.encode(carry, out, endOfInput && borrowed == in.remaining());
+        int left = carry.remaining();
+        if (left <= borrowed) {
+            in.position(in.position() + borrowed - left);
+            carry.position(carry.limit());
+        } else {
+            in.position(in.position() + borrowed);
+        }
+        return result;
+    }
+
+    private CoderResult finish(ByteBuffer out) {
+        CoderResult result = encoder.flush(out);
+        if (!result.isOverflow()) {
+            encoder.reset();
+        }
+        return result;
+    }
+
+    public void reset() {
+        encoder.reset();
+        carry.clear();
+        carry.flip();
+    }
+
+    // 最坏情况下一个字符编码成多少个字节，用于预留输出空间
+    public int maxBytesPerChar() {
+        return (int) Math.ceil(encoder.maxBytesPerChar());
+    }
+}
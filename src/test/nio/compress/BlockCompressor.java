@@ -0,0 +1,234 @@
+package test.nio.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import test.nio.buffer.BufferPool;
+
+/**
+ * 压缩阶段的发送端：把数据切成块，每块单独压缩，编码成带长度字段的块，由 BlockDecompressor 或 CompressionFrameDecoder 还原
+ *
+ *  +--------+-------+-----------------+----------------------------+
+ *  | length | codec | original length |  payload（压缩后或者原样的数据） |
+ *  +--------+-------+-----------------+----------------------------+
+ *    4 字节   1 字节       4 字节
+ *
+ * 一：可插拔：算法（Codec）的 id 写在每个块的块头里，接收端不需要事先知道发送端用的是哪种算法，
+ *    所以可以按连接、按传输（enabled()）甚至按块决定压不压缩，接收端的配置不变
+ *
+ * 二：跳过不值得压缩的数据
+ *  1. 每次传输的第一块按魔数识别 JPEG、PNG、ZIP 等已经压缩过的格式（CompressedFormats），识别出来后整个传输都不压缩
+ *  2. 压缩后节省不到 minSavings（默认 5%）的块原样发送，连续 8 块都这样时这次传输剩下的部分不再尝试压缩
+ *  3. 小于 64 个字节的块原样发送
+ *
+ * 三：块的输出缓冲区从缓冲区池申请（直接缓冲区），调用方写完以后归还；默认块大小加上块头正好是默认缓冲区池最大的一级
+ *
+ * 有状态（Codec 的哈希表、Deflater、当前传输的识别结果），每条连接或者每个传输线程一个，用完以后 close()
+ */
+public class BlockCompressor implements AutoCloseable {
+
+    // 长度字段 + 算法 + 原始长度
+    public static final int HEADER_SIZE = 4 + 1 + 4;
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024 - HEADER_SIZE;
+    // 不压缩的块的算法 id
+    public static final byte STORED = 0;
+
+    static final int MIN_COMPRESS_LENGTH = 64;
+    static final int MAX_INCOMPRESSIBLE_RUN = 8;
+
+    private final Codec codec;
+    private final BufferPool pool;
+    private final int blockSize;
+    private boolean enabled = true;
+    private int minSavingsPercent = 5;
+
+    // 当前传输的状态，reset() 时清除
+    private boolean started;
+    private boolean skipping;
+    private String detectedFormat;
+    private int incompressibleRun;
+
+    private long blocks;
+    private long compressedBlocks;
+    private long bytesIn;
+    private long bytesOut;
+
+    public BlockCompressor(Codec codec) {
+        this(codec, BufferPool.getDefault(), DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockCompressor(Codec codec, BufferPool pool, int blockSize) {
+        if (blockSize < MIN_COMPRESS_LENGTH) {
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+        }
+        this.codec = codec;
+        this.pool = pool;
+        this.blockSize = blockSize;
+    }
+
+    // 关闭以后所有块都原样发送（接收端不需要任何改动），用于按连接或者按传输关闭压缩
+    public BlockCompressor enabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    // 压缩后至少要比原始数据小这个百分比才发送压缩块
+    public BlockCompressor minSavings(int percent) {
+        if (percent < 0 || percent >= 100) {
+            throw new IllegalArgumentException("percent: " + percent);
+        }
+        this.minSavingsPercent = percent;
+        return this;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    // 块的最大长度（包括块头），接收端据此设置分帧的上限
+    public static int maxFrameLength(int blockSize) {
+        return HEADER_SIZE + blockSize;
+    }
+
+    // 开始一次新的传输（一个文件、一条消息），下一块重新识别内容的格式
+    public void reset() {
+        started = false;
+        skipping = false;
+        detectedFormat = null;
+        incompressibleRun = 0;
+    }
+
+    // 当前传输识别出的已压缩格式，没有识别出来时返回 null
+    public String detectedFormat() {
+        return detectedFormat;
+    }
+
+    /**
+     * 从 src 中取出最多 blockSize 个字节编码成一块，src 的 position 向后移动
+     * @return 从缓冲区池申请的一块（读模式），写完以后由调用方归还到池中
+     */
+    public ByteBuffer encode(ByteBuffer src) {
+        int length = Math.min(src.remaining(), blockSize);
+        int srcLimit = src.limit();
+        src.limit(src.position() + length);
+        ByteBuffer frame = pool.acquire(HEADER_SIZE + length);
+        try {
+            if (!started) {
+                started = true;
+                if (enabled) {
+                    detectedFormat = CompressedFormats.detect(src);
+                    skipping = detectedFormat != null;
+                }
+            }
+            frame.position(HEADER_SIZE);
+            int compressed = -1;
+            if (enabled && !skipping && length >= MIN_COMPRESS_LENGTH) {
+                // 输出空间只给到“至少节省 minSavings”为止，超出时 Codec 提前放弃
+                frame.limit(HEADER_SIZE + length - (int) ((long) length * minSavingsPercent / 100));
+                compressed = codec.compress(src, frame);
+                frame.limit(frame.capacity());
+                if (compressed >= 0) {
+                    incompressibleRun = 0;
+                } else if (++incompressibleRun >= MAX_INCOMPRESSIBLE_RUN) {
+                    skipping = true;
+                }
+            }
+            byte id = codec.id();
+            if (compressed < 0) {
+                frame.put(src);
+                id = STORED;
+            } else {
+                compressedBlocks++;
+            }
+            frame.putInt(0, frame.position() - 4).put(4, id).putInt(5, length);
+            frame.flip();
+        } catch (RuntimeException e) {
+            pool.release(frame);
+            throw e;
+        } finally {
+            src.limit(srcLimit);
+        }
+        blocks++;
+        bytesIn += length;
+        bytesOut += frame.remaining();
+        return frame;
+    }
+
+    /**
+     * 把 in 中剩下的数据全部压缩写到 out，作为一次新的传输（先 reset()），用于阻塞的通道（文件、阻塞模式的 socket）
+     * @return 写出的字节数（包括块头）
+     */
+    public long compress(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        reset();
+        long written = 0;
+        ByteBuffer block = pool.acquire(blockSize);
+        try {
+            boolean eof = false;
+            while (!eof) {
+                block.clear();
+                block.limit(blockSize);
+                while (block.hasRemaining()) {
+                    if (in.read(block) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                block.flip();
+                if (!block.hasRemaining()) {
+                    break;
+                }
+                ByteBuffer frame = encode(block);
+                try {
+                    written += frame.remaining();
+                    while (frame.hasRemaining()) {
+                        out.write(frame);
+                    }
+                } finally {
+                    pool.release(frame);
+                }
+            }
+        } finally {
+            pool.release(block);
+        }
+        return written;
+    }
+
+    public Stats stats() {
+        return new Stats(blocks, compressedBlocks, bytesIn, bytesOut);
+    }
+
+    @Override
+    public void close() {
+        codec.close();
+    }
+
+    /**
+     * 累计的压缩情况
+     */
+    public static final class Stats {
+        public final long blocks;
+        public final long compressedBlocks;
+        public final long bytesIn;
+        public final long bytesOut;
+
+        Stats(long blocks, long compressedBlocks, long bytesIn, long bytesOut) {
+            this.blocks = blocks;
+            this.compressedBlocks = compressedBlocks;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+        }
+
+        // 输出和输入的字节数之比，越小越好
+        public double ratio() {
+            return bytesIn == 0 ? 1 : (double) bytesOut / bytesIn;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("BlockCompressor.Stats[blocks=%d, compressedBlocks=%d, bytesIn=%d, bytesOut=%d, ratio=%.3f]",
+                    blocks, compressedBlocks, bytesIn, bytesOut, ratio());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package test.nio.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import test.nio.buffer.BufferPool;
+
+/**
+ * 压缩阶段的接收端：还原 BlockCompressor 编码的块，块格式见 BlockCompressor
+ *
+ * 一：按块头中的算法 id 选择 Codec（第一次用到时创建），所以发送端可以随时切换算法或者关闭压缩
+ *
+ * 二：原样发送的块不拷贝，直接返回块本身的视图；压缩的块解压到一个复用的池化直接缓冲区，
+ *    它只在下一次 decode() 之前有效，和 FrameDecoder 交给处理器的帧一样
+ *
+ * 三：原始长度超过 maxBlockSize 的块视为损坏，防止对端用一个很大的长度让接收端申请大量内存
+ *
+ * 只能在一个线程中使用，用完以后 close() 归还缓冲区、释放 Deflater 的本地内存
+ */
+public class BlockDecompressor implements AutoCloseable {
+
+    // 长度字段之后的块头：算法 + 原始长度
+    static final int BLOCK_HEADER_SIZE = BlockCompressor.HEADER_SIZE - 4;
+
+    private final BufferPool pool;
+    private final int maxBlockSize;
+    private DeflateCodec deflate;
+    private LzCodec lz;
+    private ByteBuffer output;
+
+    public BlockDecompressor() {
+        this(BufferPool.getDefault(), BlockCompressor.DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockDecompressor(BufferPool pool, int maxBlockSize) {
+        this.pool = pool;
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    public int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * @param block 去掉了长度字段的一块（读模式），例如 LengthFieldFrameDecoder 解出的帧；它的 position 会被移动
+     * @return 原始数据（读模式），下一次 decode() 或者 close() 之前有效
+     */
+    public ByteBuffer decode(ByteBuffer block) throws CorruptedBlockException {
+        if (block.remaining() < BLOCK_HEADER_SIZE) {
+            throw new CorruptedBlockException("block too short: " + block.remaining());
+        }
+        int position = block.position();
+        byte id = block.get(position);
+        int length = block.getInt(position + 1);
+        if (length < 0 || length > maxBlockSize) {
+            throw new CorruptedBlockException("block length " + length + " exceeds " + maxBlockSize);
+        }
+        block.position(position + BLOCK_HEADER_SIZE);
+        if (id == BlockCompressor.STORED) {
+            if (block.remaining() != length) {
+                throw new CorruptedBlockException("stored block has " + block.remaining() + " bytes, expected " + length);
+            }
+            return block;
+        }
+        Codec codec = codec(id);
+        if (output == null || output.capacity() < length) {
+            if (output != null) {
+                pool.release(output);
+            }
+            output = pool.acquire(length);
+        }
+        output.clear();
+        output.limit(length);
+        codec.decompress(block, output);
+        output.flip();
+        return output;
+    }
+
+    private Codec codec(byte id) throws CorruptedBlockException {
+        switch (id) {
+        case DeflateCodec.ID:
+            if (deflate == null) {
+                deflate = new DeflateCodec();
+            }
+            return deflate;
+        case LzCodec.ID:
+            if (lz == null) {
+                lz = new LzCodec();
+            }
+            return lz;
+        default:
+            throw new CorruptedBlockException("unknown codec: " + id);
+        }
+    }
+
+    /**
+     * 从阻塞的通道 in 中读出所有块，解压后写到 out，直到 in 结束
+     * @return 写出的原始字节数
+     * @throws EOFException in 在一块的中间结束
+     */
+    public long decompress(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        long written = 0;
+        ByteBuffer frame = pool.acquire(BlockCompressor.maxFrameLength(maxBlockSize));
+        try {
+            while (true) {
+                frame.clear();
+                frame.limit(4);
+                if (!readFully(in, frame)) {
+                    if (frame.position() == 0) {
+                        break;
+                    }
+                    throw new EOFException("truncated block header");
+                }
+                int length = frame.getInt(0);
+                if (length < BLOCK_HEADER_SIZE || length > BLOCK_HEADER_SIZE + maxBlockSize) {
+                    throw new CorruptedBlockException("block frame length " + length + " out of range");
+                }
+                frame.clear();
+                frame.limit(length);
+                if (!readFully(in, frame)) {
+                    throw new EOFException("truncated block");
+                }
+                frame.flip();
+                ByteBuffer data = decode(frame);
+                written += data.remaining();
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+        } finally {
+            pool.release(frame);
+        }
+        return written;
+    }
+
+    // 读满 buffer，通道在此之前结束时返回 false
+    private static boolean readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 可以重复调用
+    @Override
+    public void close() {
+        if (output != null) {
+            pool.release(output);
+            output = null;
+        }
+        if (deflate != null) {
+            deflate.close();
+            deflate = null;
+        }
+        lz = null;
+    }
+}
@@ -0,0 +1,32 @@
+package test.nio.compress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 块压缩算法：一次压缩或解压一整块数据，块的原始长度由调用方（BlockCompressor 写的块头）记录
+ *
+ * 实现是有状态的（Deflater、哈希表、中转数组都在实例中复用），只能在一个线程中使用，
+ * 用完以后 close() 释放本地资源
+ */
+public interface Codec extends AutoCloseable {
+
+    // 写在块头里，解压时据此选择算法；0 留给不压缩的块
+    byte id();
+
+    /**
+     * 压缩 src 从 position 到 limit 的数据，写到 dst 的 position 处
+     * @return 压缩后的字节数，src 被读完，dst 的 position 向后移动；
+     *         压缩结果超过 dst.remaining() 时返回 -1，两个缓冲区的 position 都不变
+     */
+    int compress(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * 解压 src 从 position 到 limit 的一整块，解压结果正好填满 dst 从 position 到 limit 的空间
+     * @throws CorruptedBlockException 数据损坏，或者解压出的长度和 dst.remaining() 不一致
+     */
+    void decompress(ByteBuffer src, ByteBuffer dst) throws CorruptedBlockException;
+
+    @Override
+    default void close() {
+    }
+}
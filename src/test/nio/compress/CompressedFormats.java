@@ -0,0 +1,69 @@
+package test.nio.compress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按文件开头的魔数识别已经压缩过的格式（图片、压缩包、音视频容器），这些数据再压缩一遍几乎不会变小，只浪费 CPU
+ */
+public final class CompressedFormats {
+
+    private static final String[] NAMES = { "JPEG", "PNG", "GIF", "GZIP", "ZIP", "7Z", "XZ", "BZIP2", "ZSTD", "RAR" };
+    private static final byte[][] MAGICS = {
+            bytes(0xFF, 0xD8, 0xFF),
+            bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A),
+            bytes('G', 'I', 'F', '8'),
+            bytes(0x1F, 0x8B),
+            bytes('P', 'K', 0x03, 0x04),
+            bytes('7', 'z', 0xBC, 0xAF, 0x27, 0x1C),
+            bytes(0xFD, '7', 'z', 'X', 'Z', 0x00),
+            bytes('B', 'Z', 'h'),
+            bytes(0x28, 0xB5, 0x2F, 0xFD),
+            bytes('R', 'a', 'r', '!', 0x1A, 0x07) };
+    private static final byte[] RIFF = bytes('R', 'I', 'F', 'F');
+    private static final byte[] WEBP = bytes('W', 'E', 'B', 'P');
+    private static final byte[] FTYP = bytes('f', 't', 'y', 'p');
+
+    private CompressedFormats() {
+    }
+
+    /**
+     * 检查 data 从 position 开始的内容（绝对位置读取，不移动 position）
+     * @return 格式名，不是已知的压缩格式时返回 null
+     */
+    public static String detect(ByteBuffer data) {
+        int position = data.position();
+        for (int i = 0; i < MAGICS.length; i++) {
+            if (startsWith(data, position, MAGICS[i])) {
+                return NAMES[i];
+            }
+        }
+        // WEBP：RIFF????WEBP；MP4/MOV：????ftyp
+        if (startsWith(data, position, RIFF) && startsWith(data, position + 8, WEBP)) {
+            return "WEBP";
+        }
+        if (startsWith(data, position + 4, FTYP)) {
+            return "MP4";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(ByteBuffer data, int index, byte[] magic) {
+        if (data.limit() - index < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (data.get(index + i) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
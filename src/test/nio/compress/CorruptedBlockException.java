@@ -0,0 +1,19 @@
+package test.nio.compress;
+
+import java.io.IOException;
+
+/**
+ * 压缩块无法解压：数据损坏、未知的算法，或者解压出的长度和块头不一致，连接会被关闭
+ */
+public class CorruptedBlockException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CorruptedBlockException(String message) {
+        super(message);
+    }
+
+    public CorruptedBlockException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,165 @@
+package test.nio.compress;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate（zlib 的原始格式，不带 zlib 头和校验和，块的长度由块头校验）
+ *
+ * 一：压缩率高、速度慢，适合带宽是瓶颈、CPU 空闲的链路，level 在 1（最快）到 9（最小）之间调整
+ *
+ * 二：Java 8 的 Deflater/Inflater 只接受 byte[]（ByteBuffer 版本的 setInput/deflate 从 Java 11 才有），
+ *    堆缓冲区直接使用它的底层数组；直接缓冲区先拷贝到实例中复用的中转数组，结果再拷贝回去
+ *
+ * 三：Deflater 和 Inflater 持有本地内存，用完以后必须 close()，不能依赖 finalize
+ */
+public class DeflateCodec implements Codec {
+
+    public static final byte ID = 1;
+
+    private final int level;
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[0];
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCodec(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public int compress(ByteBuffer src, ByteBuffer dst) {
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        int length = src.remaining();
+        int max = dst.remaining();
+        byte[] in;
+        int inOffset;
+        if (src.hasArray()) {
+            in = src.array();
+            inOffset = src.arrayOffset() + src.position();
+        } else {
+            in = input = ensure(input, length);
+            inOffset = 0;
+            int position = src.position();
+            src.get(in, 0, length);
+            src.position(position);
+        }
+        byte[] out;
+        int outOffset;
+        if (dst.hasArray()) {
+            out = dst.array();
+            outOffset = dst.arrayOffset() + dst.position();
+        } else {
+            out = output = ensure(output, max);
+            outOffset = 0;
+        }
+        deflater.reset();
+        deflater.setInput(in, inOffset, length);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < max) {
+            n += deflater.deflate(out, outOffset + n, max - n);
+        }
+        if (!deflater.finished()) {
+            return -1;
+        }
+        if (!dst.hasArray()) {
+            dst.put(out, 0, n);
+        } else {
+            dst.position(dst.position() + n);
+        }
+        src.position(src.limit());
+        return n;
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, ByteBuffer dst) throws CorruptedBlockException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        int length = src.remaining();
+        int expected = dst.remaining();
+        byte[] in;
+        int inOffset;
+        if (src.hasArray()) {
+            in = src.array();
+            inOffset = src.arrayOffset() + src.position();
+        } else {
+            in = input = ensure(input, length);
+            inOffset = 0;
+            int position = src.position();
+            src.get(in, 0, length);
+            src.position(position);
+        }
+        // 输出空间至少一个字节，空块也要调用 inflate 才能读到流的结尾
+        byte[] out;
+        int outOffset;
+        int room;
+        if (dst.hasArray() && expected > 0) {
+            out = dst.array();
+            outOffset = dst.arrayOffset() + dst.position();
+            room = expected;
+        } else {
+            room = Math.max(expected, 1);
+            out = output = ensure(output, room);
+            outOffset = 0;
+        }
+        inflater.reset();
+        inflater.setInput(in, inOffset, length);
+        int n = 0;
+        try {
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(out, outOffset + n, room - n);
+                // 需要更多输入、需要字典或者输出空间已满
+                if (inflated == 0 && !inflater.finished()) {
+                    break;
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new CorruptedBlockException("corrupted deflate block", e);
+        }
+        if (n != expected || !inflater.finished() || inflater.getRemaining() != 0) {
+            throw new CorruptedBlockException("deflate block inflated to " + n + " bytes, expected " + expected);
+        }
+        if (dst.hasArray() && out == dst.array()) {
+            dst.position(dst.position() + n);
+        } else {
+            dst.put(out, 0, n);
+        }
+        src.position(src.limit());
+    }
+
+    // 中转数组只增不减，块的大小一般是固定的
+    private static byte[] ensure(byte[] array, int length) {
+        return array.length >= length ? array : new byte[length];
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package test.nio.compress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * 快速的 LZ77 压缩，块格式按照 LZ4 的块格式
+ *
+ *  +-------+-------------------+----------+--------------+----------------------+
+ *  | token | 字面量长度的扩展字节 |  字面量   | offset（2 字节）| 匹配长度的扩展字节      |  ...
+ *  +-------+-------------------+----------+--------------+----------------------+
+ *  token 的高 4 位是字面量长度，低 4 位是匹配长度 - 4，等于 15 时后面跟着扩展字节（每个 255 累加，直到一个小于 255 的字节）
+ *  offset 是小端的，表示匹配从当前位置往回多少个字节；最后一个序列只有字面量
+ *
+ * 一：压缩率比 Deflate 低，但压缩快得多（不可压缩的数据上尤其明显），解压和本地实现的 Inflater 相当，
+ *    适合 CPU 也比较紧张、只想去掉明显冗余（文本、日志、JSON）的场合
+ *
+ * 二：直接在 ByteBuffer 上用绝对位置读写，堆缓冲区和直接缓冲区都不需要中转数组；
+ *    查找匹配用的哈希表在实例中复用，压缩一块不创建对象
+ *
+ * 三：只保证按这个格式正确编解码，没有做 LZ4 的帧格式、校验和、字典等功能
+ */
+public class LzCodec implements Codec {
+
+    public static final byte ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    // 最后 5 个字节必须是字面量，最后一个匹配至少在末尾 12 个字节之前开始（LZ4 格式的约定）
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_LOG = 14;
+    // 连续没有找到匹配时加快跳过的速度，不可压缩的数据上不至于逐字节查找
+    private static final int SKIP_TRIGGER = 6;
+
+    // 4 个字节的哈希 → 最近一次出现的位置（相对块的起点）
+    private final int[] table = new int[1 << HASH_LOG];
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public int compress(ByteBuffer src, ByteBuffer dst) {
+        int base = src.position();
+        int length = src.remaining();
+        int out = dst.position();
+        int outLimit = dst.limit();
+        int anchor = 0;
+        boolean bigEndian = src.order() == ByteOrder.BIG_ENDIAN;
+        if (length >= MF_LIMIT + 1) {
+            Arrays.fill(table, -1);
+            int matchLimit = length - LAST_LITERALS;
+            int limit = length - MF_LIMIT;
+            int i = 0;
+            int misses = 1 << SKIP_TRIGGER;
+            while (i < limit) {
+                int sequence = src.getInt(base + i);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = i;
+                if (ref < 0 || i - ref > MAX_DISTANCE || src.getInt(base + ref) != sequence) {
+                    i += misses++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                misses = 1 << SKIP_TRIGGER;
+                // 向前扩展匹配
+                while (i > anchor && ref > 0 && src.get(base + i - 1) == src.get(base + ref - 1)) {
+                    i--;
+                    ref--;
+                }
+                // 向后扩展匹配：8 个字节一比，不相等时由异或结果的前导（或尾随）零个数直接算出相同的字节数
+                int matchLength = MIN_MATCH;
+                boolean mismatched = false;
+                while (i + matchLength + 8 <= matchLimit) {
+                    long diff = src.getLong(base + i + matchLength) ^ src.getLong(base + ref + matchLength);
+                    if (diff != 0) {
+                        matchLength += (bigEndian ? Long.numberOfLeadingZeros(diff) : Long.numberOfTrailingZeros(diff)) >>> 3;
+                        mismatched = true;
+                        break;
+                    }
+                    matchLength += 8;
+                }
+                while (!mismatched && i + matchLength < matchLimit
+                        && src.get(base + i + matchLength) == src.get(base + ref + matchLength)) {
+                    matchLength++;
+                }
+                out = writeSequence(src, base + anchor, i - anchor, i - ref, matchLength - MIN_MATCH, dst, out,
+                        outLimit);
+                if (out < 0) {
+                    return -1;
+                }
+                i += matchLength;
+                anchor = i;
+                // 匹配末尾的位置也放进哈希表，下一个匹配更容易找到
+                if (i - 2 < limit) {
+                    table[hash(src.getInt(base + i - 2))] = i - 2;
+                }
+            }
+        }
+        // 最后的字面量
+        out = writeLastLiterals(src, base + anchor, length - anchor, dst, out, outLimit);
+        if (out < 0) {
+            return -1;
+        }
+        int written = out - dst.position();
+        dst.position(out);
+        src.position(src.limit());
+        return written;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    // 写一个“字面量 + 匹配”的序列，返回新的输出位置，放不下时返回 -1
+    private static int writeSequence(ByteBuffer src, int literalStart, int literalLength, int offset,
+            int matchExtra, ByteBuffer dst, int out, int outLimit) {
+        int required = 1 + literalLength + literalLength / 255 + 1 + 2 + matchExtra / 255 + 1;
+        if (outLimit - out < required) {
+            return -1;
+        }
+        int token = out++;
+        int literalBits;
+        if (literalLength >= 15) {
+            literalBits = 15 << 4;
+            out = writeLength(dst, out, literalLength - 15);
+        } else {
+            literalBits = literalLength << 4;
+        }
+        copy(src, literalStart, dst, out, literalLength);
+        out += literalLength;
+        dst.put(out++, (byte) offset);
+        dst.put(out++, (byte) (offset >>> 8));
+        if (matchExtra >= 15) {
+            dst.put(token, (byte) (literalBits | 15));
+            out = writeLength(dst, out, matchExtra - 15);
+        } else {
+            dst.put(token, (byte) (literalBits | matchExtra));
+        }
+        return out;
+    }
+
+    private static int writeLastLiterals(ByteBuffer src, int literalStart, int literalLength, ByteBuffer dst,
+            int out, int outLimit) {
+        int required = 1 + literalLength + literalLength / 255 + 1;
+        if (outLimit - out < required) {
+            return -1;
+        }
+        if (literalLength >= 15) {
+            dst.put(out++, (byte) (15 << 4));
+            out = writeLength(dst, out, literalLength - 15);
+        } else {
+            dst.put(out++, (byte) (literalLength << 4));
+        }
+        copy(src, literalStart, dst, out, literalLength);
+        return out + literalLength;
+    }
+
+    private static int writeLength(ByteBuffer dst, int out, int length) {
+        while (length >= 255) {
+            dst.put(out++, (byte) 255);
+            length -= 255;
+        }
+        dst.put(out++, (byte) length);
+        return out;
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, ByteBuffer dst) throws CorruptedBlockException {
+        int in = src.position();
+        int inEnd = src.limit();
+        int outStart = dst.position();
+        int out = outStart;
+        int outEnd = dst.limit();
+        boolean sameOrder = src.order() == dst.order();
+        boolean littleEndian = src.order() == ByteOrder.LITTLE_ENDIAN;
+        while (in < inEnd) {
+            int token = src.get(in++) & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (in >= inEnd) {
+                        throw corrupted("truncated literal length");
+                    }
+                    b = src.get(in++) & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > inEnd - in || literalLength > outEnd - out) {
+                throw corrupted("literal length " + literalLength + " out of range");
+            }
+            // 字面量为 0（紧跟在上一个匹配后面的匹配）在文本中很常见
+            if (literalLength > 0) {
+                if (literalLength <= 16 && sameOrder && inEnd - in >= 16 && outEnd - out >= 16) {
+                    // 短字面量固定拷 16 个字节，多拷的部分会被后面的数据覆盖
+                    dst.putLong(out, src.getLong(in));
+                    dst.putLong(out + 8, src.getLong(in + 8));
+                } else {
+                    copy(src, in, dst, out, literalLength);
+                }
+            }
+            in += literalLength;
+            out += literalLength;
+            if (in == inEnd) {
+                // 最后一个序列只有字面量
+                break;
+            }
+            if (inEnd - in < 2) {
+                throw corrupted("truncated offset");
+            }
+            // offset 是小端的
+            short rawOffset = src.getShort(in);
+            int offset = (littleEndian ? rawOffset : Short.reverseBytes(rawOffset)) & 0xFFFF;
+            in += 2;
+            if (offset == 0 || offset > out - outStart) {
+                throw corrupted("offset " + offset + " out of range");
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (in >= inEnd) {
+                        throw corrupted("truncated match length");
+                    }
+                    b = src.get(in++) & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > outEnd - out) {
+                throw corrupted("match length " + matchLength + " out of range");
+            }
+            copyMatch(dst, out - offset, out, matchLength, outEnd);
+            out += matchLength;
+        }
+        if (out != outEnd) {
+            throw corrupted("block decompressed to " + (out - outStart) + " bytes, expected " + (outEnd - outStart));
+        }
+        src.position(inEnd);
+        dst.position(out);
+    }
+
+    private static CorruptedBlockException corrupted(String message) {
+        return new CorruptedBlockException("corrupted lz block: " + message);
+    }
+
+    // 两个缓冲区之间的绝对位置拷贝：堆缓冲区用 System.arraycopy，否则 8 个字节一拷（两边字节序不同时逐字节）
+    private static void copy(ByteBuffer src, int from, ByteBuffer dst, int to, int length) {
+        if (src.hasArray() && dst.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + from, dst.array(), dst.arrayOffset() + to, length);
+            return;
+        }
+        int i = 0;
+        for (; src.order() == dst.order() && i + 8 <= length; i += 8) {
+            dst.putLong(to + i, src.getLong(from + i));
+        }
+        for (; i < length; i++) {
+            dst.put(to + i, src.get(from + i));
+        }
+    }
+
+    /**
+     * 匹配可以和输出重叠（offset 小于长度时重复前面的内容），距离不小于 8 时按 8 个字节拷贝也是安全的；
+     * 输出空间有富余时最后一次也拷满 8 个字节，多拷的部分会被后面的数据覆盖
+     */
+    private static void copyMatch(ByteBuffer dst, int from, int to, int length, int end) {
+        int i = 0;
+        if (to - from >= 8) {
+            if (end - to >= length + 8) {
+                for (; i < length; i += 8) {
+                    dst.putLong(to + i, dst.getLong(from + i));
+                }
+                return;
+            }
+            for (; i + 8 <= length; i += 8) {
+                dst.putLong(to + i, dst.getLong(from + i));
+            }
+        }
+        for (; i < length; i++) {
+            dst.put(to + i, dst.get(from + i));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package test.nio.copy;
+
+/**
+ * 一次文件复制的结果：使用的策略、复制的字节数和耗时
+ */
+public final class CopyResult {
+
+    private final FileCopier.Strategy strategy;
+    private final long bytes;
+    private final long nanos;
+    private final long checksum;
+
+    CopyResult(FileCopier.Strategy strategy, long bytes, long nanos, long checksum) {
+        this.strategy = strategy;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.checksum = checksum;
+    }
+
+    public FileCopier.Strategy strategy() {
+        return strategy;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    public long millis() {
+        return nanos / 1_000_000;
+    }
+
+    // 复制时计算的源文件校验和（算法见 FileChecksum.algorithm()），没有开启 FileCopier.checksum 时为 -1
+    public long checksum() {
+        return checksum;
+    }
+
+    public double bytesPerSecond() {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s：%d 字节，耗时 %d ms，%.2f MB/s%s", strategy, bytes, millis(),
+                bytesPerSecond() / (1024 * 1024),
+                checksum < 0 ? "" : String.format("，%s=%08x", FileChecksum.algorithm(), checksum));
+    }
+}
@@ -0,0 +1,275 @@
+package test.nio.copy;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 目录级的复制和同步：遍历源目录树，把文件复制到目标目录的相同位置
+ *
+ * 一：并行：每个目录、每个文件都是工作窃取线程池（ForkJoinPool）中的一个任务，
+ *    大量小文件可以同时复制，不会像 TestChannel 中那样在调用线程上一个一个地复制
+ *
+ * 二：单个文件交给 FileCopier：小文件用池化的直接缓冲区，大文件用 transferTo 或者映射窗口（见 FileCopier 的自动选择）。
+ *    默认的 FileCopier 不再把单个文件切分并行复制，并行度已经由文件之间的并行提供
+ *
+ * 三：跳过没有变化的文件（ChangeDetection）
+ *  1. SIZE_AND_MTIME：目标文件的大小和修改时间都和源文件相同就跳过，只需要读取文件属性。
+ *     复制完会把目标文件的修改时间设置成源文件的，下一次同步才能跳过它
+ *  2. CHECKSUM：大小相同时再比较两边的校验和（FileChecksum），不信任修改时间时使用，需要读完两边的文件
+ *  3. ALWAYS：全部复制
+ *
+ * 四：按设备限制并发：同一块磁盘上同时进行的复制不超过 maxConcurrentPerDevice 个，
+ *    太多的并发请求在机械盘上只会增加寻道。源目录和目标目录的设备（FileStore）在同步开始时确定，
+ *    目录树中间挂载的其他文件系统算作根目录所在的设备；同一个 DirectorySync 上同时进行的多次同步共享这些限制。
+ *    线程池的并行度应该不小于这个数，否则限制不起作用
+ *
+ * 五：单个文件出错不会中止同步，记录在 SyncResult.failures() 中；符号链接和其他特殊文件不处理
+ */
+public class DirectorySync {
+
+    public enum ChangeDetection {
+        ALWAYS, SIZE_AND_MTIME, CHECKSUM
+    }
+
+    static final int MAX_RECORDED_FAILURES = 100;
+
+    private FileCopier copier = new FileCopier().parallelism(1);
+    private FileChecksum checksum = new FileChecksum();
+    private ChangeDetection changeDetection = ChangeDetection.SIZE_AND_MTIME;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int maxConcurrentPerDevice = 8;
+
+    // 设备 → 并发限制
+    private final Map<FileStore, DeviceLimit> devices = new ConcurrentHashMap<>();
+    private final AtomicInteger deviceOrder = new AtomicInteger();
+
+    // 复制单个文件使用的 FileCopier，同步期间不能再修改它的设置
+    public DirectorySync copier(FileCopier copier) {
+        this.copier = copier;
+        return this;
+    }
+
+    public DirectorySync changeDetection(ChangeDetection changeDetection) {
+        this.changeDetection = changeDetection;
+        return this;
+    }
+
+    // CHECKSUM 模式使用的 FileChecksum
+    public DirectorySync checksum(FileChecksum checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    public DirectorySync pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    // 需要在第一次同步之前设置
+    public DirectorySync maxConcurrentPerDevice(int maxConcurrentPerDevice) {
+        if (maxConcurrentPerDevice <= 0) {
+            throw new IllegalArgumentException("maxConcurrentPerDevice: " + maxConcurrentPerDevice);
+        }
+        this.maxConcurrentPerDevice = maxConcurrentPerDevice;
+        return this;
+    }
+
+    /**
+     * 把 source 目录树同步到 target，target 不存在时创建；target 中多出来的文件不会删除
+     */
+    public SyncResult sync(Path source, Path target) throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new NotDirectoryException(source.toString());
+        }
+        if (target.toAbsolutePath().normalize().startsWith(source.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("target inside source: " + target);
+        }
+        long start = System.nanoTime();
+        Files.createDirectories(target);
+        Run run = new Run(deviceLimits(source, target));
+        pool.invoke(new DirectoryTask(run, source, target));
+        return new SyncResult(run.scanned.sum(), run.copied.sum(), run.skipped.sum(), run.failed.sum(),
+                run.bytesCopied.sum(), run.bytesSkipped.sum(), System.nanoTime() - start, run.failures);
+    }
+
+    // 源和目标在同一个设备上时只有一个限制；不同设备时按固定的顺序获取，避免两次同步互相等待
+    private Semaphore[] deviceLimits(Path source, Path target) throws IOException {
+        DeviceLimit sourceLimit = deviceLimit(Files.getFileStore(source));
+        DeviceLimit targetLimit = deviceLimit(Files.getFileStore(target));
+        if (sourceLimit == targetLimit) {
+            return new Semaphore[] { sourceLimit };
+        }
+        return sourceLimit.order < targetLimit.order ? new Semaphore[] { sourceLimit, targetLimit }
+                : new Semaphore[] { targetLimit, sourceLimit };
+    }
+
+    private DeviceLimit deviceLimit(FileStore store) {
+        return devices.computeIfAbsent(store,
+                key -> new DeviceLimit(maxConcurrentPerDevice, deviceOrder.getAndIncrement()));
+    }
+
+    // 一个设备上的并发限制，order 决定获取多个限制时的顺序
+    private static final class DeviceLimit extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        final int order;
+
+        DeviceLimit(int permits, int order) {
+            super(permits);
+            this.order = order;
+        }
+    }
+
+    // 一次同步的状态和计数
+    private static final class Run {
+        final Semaphore[] deviceLimits;
+        final LongAdder scanned = new LongAdder();
+        final LongAdder copied = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder bytesCopied = new LongAdder();
+        final LongAdder bytesSkipped = new LongAdder();
+        final Map<Path, Exception> failures = new ConcurrentSkipListMap<>();
+
+        Run(Semaphore[] deviceLimits) {
+            this.deviceLimits = deviceLimits;
+        }
+
+        void fail(Path path, Exception e) {
+            failed.increment();
+            if (failures.size() < MAX_RECORDED_FAILURES) {
+                failures.put(path, e);
+            }
+        }
+    }
+
+    // 列出一个目录，子目录和文件各自成为一个任务
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final Path source;
+        private final Path target;
+
+        DirectoryTask(Run run, Path source, Path target) {
+            this.run = run;
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+                Files.createDirectories(target);
+                for (Path child : children) {
+                    // 列出以后文件可能已经被删除或者变得不可读，只记录这一个，兄弟节点照常同步
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        run.fail(child, e);
+                        continue;
+                    }
+                    // 目标可能在另一种文件系统上，按名字而不是 Path 对象解析
+                    Path targetChild = target.resolve(child.getFileName().toString());
+                    if (attributes.isDirectory()) {
+                        tasks.add(new DirectoryTask(run, child, targetChild));
+                    } else if (attributes.isRegularFile()) {
+                        tasks.add(new FileTask(run, child, targetChild, attributes));
+                    }
+                }
+            } catch (IOException e) {
+                run.fail(source, e);
+            } catch (DirectoryIteratorException e) {
+                // 遍历目录的途中读目录出错，已经列出的子节点照常同步
+                run.fail(source, e.getCause());
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private final class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final Path source;
+        private final Path target;
+        private final BasicFileAttributes attributes;
+
+        FileTask(Run run, Path source, Path target, BasicFileAttributes attributes) {
+            this.run = run;
+            this.source = source;
+            this.target = target;
+            this.attributes = attributes;
+        }
+
+        @Override
+        protected void compute() {
+            run.scanned.increment();
+            int acquired = 0;
+            try {
+                for (Semaphore limit : run.deviceLimits) {
+                    limit.acquire();
+                    acquired++;
+                }
+                if (unchanged()) {
+                    run.skipped.increment();
+                    run.bytesSkipped.add(attributes.size());
+                    return;
+                }
+                CopyResult result = copier.copy(source, target);
+                Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+                run.copied.increment();
+                run.bytesCopied.add(result.bytes());
+            } catch (IOException e) {
+                run.fail(source, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.fail(source, e);
+            } finally {
+                for (int i = acquired - 1; i >= 0; i--) {
+                    run.deviceLimits[i].release();
+                }
+            }
+        }
+
+        private boolean unchanged() throws IOException {
+            if (changeDetection == ChangeDetection.ALWAYS) {
+                return false;
+            }
+            BasicFileAttributes existing;
+            try {
+                existing = Files.readAttributes(target, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            if (!existing.isRegularFile() || existing.size() != attributes.size()) {
+                return false;
+            }
+            if (changeDetection == ChangeDetection.SIZE_AND_MTIME) {
+                return existing.lastModifiedTime().equals(attributes.lastModifiedTime());
+            }
+            return checksum.matches(source, target);
+        }
+    }
+}
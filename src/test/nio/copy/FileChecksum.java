@@ -0,0 +1,260 @@
+package test.nio.copy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import test.nio.buffer.DirectMemory;
+
+/**
+ * 并行计算文件的校验和，用来确认复制（TestChannel、TestWebNIO 中的各种复制和传输）以后的文件和源文件一致
+ *
+ * 一：做法
+ *  1. 文件按窗口映射（默认 64M），不经过 read() 拷贝到用户缓冲区
+ *  2. 在 fork-join 线程池上二分窗口区间，每个窗口单独计算 CRC
+ *  3. CRC 是线性的：知道前后两段各自的 CRC 和后一段的长度就能算出拼起来的 CRC（zlib 的 crc32_combine），
+ *     合并不需要再读数据，开销只和窗口数有关
+ *
+ * 二：算法
+ *  JDK 9 开始有 java.util.zip.CRC32C，在支持 CRC32 指令（SSE4.2、ARMv8）的 CPU 上由 JIT 替换成硬件指令，
+ *  JDK 8 上没有这个类，所以通过反射查找，找不到时退回 CRC32。两种算法的结果不能互相比较，通过 algorithm() 查看
+ *
+ * 三：FileCopier.checksum(true) 在复制的同时计算源文件的校验和，这时数据还在页缓存中，不需要再读一遍源文件
+ */
+public class FileChecksum {
+
+    public enum Algorithm {
+        CRC32(0xEDB88320L), CRC32C(0x82F63B78L);
+
+        // 反射（低位在前）形式的生成多项式，合并时使用
+        private final long polynomial;
+
+        Algorithm(long polynomial) {
+            this.polynomial = polynomial;
+        }
+    }
+
+    private static final Algorithm ALGORITHM;
+    // CRC32C 的构造器和 Checksum.update(ByteBuffer)（JDK 9 才有的默认方法）
+    private static final MethodHandle NEW_CRC32C;
+    private static final MethodHandle UPDATE;
+
+    static {
+        MethodHandle constructor = null;
+        MethodHandle update = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor(Class.forName("java.util.zip.CRC32C"), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            update = lookup.findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            // JDK 8，退回 CRC32
+            constructor = null;
+            update = null;
+        }
+        NEW_CRC32C = constructor;
+        UPDATE = update;
+        ALGORITHM = constructor != null ? Algorithm.CRC32C : Algorithm.CRC32;
+    }
+
+    private long windowSize = 64L * 1024 * 1024;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // 每个窗口的大小，也是并行的最小粒度
+    public FileChecksum windowSize(long windowSize) {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("windowSize: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public FileChecksum pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    // 当前 JDK 上使用的算法
+    public static Algorithm algorithm() {
+        return ALGORITHM;
+    }
+
+    public static Checksum newChecksum() {
+        if (NEW_CRC32C == null) {
+            return new CRC32();
+        }
+        try {
+            return (Checksum) NEW_CRC32C.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 用 buffer 的 position 到 limit 之间的数据更新校验和，position 移到 limit
+    public static void update(Checksum checksum, ByteBuffer buffer) {
+        if (checksum instanceof CRC32) {
+            ((CRC32) checksum).update(buffer);
+            return;
+        }
+        try {
+            UPDATE.invokeExact(checksum, buffer);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 合并两段数据的 CRC：crc1 是前一段的 CRC，crc2 是后一段（length2 个字节）的 CRC，返回拼起来的 CRC
+     * 算法和 zlib 的 crc32_combine 相同：把“在 CRC 后面追加 length2 个 0 字节”表示成 GF(2) 上的矩阵，
+     * 通过反复平方在 O(log length2) 次矩阵运算内求出
+     */
+    public static long combine(long crc1, long crc2, long length2) {
+        return combine(crc1, crc2, length2, ALGORITHM.polynomial);
+    }
+
+    static long combine(long crc1, long crc2, long length2, long polynomial) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // 追加一个 0 比特的运算矩阵
+        odd[0] = polynomial;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // 追加 2 个和 4 个 0 比特
+        square(even, odd);
+        square(odd, even);
+        // 从追加 1 个 0 字节开始，按 length2 的二进制位累乘
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    public long checksum(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return checksum(channel, 0, channel.size());
+        }
+    }
+
+    // 文件 position 开始 count 个字节的校验和
+    public long checksum(FileChannel channel, long position, long count) throws IOException {
+        if (count == 0) {
+            return newChecksum().getValue();
+        }
+        try {
+            return pool.invoke(new WindowTask(channel, position, position + count));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // 两个文件大小相同并且校验和相同
+    public boolean matches(Path source, Path target) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.READ)) {
+            long size = sourceChannel.size();
+            return size == targetChannel.size()
+                    && checksum(sourceChannel, 0, size) == checksum(targetChannel, 0, size);
+        }
+    }
+
+    // 单线程按窗口映射计算，FileCopier 在复制的同时使用
+    static void updateMapped(Checksum checksum, FileChannel channel, long position, long count, long windowSize)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long length = Math.min(windowSize, end - position);
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, length);
+            update(checksum, window);
+            DirectMemory.free(window);
+            position += length;
+        }
+    }
+
+    /**
+     * 按窗口二分区间，左半边 fork 出去，右半边在当前线程计算，最后合并
+     */
+    private final class WindowTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        WindowTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Long compute() {
+            long windows = (end - start + windowSize - 1) / windowSize;
+            if (windows <= 1) {
+                Checksum checksum = newChecksum();
+                try {
+                    MappedByteBuffer window = channel.map(MapMode.READ_ONLY, start, end - start);
+                    update(checksum, window);
+                    // 立即解除映射，不等 GC
+                    DirectMemory.free(window);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return checksum.getValue();
+            }
+            long middle = start + windows / 2 * windowSize;
+            WindowTask left = new WindowTask(channel, start, middle);
+            left.fork();
+            long right = new WindowTask(channel, middle, end).compute();
+            return combine(left.join(), right, end - middle);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package test.nio.copy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Checksum;
+
+import test.nio.buffer.BufferPool;
+import test.nio.buffer.DirectMemory;
+
+/**
+ * 文件复制引擎，把 TestChannel 中的几种复制方式统一到一个 API 中，并根据文件大小和文件系统自动选择
+ *
+ * 一：策略
+ *  1. STREAM：非直接缓冲区循环读写（testChannel1），每次读写都多一次 JVM 堆和本地内存之间的拷贝
+ *  2. DIRECT_BUFFER：池化的直接缓冲区循环读写，小文件和网络文件系统上最稳妥
+ *  3. MAPPED：内存映射（TestChannel2），但按窗口映射，而不是把整个文件映射进来再拷贝到同样大小的 byte[]，
+ *     所以多 GB 的文件也不会 OutOfMemoryError；每个窗口复制完立即解除映射（DirectMemory.free）
+ *  4. TRANSFER：transferTo（TestChannel3），由内核完成复制
+ *  5. PARALLEL：把大文件切成若干段，每段用定位的 transferTo 并行复制
+ *
+ * 二：自动选择（AUTO）
+ *  网络文件系统 → DIRECT_BUFFER；小文件 → DIRECT_BUFFER；超大文件 → PARALLEL；其他 → TRANSFER
+ *
+ * 三：checksum(true) 时顺便计算源文件的校验和（CopyResult.checksum()），数据刚经过缓存时计算，不需要复制完再读一遍源文件
+ *  1. STREAM、DIRECT_BUFFER：每次读入缓冲区以后、写出之前计算
+ *  2. MAPPED：每个窗口复制完以后用源文件的映射区计算
+ *  3. TRANSFER、PARALLEL：数据由内核复制，不经过用户空间，所以按窗口传输，每个窗口传完以后映射源文件的这一段计算，
+ *     这时这一段还在页缓存中；PARALLEL 的各个分段分别计算，最后用 FileChecksum.combine 合并
+ */
+public class FileCopier {
+
+    public enum Strategy {
+        AUTO, STREAM, DIRECT_BUFFER, MAPPED, TRANSFER, PARALLEL
+    }
+
+    // 这些文件系统上 mmap 和 transferTo 没有优势，甚至可能出错
+    private static final Set<String> NETWORK_FILE_STORES = new HashSet<>(
+            Arrays.asList("nfs", "nfs4", "cifs", "smbfs", "smb2", "fuse.sshfs", "9p", "afpfs"));
+
+    private Strategy strategy = Strategy.AUTO;
+    private int bufferSize = 64 * 1024;
+    private long mapWindowSize = 64L * 1024 * 1024;
+    private long smallFileThreshold = 1024 * 1024;
+    private long parallelThreshold = 1024L * 1024 * 1024;
+    private long minSegmentSize = 64L * 1024 * 1024;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean checksum;
+
+    public FileCopier strategy(Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    // STREAM 和 DIRECT_BUFFER 策略的缓冲区大小
+    public FileCopier bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    // MAPPED 策略每次映射的窗口大小
+    public FileCopier mapWindowSize(long mapWindowSize) {
+        this.mapWindowSize = mapWindowSize;
+        return this;
+    }
+
+    // 小于这个大小的文件使用 DIRECT_BUFFER
+    public FileCopier smallFileThreshold(long smallFileThreshold) {
+        this.smallFileThreshold = smallFileThreshold;
+        return this;
+    }
+
+    // 不小于这个大小的文件使用 PARALLEL
+    public FileCopier parallelThreshold(long parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        return this;
+    }
+
+    // PARALLEL 策略每个分段的最小大小，分段太小时线程调度的开销会超过并行的收益
+    public FileCopier minSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = minSegmentSize;
+        return this;
+    }
+
+    public FileCopier parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    // 复制的同时计算源文件的校验和
+    public FileCopier checksum(boolean checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    public CopyResult copy(Path source, Path target) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel inChannel = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel outChannel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = inChannel.size();
+            Strategy chosen = strategy == Strategy.AUTO ? choose(source, size) : strategy;
+            Checksum crc = checksum ? FileChecksum.newChecksum() : null;
+            long value = -1;
+            switch (chosen) {
+            case STREAM:
+                copyWithBuffer(inChannel, outChannel, ByteBuffer.allocate(bufferSize), crc);
+                break;
+            case DIRECT_BUFFER:
+                ByteBuffer buffer = BufferPool.getDefault().acquire(bufferSize);
+                try {
+                    copyWithBuffer(inChannel, outChannel, buffer, crc);
+                } finally {
+                    BufferPool.getDefault().release(buffer);
+                }
+                break;
+            case MAPPED:
+                copyMapped(inChannel, outChannel, size, crc);
+                break;
+            case PARALLEL:
+                value = copyParallel(inChannel, outChannel, target, size);
+                break;
+            default:
+                transfer(inChannel, outChannel, 0, size, crc);
+            }
+            if (crc != null && chosen != Strategy.PARALLEL) {
+                value = crc.getValue();
+            }
+            return new CopyResult(chosen, size, System.nanoTime() - start, value);
+        }
+    }
+
+    // 根据文件大小和所在的文件系统选择策略
+    public Strategy choose(Path source, long size) throws IOException {
+        if (isNetworkFileStore(source) || size < smallFileThreshold) {
+            return Strategy.DIRECT_BUFFER;
+        }
+        if (size >= parallelThreshold && parallelism > 1) {
+            return Strategy.PARALLEL;
+        }
+        return Strategy.TRANSFER;
+    }
+
+    private static boolean isNetworkFileStore(Path path) throws IOException {
+        FileStore store = Files.getFileStore(path);
+        return NETWORK_FILE_STORES.contains(store.type().toLowerCase());
+    }
+
+    private static void copyWithBuffer(FileChannel inChannel, FileChannel outChannel, ByteBuffer buffer, Checksum crc)
+            throws IOException {
+        while (inChannel.read(buffer) != -1) {
+            buffer.flip();
+            if (crc != null) {
+                FileChecksum.update(crc, buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                outChannel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // 按窗口映射，两个映射区之间直接 put，不经过 byte[]
+    private void copyMapped(FileChannel inChannel, FileChannel outChannel, long size, Checksum crc)
+            throws IOException {
+        for (long position = 0; position < size; position += mapWindowSize) {
+            long length = Math.min(mapWindowSize, size - position);
+            MappedByteBuffer inMap = inChannel.map(MapMode.READ_ONLY, position, length);
+            MappedByteBuffer outMap = outChannel.map(MapMode.READ_WRITE, position, length);
+            outMap.put(inMap.duplicate());
+            if (crc != null) {
+                FileChecksum.update(crc, inMap);
+            }
+            // 立即解除这个窗口的映射，不等 GC，多 GB 的文件也只占用一个窗口的地址空间
+            DirectMemory.free(inMap);
+            DirectMemory.free(outMap);
+        }
+    }
+
+    // 需要计算校验和时按窗口传输，每个窗口传完立即计算，否则一次传完整段
+    private void transfer(FileChannel inChannel, FileChannel outChannel, long position, long count, Checksum crc)
+            throws IOException {
+        if (crc == null) {
+            transfer(inChannel, outChannel, position, count);
+            return;
+        }
+        long end = position + count;
+        while (position < end) {
+            long length = Math.min(mapWindowSize, end - position);
+            transfer(inChannel, outChannel, position, length);
+            FileChecksum.updateMapped(crc, inChannel, position, length, mapWindowSize);
+            position += length;
+        }
+    }
+
+    // transferTo 不保证一次传完，循环直到这一段全部复制
+    private static void transfer(FileChannel inChannel, FileChannel outChannel, long position, long count)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = inChannel.transferTo(position, end - position, outChannel.position(position));
+            if (n <= 0) {
+                throw new IOException("source truncated at " + position);
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * 分段并行复制。outChannel.position(...) 不是线程安全的，所以每个分段使用自己的目标通道，
+     * 源通道的定位 transferTo 不修改通道的 position，可以共享
+     * @return 开启校验和时返回合并后的校验和，否则返回 -1
+     */
+    private long copyParallel(FileChannel inChannel, FileChannel outChannel, Path target, long size)
+            throws IOException {
+        // 先把目标文件扩展到最终大小，各分段只写自己的区间
+        if (size > 0) {
+            outChannel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+        long segment = Math.max(minSegmentSize, (size + parallelism - 1) / parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            List<Long> counts = new ArrayList<>();
+            for (long position = 0; position < size; position += segment) {
+                long start = position;
+                long count = Math.min(segment, size - position);
+                counts.add(count);
+                futures.add(executor.submit(() -> {
+                    Checksum crc = checksum ? FileChecksum.newChecksum() : null;
+                    try (FileChannel segmentChannel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                        transfer(inChannel, segmentChannel, start, count, crc);
+                    }
+                    return crc == null ? -1L : crc.getValue();
+                }));
+            }
+            // 按分段的顺序合并校验和
+            long value = checksum ? FileChecksum.newChecksum().getValue() : -1;
+            for (int i = 0; i < futures.size(); i++) {
+                long segmentValue = futures.get(i).get();
+                if (checksum) {
+                    value = FileChecksum.combine(value, segmentValue, counts.get(i));
+                }
+            }
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("parallel copy interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("parallel copy failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
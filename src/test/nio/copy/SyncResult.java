@@ -0,0 +1,86 @@
+package test.nio.copy;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 一次目录同步的结果：扫描、复制、跳过和失败的文件数，复制的字节数和耗时
+ */
+public final class SyncResult {
+
+    private final long filesScanned;
+    private final long filesCopied;
+    private final long filesSkipped;
+    private final long filesFailed;
+    private final long bytesCopied;
+    private final long bytesSkipped;
+    private final long nanos;
+    private final Map<Path, Exception> failures;
+
+    SyncResult(long filesScanned, long filesCopied, long filesSkipped, long filesFailed, long bytesCopied,
+            long bytesSkipped, long nanos, Map<Path, Exception> failures) {
+        this.filesScanned = filesScanned;
+        this.filesCopied = filesCopied;
+        this.filesSkipped = filesSkipped;
+        this.filesFailed = filesFailed;
+        this.bytesCopied = bytesCopied;
+        this.bytesSkipped = bytesSkipped;
+        this.nanos = nanos;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public long filesScanned() {
+        return filesScanned;
+    }
+
+    public long filesCopied() {
+        return filesCopied;
+    }
+
+    // 判断为没有变化而跳过的文件数
+    public long filesSkipped() {
+        return filesSkipped;
+    }
+
+    // 复制失败的文件数，加上无法读取的目录数
+    public long filesFailed() {
+        return filesFailed;
+    }
+
+    public long bytesCopied() {
+        return bytesCopied;
+    }
+
+    public long bytesSkipped() {
+        return bytesSkipped;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    public long millis() {
+        return nanos / 1_000_000;
+    }
+
+    // 复制失败的源文件（或目录）和异常，最多记录 DirectorySync.MAX_RECORDED_FAILURES 个
+    public Map<Path, Exception> failures() {
+        return failures;
+    }
+
+    public double bytesPerSecond() {
+        return nanos == 0 ? 0 : bytesCopied * 1e9 / nanos;
+    }
+
+    public double filesPerSecond() {
+        return nanos == 0 ? 0 : filesCopied * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("扫描 %d 个文件，复制 %d 个（%d 字节），跳过 %d 个（%d 字节），失败 %d 个，耗时 %d ms，%.0f 个/秒，%.2f MB/s",
+                filesScanned, filesCopied, bytesCopied, filesSkipped, bytesSkipped, filesFailed, millis(),
+                filesPerSecond(), bytesPerSecond() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,228 @@
+package test.nio.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import test.nio.buffer.DirectMemory;
+
+/**
+ * 日志的一个分段：一个预先分配好大小、整体映射进内存的文件
+ *
+ *  +--------+--------+---------+--------+--------+---------+-----+---------+
+ *  | length | crc32  | payload | length | crc32  | payload | ... | 0 0 0 0 |
+ *  +--------+--------+---------+--------+--------+---------+-----+---------+
+ *
+ * 文件是预先扩展的，没有写过的部分全是 0，长度为 0 就表示日志到此结束，所以不能写入空的记录（MappedLog 会拒绝）
+ *
+ * 稀疏索引：每写入 indexInterval 个字节记录一次（相对偏移量，文件位置），
+ * 随机读时二分查找不大于目标偏移量的最后一个索引项，再从那里向后扫描
+ */
+final class LogSegment {
+
+    static final int HEADER_SIZE = 8;
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".index";
+
+    final long baseOffset;
+    private final Path indexPath;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int indexInterval;
+
+    // 已写入的记录数和下一条记录的位置
+    private int count;
+    private int position;
+    private int lastIndexedPosition = -1;
+    private int[] indexOffsets = new int[16];
+    private int[] indexPositions = new int[16];
+    private int indexSize;
+    private final CRC32 crc = new CRC32();
+
+    private LogSegment(Path dir, long baseOffset, int capacity, int indexInterval) throws IOException {
+        this.baseOffset = baseOffset;
+        Path logPath = dir.resolve(fileName(baseOffset, LOG_SUFFIX));
+        this.indexPath = dir.resolve(fileName(baseOffset, INDEX_SUFFIX));
+        this.indexInterval = indexInterval;
+        this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // READ_WRITE 映射会把文件扩展到映射的大小；已有的分段按实际大小映射
+        long size = channel.size();
+        this.map = channel.map(MapMode.READ_WRITE, 0, size > 0 ? size : capacity);
+        map.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    static String fileName(long baseOffset, String suffix) {
+        return String.format("%020d%s", baseOffset, suffix);
+    }
+
+    static LogSegment create(Path dir, long baseOffset, int capacity, int indexInterval) throws IOException {
+        return new LogSegment(dir, baseOffset, capacity, indexInterval);
+    }
+
+    /**
+     * 打开已有的分段
+     * @param recover 为 true 时扫描整个分段，截掉末尾写了一半或者校验失败的记录（只对最后一个分段需要）；
+     *                为 false 时优先加载封存时写下的索引文件
+     */
+    static LogSegment open(Path dir, long baseOffset, int indexInterval, boolean recover) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseOffset, 0, indexInterval);
+        if (recover || !segment.loadIndex()) {
+            segment.recover();
+        }
+        return segment;
+    }
+
+    // 放得下返回 true 并写入，payload 不能为空
+    boolean append(ByteBuffer payload) {
+        int length = payload.remaining();
+        // 末尾至少留 4 个字节的 0 作为结束标记
+        if (position + HEADER_SIZE + length + 4 > map.capacity()) {
+            return false;
+        }
+        if (lastIndexedPosition < 0 || position - lastIndexedPosition >= indexInterval) {
+            addIndex(count, position);
+        }
+        crc.reset();
+        crc.update(payload.duplicate());
+        map.putInt(position + 4, (int) crc.getValue());
+        ByteBuffer target = map.duplicate();
+        target.position(position + HEADER_SIZE);
+        target.put(payload);
+        // 长度最后写：进程在写到一半时崩溃，长度仍然是 0 或者校验失败，恢复时会被丢弃
+        map.putInt(position, length);
+        position += HEADER_SIZE + length;
+        count++;
+        return true;
+    }
+
+    private void addIndex(int relativeOffset, int filePosition) {
+        if (indexSize == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+        }
+        indexOffsets[indexSize] = relativeOffset;
+        indexPositions[indexSize] = filePosition;
+        indexSize++;
+        lastIndexedPosition = filePosition;
+    }
+
+    // 读取第 offset 条记录的内容，返回映射区的只读视图，offset 不在这个分段中时返回 null
+    ByteBuffer read(long offset) {
+        int relative = (int) (offset - baseOffset);
+        if (relative < 0 || relative >= count) {
+            return null;
+        }
+        int i = Arrays.binarySearch(indexOffsets, 0, indexSize, relative);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        int current = indexOffsets[i];
+        int pos = indexPositions[i];
+        while (current < relative) {
+            pos += HEADER_SIZE + map.getInt(pos);
+            current++;
+        }
+        ByteBuffer view = map.asReadOnlyBuffer();
+        view.limit(pos + HEADER_SIZE + map.getInt(pos)).position(pos + HEADER_SIZE);
+        return view.slice();
+    }
+
+    // 从头扫描，重建索引并找到最后一条完整的记录
+    private void recover() {
+        position = 0;
+        count = 0;
+        indexSize = 0;
+        lastIndexedPosition = -1;
+        int capacity = map.capacity();
+        while (position + HEADER_SIZE <= capacity) {
+            int length = map.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > capacity) {
+                break;
+            }
+            ByteBuffer payload = map.duplicate();
+            payload.limit(position + HEADER_SIZE + length).position(position + HEADER_SIZE);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != map.getInt(position + 4)) {
+                break;
+            }
+            if (lastIndexedPosition < 0 || position - lastIndexedPosition >= indexInterval) {
+                addIndex(count, position);
+            }
+            position += HEADER_SIZE + length;
+            count++;
+        }
+        // 把不完整的尾巴（以及它后面可能残留的记录）清零，否则新记录写完以后，
+        // 下一次恢复可能把残留的旧记录当成新记录后面的数据
+        int end = position;
+        while (end + HEADER_SIZE <= capacity) {
+            int length = map.getInt(end);
+            if (length == 0) {
+                break;
+            }
+            int next = length > 0 && end + HEADER_SIZE + length <= capacity ? end + HEADER_SIZE + length
+                    : end + HEADER_SIZE;
+            while (end < next) {
+                map.put(end++, (byte) 0);
+            }
+        }
+    }
+
+    // 封存时把索引写进文件，重新打开时不需要扫描整个分段
+    void saveIndex() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + indexSize * 8);
+        buffer.putInt(count).putInt(position);
+        for (int i = 0; i < indexSize; i++) {
+            buffer.putInt(indexOffsets[i]).putInt(indexPositions[i]);
+        }
+        buffer.flip();
+        try (FileChannel indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                indexChannel.write(buffer);
+            }
+            indexChannel.force(true);
+        }
+    }
+
+    private boolean loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        if (buffer.remaining() < 8 || (buffer.remaining() - 8) % 8 != 0) {
+            return false;
+        }
+        count = buffer.getInt();
+        position = buffer.getInt();
+        indexSize = 0;
+        while (buffer.hasRemaining()) {
+            addIndex(buffer.getInt(), buffer.getInt());
+        }
+        return position <= map.capacity();
+    }
+
+    // 把映射区的修改写回磁盘
+    void force() {
+        map.force();
+    }
+
+    long nextOffset() {
+        return baseOffset + count;
+    }
+
+    // 关闭时立即解除映射，不等 GC，之后分段文件可以马上删除或者重命名；之前 read 返回的视图不能再访问
+    void close() throws IOException {
+        channel.close();
+        DirectMemory.free(map);
+    }
+}
@@ -0,0 +1,218 @@
+package test.nio.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * 基于内存映射的只追加日志，用于持久化收到的消息
+ *
+ * 一：和 testNonBlockingServer 中注释掉的 FileChannel.write 相比
+ *  1. 每个分段文件整体映射进内存（TestChannel2 的做法），追加一条消息只是一次内存拷贝，没有 write 系统调用
+ *  2. 分段写满以后封存并滚动到新的分段，单个映射不会无限增大
+ *  3. 刷盘（MappedByteBuffer.force，即 msync）可以按条数或者时间批量进行，在持久性和吞吐量之间取舍：
+ *     flushEveryMessages = 1 每条消息都刷盘；0 表示不按条数刷盘，只依赖 flushIntervalMillis 和操作系统回写
+ *
+ * 二：每条消息有一个从 0 开始递增的偏移量，append 返回这个偏移量，read(offset) 通过稀疏索引随机读取
+ *
+ * 三：重新打开时只需要扫描最后一个分段：它可能在写到一半时崩溃，扫描到第一条长度为 0 或者校验失败的记录为止；
+ *    之前的分段在封存时已经写下了索引文件
+ *
+ * 四：所有公开方法都是线程安全的。read 返回的是映射区的只读视图，在日志关闭之前有效；
+ *    关闭时立即解除所有分段的映射，关闭以后再访问这些视图会让 JVM 崩溃；
+ *    关闭以后再调用 append、read、scan、flush 抛出 IllegalStateException，close 可以重复调用
+ */
+public class MappedLog implements Closeable {
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final int flushEveryMessages;
+    private final ScheduledExecutorService flusher;
+
+    // baseOffset → 分段
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<>();
+    private LogSegment active;
+    private int unflushed;
+    private boolean closed;
+
+    public MappedLog(Path dir) throws IOException {
+        this(dir, 64 * 1024 * 1024, 4096, 0, 100);
+    }
+
+    /**
+     * @param segmentSize         每个分段文件的大小，单条消息不能超过这个大小
+     * @param indexInterval       每隔多少字节记录一个索引项，越小随机读越快，索引占用的内存越多
+     * @param flushEveryMessages  每追加多少条消息刷一次盘，0 表示不按条数刷盘
+     * @param flushIntervalMillis 后台线程每隔多少毫秒把未刷盘的消息刷盘，0 表示不启动后台线程
+     */
+    public MappedLog(Path dir, int segmentSize, int indexInterval, int flushEveryMessages, long flushIntervalMillis)
+            throws IOException {
+        if (segmentSize <= LogSegment.HEADER_SIZE + 4 || indexInterval <= 0 || flushEveryMessages < 0
+                || flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize + ", indexInterval: " + indexInterval
+                    + ", flushEveryMessages: " + flushEveryMessages + ", flushIntervalMillis: " + flushIntervalMillis);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.flushEveryMessages = flushEveryMessages;
+        Files.createDirectories(dir);
+        load();
+        if (flushIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mapped-log-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    // 找到目录中所有的分段，只有最后一个需要扫描恢复
+    private void load() throws IOException {
+        List<Long> baseOffsets = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(LogSegment.LOG_SUFFIX))
+                    .forEach(name -> baseOffsets.add(
+                            Long.parseLong(name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length()))));
+        }
+        baseOffsets.sort(null);
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            boolean last = i == baseOffsets.size() - 1;
+            LogSegment segment = LogSegment.open(dir, baseOffsets.get(i), indexInterval, last);
+            segments.put(segment.baseOffset, segment);
+        }
+        if (segments.isEmpty()) {
+            active = LogSegment.create(dir, 0, segmentSize, indexInterval);
+            segments.put(0L, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * 追加一条消息（读模式，读完以后 position 等于 limit），返回它的偏移量
+     * 只拷贝进映射区，是否已经落盘取决于刷盘策略。消息不能为空：长度 0 是分段的结束标记
+     */
+    public synchronized long append(ByteBuffer payload) throws IOException {
+        ensureOpen();
+        if (!payload.hasRemaining()) {
+            throw new IllegalArgumentException("empty message");
+        }
+        if (payload.remaining() > segmentSize - LogSegment.HEADER_SIZE - 4) {
+            throw new IllegalArgumentException("message too large: " + payload.remaining());
+        }
+        long offset = active.nextOffset();
+        if (!active.append(payload)) {
+            roll();
+            active.append(payload);
+        }
+        unflushed++;
+        if (flushEveryMessages > 0 && unflushed >= flushEveryMessages) {
+            flush();
+        }
+        return offset;
+    }
+
+    // 封存当前分段：刷盘、写索引文件，然后创建新的分段
+    private void roll() throws IOException {
+        active.force();
+        active.saveIndex();
+        active = LogSegment.create(dir, active.nextOffset(), segmentSize, indexInterval);
+        segments.put(active.baseOffset, active);
+    }
+
+    /**
+     * 读取一条消息，返回映射区的只读视图，不拷贝数据；偏移量不存在时返回 null
+     */
+    public synchronized ByteBuffer read(long offset) {
+        ensureOpen();
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+        return entry == null ? null : entry.getValue().read(offset);
+    }
+
+    // 从 fromOffset 开始顺序读取所有消息，中途关闭时抛出 IllegalStateException
+    public void scan(long fromOffset, BiConsumer<Long, ByteBuffer> consumer) {
+        long end = nextOffset();
+        for (long offset = Math.max(fromOffset, firstOffset()); offset < end; offset++) {
+            consumer.accept(offset, read(offset));
+        }
+    }
+
+    // 把还没刷盘的消息刷盘
+    public synchronized void flush() {
+        ensureOpen();
+        if (unflushed > 0) {
+            active.force();
+            unflushed = 0;
+        }
+    }
+
+    // 后台刷盘，可能在 close() 之后才拿到锁
+    private synchronized void flushQuietly() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized long firstOffset() {
+        ensureOpen();
+        return segments.firstKey();
+    }
+
+    // 下一条消息的偏移量，也就是消息总数（从 0 开始时）
+    public synchronized long nextOffset() {
+        ensureOpen();
+        return active.nextOffset();
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        flush();
+        // 先置位再解除映射：映射已经释放，之后的访问不能再碰到 active
+        closed = true;
+        active = null;
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    // 分段的映射在关闭时已经释放，再访问会让 JVM 崩溃
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("log closed: " + dir);
+        }
+    }
+}
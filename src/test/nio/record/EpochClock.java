@@ -0,0 +1,31 @@
+package test.nio.record;
+
+import java.time.Instant;
+
+/**
+ * 纪元以来的纳秒数，用作 TIMESTAMP 字段的值，代替 LocalDateTime.now().toString()
+ *
+ * 一：nanos() 不创建对象：类加载时记下一次 currentTimeMillis() 和 nanoTime()，之后只读 nanoTime() 加上差值。
+ *    Java 8 的 Instant.now() 每次创建一个对象，而且精度只有毫秒
+ *
+ * 二：起点只有毫秒精度，之后不跟随系统时钟的调整（NTP 校时、手动改时间），
+ *    适合同一台机器上计算间隔和排序；跨机器比较时间戳时误差取决于两边时钟的同步程度
+ */
+public final class EpochClock {
+
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long BASE_NANO_TIME = System.nanoTime();
+
+    private EpochClock() {
+    }
+
+    public static long nanos() {
+        return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+    }
+
+    // 只用于显示，会创建对象
+    public static Instant toInstant(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+}
@@ -0,0 +1,13 @@
+package test.nio.record;
+
+/**
+ * 记录不符合 schema：schema id 不同、长度不够或者长度字段越界，通常说明对端发来了错误的数据
+ */
+public class RecordFormatException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RecordFormatException(String message) {
+        super(message);
+    }
+}
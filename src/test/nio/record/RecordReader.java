@@ -0,0 +1,196 @@
+package test.nio.record;
+
+import java.nio.ByteBuffer;
+
+import test.nio.record.RecordSchema.Field;
+import test.nio.record.RecordSchema.Type;
+
+/**
+ * 按 RecordSchema 从 ByteBuffer 中直接读取字段的享元，和 RecordWriter 对应
+ *
+ * 一：wrap() 只读记录头，并找出每个变长字段的位置（记在复用的数组里），校验所有长度都在记录范围之内；
+ *    之后读字段都是绝对位置的 get，不拷贝、不创建对象，也不改变缓冲区的 position 和 limit
+ *
+ * 二：版本：记录中没有的字段（发送方的版本较旧）读出 0 或者空，has() 返回 false；
+ *    发送方版本较新时多出来的字段被跳过，encodedLength() 包括它们
+ *
+ * 三：变长字段可以用 bytesOffset()/bytesLength() 在原缓冲区上处理，也可以用 getBytes() 拷贝出来
+ *
+ * 和 RecordWriter 一样只能在一个线程中使用
+ *
+ *  reader.wrap(frame);
+ *  long latency = EpochClock.nanos() - reader.getTimestamp(SENT_AT);
+ */
+public final class RecordReader {
+
+    private final RecordSchema schema;
+    // 已知的变长字段的长度前缀位置
+    private final int[] varOffsets;
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int version;
+    private int blockLength;
+    private int varCount;
+    private int block;
+    private int limit;
+
+    public RecordReader(RecordSchema schema) {
+        this.schema = schema;
+        this.varOffsets = new int[schema.varCount()];
+    }
+
+    public RecordSchema schema() {
+        return schema;
+    }
+
+    // 不解码整条记录，只看它是哪一种消息，用于在几个 schema 之间分派
+    public static int schemaId(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + RecordSchema.SCHEMA_ID_OFFSET) & 0xFFFF;
+    }
+
+    // 读模式的一帧，例如 LengthFieldFrameDecoder 解出的帧：从 position 到 limit 是一条记录
+    public RecordReader wrap(ByteBuffer frame) {
+        return wrap(frame, frame.position(), frame.remaining());
+    }
+
+    /**
+     * @param length 记录最多占用的字节数，记录本身的长度由 encodedLength() 给出，可以比它短
+     * @throws RecordFormatException schema id 不同或者记录被截断
+     */
+    public RecordReader wrap(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+        if (length < RecordSchema.HEADER_SIZE) {
+            throw new RecordFormatException("record too short: " + length);
+        }
+        int id = schemaId(buffer, offset);
+        if (id != schema.id()) {
+            throw new RecordFormatException("schema id " + id + ", expected " + schema.id());
+        }
+        int end = offset + length;
+        int version = buffer.getShort(offset + RecordSchema.VERSION_OFFSET) & 0xFFFF;
+        int blockLength = buffer.getShort(offset + RecordSchema.BLOCK_LENGTH_OFFSET) & 0xFFFF;
+        int varCount = buffer.getShort(offset + RecordSchema.VAR_COUNT_OFFSET) & 0xFFFF;
+        int block = offset + RecordSchema.HEADER_SIZE;
+        int index = block + blockLength;
+        if (index > end) {
+            throw new RecordFormatException("fixed block " + blockLength + " exceeds record length " + length);
+        }
+        for (int i = 0; i < varCount; i++) {
+            if (end - index < RecordSchema.LENGTH_PREFIX_SIZE) {
+                throw new RecordFormatException("record truncated at var field " + i);
+            }
+            int fieldLength = buffer.getInt(index);
+            if (fieldLength < 0 || end - index - RecordSchema.LENGTH_PREFIX_SIZE < fieldLength) {
+                throw new RecordFormatException("var field " + i + " length " + fieldLength + " out of range");
+            }
+            if (i < varOffsets.length) {
+                varOffsets[i] = index;
+            }
+            index += RecordSchema.LENGTH_PREFIX_SIZE + fieldLength;
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.version = version;
+        this.blockLength = blockLength;
+        this.varCount = varCount;
+        this.block = block;
+        this.limit = index;
+        return this;
+    }
+
+    // 发送方的 schema 版本
+    public int version() {
+        return version;
+    }
+
+    public int encodedLength() {
+        return limit - offset;
+    }
+
+    // 这条记录中有没有 field，发送方的版本比 field 旧时返回 false
+    public boolean has(Field field) {
+        if (field.schema != schema) {
+            throw new IllegalArgumentException("field " + field + " is not a field of schema " + schema.id());
+        }
+        if (field.type == Type.BYTES) {
+            return field.offset < varCount;
+        }
+        return field.offset + field.type.size() <= blockLength;
+    }
+
+    public int getInt(Field field) {
+        check(field, Type.INT32);
+        return field.offset + 4 <= blockLength ? buffer.getInt(block + field.offset) : 0;
+    }
+
+    public long getLong(Field field) {
+        check(field, Type.INT64);
+        return field.offset + 8 <= blockLength ? buffer.getLong(block + field.offset) : 0;
+    }
+
+    // 纪元以来的纳秒数，需要显示时用 EpochClock.toInstant() 转换
+    public long getTimestamp(Field field) {
+        check(field, Type.TIMESTAMP);
+        return field.offset + 8 <= blockLength ? buffer.getLong(block + field.offset) : 0;
+    }
+
+    public int bytesLength(Field field) {
+        check(field, Type.BYTES);
+        return field.offset < varCount ? buffer.getInt(varOffsets[field.offset]) : 0;
+    }
+
+    // 变长字段的内容在缓冲区中的绝对位置，记录中没有这个字段时返回 -1
+    public int bytesOffset(Field field) {
+        check(field, Type.BYTES);
+        return field.offset < varCount ? varOffsets[field.offset] + RecordSchema.LENGTH_PREFIX_SIZE : -1;
+    }
+
+    /**
+     * 把变长字段的内容拷贝到 dst 的 position 处，返回字节数
+     * 借用源缓冲区的 position 和 limit 做批量拷贝，返回之前恢复
+     * @throws java.nio.BufferOverflowException dst 放不下
+     */
+    public int getBytes(Field field, ByteBuffer dst) {
+        int length = bytesLength(field);
+        if (length == 0) {
+            return 0;
+        }
+        int index = varOffsets[field.offset] + RecordSchema.LENGTH_PREFIX_SIZE;
+        int position = buffer.position();
+        int bufferLimit = buffer.limit();
+        buffer.limit(index + length).position(index);
+        try {
+            dst.put(buffer);
+        } finally {
+            buffer.limit(bufferLimit).position(position);
+        }
+        return length;
+    }
+
+    // 把变长字段的内容拷贝到 dst 的 dstOffset 处，返回字节数
+    public int getBytes(Field field, byte[] dst, int dstOffset) {
+        int length = bytesLength(field);
+        if (length == 0) {
+            return 0;
+        }
+        int index = varOffsets[field.offset] + RecordSchema.LENGTH_PREFIX_SIZE;
+        int position = buffer.position();
+        buffer.position(index);
+        try {
+            buffer.get(dst, dstOffset, length);
+        } finally {
+            buffer.position(position);
+        }
+        return length;
+    }
+
+    private void check(Field field, Type type) {
+        if (field.schema != schema || field.type != type) {
+            throw new IllegalArgumentException("field " + field + " is not a " + type + " field of schema "
+                    + schema.id());
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package test.nio.record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制记录的格式描述，由 RecordWriter 按它编码，RecordReader 按它解码
+ *
+ *  +----------+---------+-------------+----------+----------------------+-----------------------------+
+ *  | schemaId | version | blockLength | varCount | 定长字段（blockLength） | 变长字段：length（4）+ 内容 ...  |
+ *  +----------+---------+-------------+----------+----------------------+-----------------------------+
+ *     2 字节     2 字节      2 字节       2 字节
+ *
+ * 一：定长字段（int32、int64、timestamp）按声明顺序排在定长块中，偏移量在 build() 时确定，
+ *    读写都是 ByteBuffer 的绝对位置方法，不移动 position，也不经过 String 或 byte[]
+ *
+ * 二：变长字段（bytes）按声明顺序排在定长块之后，每个字段前面是 4 个字节的长度
+ *
+ * 三：版本：新版本只能在末尾追加字段（since() 之后声明的字段），不能删除字段、不能改变字段类型
+ *  1. 新版本的读取方读旧版本的记录：记录中没有的字段（超出 blockLength 或者 varCount）读出默认值，has() 返回 false
+ *  2. 旧版本的读取方读新版本的记录：按记录头中的 blockLength 找到变长字段，按 varCount 跳过不认识的变长字段
+ *
+ * 所有整数都是大端（ByteBuffer 的默认字节序）。schema 和 Field 都是不可变的，可以在线程之间共享
+ *
+ *  RecordSchema schema = RecordSchema.builder(1, 2)
+ *          .int64("id").timestamp("sentAt").bytes("payload")
+ *          .since(2).int32("priority")
+ *          .build();
+ */
+public final class RecordSchema {
+
+    public static final int HEADER_SIZE = 8;
+    // 变长字段前面的长度
+    public static final int LENGTH_PREFIX_SIZE = 4;
+
+    static final int SCHEMA_ID_OFFSET = 0;
+    static final int VERSION_OFFSET = 2;
+    static final int BLOCK_LENGTH_OFFSET = 4;
+    static final int VAR_COUNT_OFFSET = 6;
+
+    public enum Type {
+        INT32(4), INT64(8),
+        // 纪元以来的纳秒数，见 EpochClock
+        TIMESTAMP(8),
+        // 长度前缀的字节序列
+        BYTES(-1);
+
+        private final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+
+        // 定长字段的字节数，变长字段返回 -1
+        public int size() {
+            return size;
+        }
+    }
+
+    private final int id;
+    private final int version;
+    private final int blockLength;
+    private final List<Field> fields;
+    private final int varCount;
+    private final Map<String, Field> byName;
+
+    private RecordSchema(int id, int version, List<Builder.Declaration> declarations) {
+        this.id = id;
+        this.version = version;
+        Field[] fields = new Field[declarations.size()];
+        Map<String, Field> byName = new LinkedHashMap<>();
+        int offset = 0;
+        int varIndex = 0;
+        for (int i = 0; i < fields.length; i++) {
+            Builder.Declaration declaration = declarations.get(i);
+            Field field;
+            if (declaration.type == Type.BYTES) {
+                field = new Field(this, declaration.name, declaration.type, declaration.sinceVersion, varIndex++);
+            } else {
+                field = new Field(this, declaration.name, declaration.type, declaration.sinceVersion, offset);
+                offset += declaration.type.size();
+            }
+            fields[i] = field;
+            byName.put(field.name, field);
+        }
+        if (offset > 0xFFFF) {
+            throw new IllegalArgumentException("fixed block too large: " + offset);
+        }
+        this.fields = Collections.unmodifiableList(Arrays.asList(fields));
+        this.blockLength = offset;
+        this.varCount = varIndex;
+        this.byName = Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * @param id 区分不同消息类型，同一类消息的所有版本使用相同的 id
+     * @param version 从 1 开始，没有调用 since() 之前声明的字段属于这个版本
+     */
+    public static Builder builder(int id, int version) {
+        return new Builder(id, version);
+    }
+
+    public int id() {
+        return id;
+    }
+
+    // 最高的字段版本，RecordWriter 写出的记录带这个版本号
+    public int version() {
+        return version;
+    }
+
+    // 定长块的字节数
+    public int blockLength() {
+        return blockLength;
+    }
+
+    // 变长字段的个数
+    public int varCount() {
+        return varCount;
+    }
+
+    /**
+     * 按名字查找字段，应该在初始化时查一次保存下来，不要在每条消息上查找
+     * @throws IllegalArgumentException 没有这个字段
+     */
+    public Field field(String name) {
+        Field field = byName.get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("no field " + name + " in schema " + id);
+        }
+        return field;
+    }
+
+    public List<Field> fields() {
+        return fields;
+    }
+
+    // 所有变长字段为空时记录的长度
+    public int minEncodedLength() {
+        return HEADER_SIZE + blockLength + varCount * LENGTH_PREFIX_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordSchema[id=" + id + ", version=" + version + ", fields=" + byName.values() + "]";
+    }
+
+    /**
+     * 一个字段：定长字段的 offset 是在定长块中的偏移量，变长字段的 offset 是它在变长字段中的序号
+     */
+    public static final class Field {
+        final RecordSchema schema;
+        final String name;
+        final Type type;
+        final int sinceVersion;
+        final int offset;
+
+        Field(RecordSchema schema, String name, Type type, int sinceVersion, int offset) {
+            this.schema = schema;
+            this.name = name;
+            this.type = type;
+            this.sinceVersion = sinceVersion;
+            this.offset = offset;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Type type() {
+            return type;
+        }
+
+        public int sinceVersion() {
+            return sinceVersion;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + type + (sinceVersion > 1 ? "@" + sinceVersion : "");
+        }
+    }
+
+    public static final class Builder {
+        private final int id;
+        private final int version;
+        private final List<Declaration> declarations = new ArrayList<>();
+        private int sinceVersion = 1;
+
+        private Builder(int id, int version) {
+            if (id < 0 || id > 0xFFFF) {
+                throw new IllegalArgumentException("id: " + id);
+            }
+            if (version < 1 || version > 0xFFFF) {
+                throw new IllegalArgumentException("version: " + version);
+            }
+            this.id = id;
+            this.version = version;
+        }
+
+        // 之后声明的字段从 sinceVersion 这个版本开始才有；版本只能递增，保证旧版本的格式是新版本的前缀
+        public Builder since(int sinceVersion) {
+            if (sinceVersion < this.sinceVersion || sinceVersion > version) {
+                throw new IllegalArgumentException("since " + sinceVersion + " after " + this.sinceVersion
+                        + ", schema version " + version);
+            }
+            this.sinceVersion = sinceVersion;
+            return this;
+        }
+
+        public Builder int32(String name) {
+            return add(name, Type.INT32);
+        }
+
+        public Builder int64(String name) {
+            return add(name, Type.INT64);
+        }
+
+        public Builder timestamp(String name) {
+            return add(name, Type.TIMESTAMP);
+        }
+
+        public Builder bytes(String name) {
+            return add(name, Type.BYTES);
+        }
+
+        private Builder add(String name, Type type) {
+            for (Declaration declaration : declarations) {
+                if (declaration.name.equals(name)) {
+                    throw new IllegalArgumentException("duplicate field: " + name);
+                }
+            }
+            declarations.add(new Declaration(name, type, sinceVersion));
+            return this;
+        }
+
+        public RecordSchema build() {
+            return new RecordSchema(id, version, declarations);
+        }
+
+        private static final class Declaration {
+            final String name;
+            final Type type;
+            final int sinceVersion;
+
+            Declaration(String name, Type type, int sinceVersion) {
+                this.name = name;
+                this.type = type;
+                this.sinceVersion = sinceVersion;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package test.nio.record;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import test.nio.record.RecordSchema.Field;
+import test.nio.record.RecordSchema.Type;
+
+/**
+ * 按 RecordSchema 把字段直接写进 ByteBuffer（堆缓冲区或者直接缓冲区）的享元
+ *
+ * 一：享元：一个 RecordWriter 对象通过 wrap() 反复套在不同的缓冲区、不同的位置上，
+ *    写一条记录不创建任何对象；它本身有状态，只能在一个线程中使用（例如每个事件循环一个）
+ *
+ * 二：全部是绝对位置的读写，不改变缓冲区的 position 和 limit
+ *  1. wrap() 写入记录头，把定长块清零，没有写的定长字段是 0
+ *  2. 定长字段可以按任意顺序写、重复写
+ *  3. 变长字段必须按声明顺序写，跳过的变长字段写成空的；finish() 补齐剩下的变长字段，返回记录的长度
+ *
+ * 三：缓冲区从 offset 到 limit 之间放不下时抛出 BufferOverflowException
+ *
+ *  writer.wrap(buffer, buffer.position()).putLong(ID, id).putTimestamp(SENT_AT, EpochClock.nanos());
+ *  buffer.position(buffer.position() + writer.finish());
+ */
+public final class RecordWriter {
+
+    private final RecordSchema schema;
+
+    private ByteBuffer buffer;
+    private int offset;
+    // 定长块的起点
+    private int block;
+    // 已经写入的内容的末尾
+    private int limit;
+    // 下一个可以写的变长字段的序号
+    private int nextVar;
+
+    public RecordWriter(RecordSchema schema) {
+        this.schema = schema;
+    }
+
+    public RecordSchema schema() {
+        return schema;
+    }
+
+    // 在 buffer 的 offset 处开始一条新记录
+    public RecordWriter wrap(ByteBuffer buffer, int offset) {
+        if (offset < 0 || buffer.limit() - offset < schema.minEncodedLength()) {
+            throw new BufferOverflowException();
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.block = offset + RecordSchema.HEADER_SIZE;
+        this.limit = block + schema.blockLength();
+        this.nextVar = 0;
+        buffer.putShort(offset + RecordSchema.SCHEMA_ID_OFFSET, (short) schema.id());
+        buffer.putShort(offset + RecordSchema.VERSION_OFFSET, (short) schema.version());
+        buffer.putShort(offset + RecordSchema.BLOCK_LENGTH_OFFSET, (short) schema.blockLength());
+        buffer.putShort(offset + RecordSchema.VAR_COUNT_OFFSET, (short) schema.varCount());
+        // 池化的缓冲区里有上一次的数据
+        int i = block;
+        for (; i + 8 <= limit; i += 8) {
+            buffer.putLong(i, 0);
+        }
+        for (; i < limit; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        return this;
+    }
+
+    public RecordWriter putInt(Field field, int value) {
+        buffer.putInt(block + fixed(field, Type.INT32), value);
+        return this;
+    }
+
+    public RecordWriter putLong(Field field, long value) {
+        buffer.putLong(block + fixed(field, Type.INT64), value);
+        return this;
+    }
+
+    // epochNanos 通常来自 EpochClock.nanos()
+    public RecordWriter putTimestamp(Field field, long epochNanos) {
+        buffer.putLong(block + fixed(field, Type.TIMESTAMP), epochNanos);
+        return this;
+    }
+
+    /**
+     * 写一个变长字段，src 从 position 到 limit 的内容被读完
+     * 借用目标缓冲区的 position 做相对的批量拷贝（Java 8 没有绝对位置的批量 put），返回之前恢复
+     */
+    public RecordWriter putBytes(Field field, ByteBuffer src) {
+        int length = src.remaining();
+        int index = var(field, length);
+        int position = buffer.position();
+        buffer.position(index);
+        buffer.put(src);
+        buffer.position(position);
+        return this;
+    }
+
+    public RecordWriter putBytes(Field field, byte[] src, int srcOffset, int length) {
+        int index = var(field, length);
+        int position = buffer.position();
+        buffer.position(index);
+        buffer.put(src, srcOffset, length);
+        buffer.position(position);
+        return this;
+    }
+
+    // 补齐没有写的变长字段，返回记录的总长度；之后需要重新 wrap() 才能再写
+    public int finish() {
+        while (nextVar < schema.varCount()) {
+            ensureCapacity(RecordSchema.LENGTH_PREFIX_SIZE);
+            buffer.putInt(limit, 0);
+            limit += RecordSchema.LENGTH_PREFIX_SIZE;
+            nextVar++;
+        }
+        return limit - offset;
+    }
+
+    // 到目前为止写入的长度，没有补齐后面的变长字段
+    public int encodedLength() {
+        return limit - offset;
+    }
+
+    private int fixed(Field field, Type type) {
+        check(field, type);
+        return field.offset;
+    }
+
+    // 写入 field 之前的空字段和 field 的长度前缀，返回内容的起点
+    private int var(Field field, int length) {
+        check(field, Type.BYTES);
+        if (field.offset < nextVar) {
+            throw new IllegalStateException("field " + field.name + " written out of order");
+        }
+        while (nextVar < field.offset) {
+            ensureCapacity(RecordSchema.LENGTH_PREFIX_SIZE);
+            buffer.putInt(limit, 0);
+            limit += RecordSchema.LENGTH_PREFIX_SIZE;
+            nextVar++;
+        }
+        ensureCapacity(RecordSchema.LENGTH_PREFIX_SIZE + length);
+        buffer.putInt(limit, length);
+        int index = limit + RecordSchema.LENGTH_PREFIX_SIZE;
+        limit = index + length;
+        nextVar++;
+        return index;
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.limit() - limit < length) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private void check(Field field, Type type) {
+        if (field.schema != schema || field.type != type) {
+            throw new IllegalArgumentException("field " + field + " is not a " + type + " field of schema "
+                    + schema.id());
+        }
+    }
+}
@@ -2,15 +2,24 @@ package test.webNIO;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.Iterator;
 import java.util.Scanner;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.junit.Test;
 
+import test.nio.buffer.BufferPool;
+import test.nio.charset.StreamingDecoder;
+import test.nio.charset.StreamingEncoder;
+import test.webNIO.udp.UdpReceiver;
+import test.webNIO.udp.UdpSender;
+
 public class TestDatagramNIO {
     
     // UDP 的发送端
@@ -20,14 +29,21 @@ public class TestDatagramNIO {
             
             datagramChannel.configureBlocking(false);
             
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            
-            Scanner scanner = new Scanner(System.in);
-            while(scanner.hasNext()) {
-                buffer.put((LocalDateTime.now().toString()+"\n"+scanner.next()).getBytes());
-                buffer.flip();
-                datagramChannel.send(buffer, new InetSocketAddress("127.0.0.1", 9988));
-                buffer.clear();
+            // 直接缓冲区发送时不需要再拷贝到临时的直接缓冲区
+            ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+            StreamingEncoder encoder = new StreamingEncoder(StandardCharsets.UTF_8);
+            try {
+                Scanner scanner = new Scanner(System.in);
+                while(scanner.hasNext()) {
+                    // 一个数据报就是一条完整的消息，超出缓冲区的部分被截断
+                    encoder.encode(CharBuffer.wrap(LocalDateTime.now().toString()+"\n"+scanner.next()), buffer, true);
+                    encoder.reset();
+                    buffer.flip();
+                    datagramChannel.send(buffer, new InetSocketAddress("127.0.0.1", 9988));
+                    buffer.clear();
+                }
+            } finally {
+                BufferPool.getDefault().release(buffer);
             }
             
         } catch (Exception e) {
@@ -41,6 +57,7 @@ public class TestDatagramNIO {
         try (DatagramChannel datagramChannel = DatagramChannel.open()) {
             datagramChannel.configureBlocking(false);
             datagramChannel.bind(new InetSocketAddress(9988));
+            StreamingDecoder decoder = new StreamingDecoder(StandardCharsets.UTF_8);
             
             // 开启选择器并注册监听事件
             Selector selector = Selector.open();
@@ -51,17 +68,27 @@ public class TestDatagramNIO {
                 Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
                 while(iterator.hasNext()) {
                     SelectionKey next = iterator.next();
+                    // 一定要移除掉，而且要在循环里面移除，否则已处理的 key 会一直留在已选择集合中
+                    iterator.remove();
                     if(next.isReadable()) {
-                        ByteBuffer buffer = ByteBuffer.allocate(1024);
-                        
-                        datagramChannel.receive(buffer);
-                        buffer.flip();
-                        System.out.println(new String(buffer.array(), 0, buffer.limit()));
-                        buffer.clear();
+                        ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+                        CharBuffer chars = CharBuffer.allocate(1024);
+                        try {
+                            // 一次唤醒可能已经到达了多个数据报，一直读到 receive 返回 null 为止
+                            while (datagramChannel.receive(buffer) != null) {
+                                buffer.flip();
+                                // 数据报之间互不相关，每个数据报都是完整的输入
+                                decoder.decode(buffer, chars, true);
+                                chars.flip();
+                                System.out.println(chars);
+                                chars.clear();
+                                buffer.clear();
+                            }
+                        } finally {
+                            BufferPool.getDefault().release(buffer);
+                        }
                     }
                 }
-                // 一定要移除掉
-                iterator.remove();
             }
          
             
@@ -74,4 +101,60 @@ public class TestDatagramNIO {
     }
     
 
+    // 批量接收：多个通道通过 SO_REUSEPORT 绑定同一个端口，每次唤醒读完所有数据报再成批交给处理器
+    @Test
+    public void testUdpReceiver() throws Exception {
+        int count = 10000;
+        LongAdder received = new LongAdder();
+        
+        try (UdpReceiver receiver = new UdpReceiver(new InetSocketAddress("127.0.0.1", 0),
+                batch -> received.add(batch.size()), 2, 64, 1024);
+                DatagramChannel datagramChannel = DatagramChannel.open()) {
+            receiver.start();
+            datagramChannel.connect(receiver.getLocalAddress());
+            
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1500);
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                // 每 1000 个数据报发送一个超长的，会被当作丢弃处理
+                buffer.limit(i % 1000 == 0 ? 1500 : 100);
+                datagramChannel.write(buffer);
+            }
+            Thread.sleep(500);
+            
+            System.out.println("接收线程：" + receiver.getWorkerCount() + "，处理器收到：" + received.sum());
+            System.out.println("数据报：" + receiver.packets() + "，字节：" + receiver.bytes() + "，丢弃："
+                    + receiver.drops() + "，批次：" + receiver.batches() + "，唤醒：" + receiver.wakeups());
+        }
+    }
+    
+    // 合并发送：多条小消息合并进一个不超过 MTU 的数据报，接收端再拆回一条条消息
+    @Test
+    public void testUdpSender() throws Exception {
+        int count = 10000;
+        LongAdder messages = new LongAdder();
+        
+        try (UdpReceiver receiver = new UdpReceiver(new InetSocketAddress("127.0.0.1", 0), batch -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        UdpSender.forEachMessage(batch.datagram(i), message -> messages.increment());
+                    }
+                }, 1, 64, UdpSender.DEFAULT_MAX_DATAGRAM_SIZE)) {
+            receiver.start();
+            
+            try (UdpSender sender = new UdpSender(receiver.getLocalAddress())) {
+                for (int i = 0; i < count; i++) {
+                    // 背压时稍等再重试
+                    while (!sender.send("metric.cpu " + i + " 保持饥饿")) {
+                        Thread.sleep(1);
+                    }
+                }
+                sender.flush();
+                System.out.println("消息：" + sender.messages() + "，数据报：" + sender.datagrams() + "，字节："
+                        + sender.bytes() + "，背压拒绝：" + sender.rejected());
+            }
+            Thread.sleep(200);
+            System.out.println("接收端数据报：" + receiver.packets() + "，拆出消息：" + messages.sum());
+        }
+    }
+    
 }
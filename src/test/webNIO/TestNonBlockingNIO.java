@@ -1,18 +1,64 @@
 package test.webNIO;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
 
 import org.junit.Test;
 
+import test.nio.buffer.BufferPool;
+import test.nio.charset.StreamingDecoder;
+import test.nio.charset.StreamingEncoder;
+import test.nio.log.MappedLog;
+import test.nio.record.EpochClock;
+import test.nio.record.RecordReader;
+import test.nio.record.RecordSchema;
+import test.nio.record.RecordSchema.Field;
+import test.nio.record.RecordWriter;
+import test.webNIO.chat.ChatHandler;
+import test.webNIO.chat.ChatRoom;
+import test.webNIO.chat.SlowSubscriberPolicy;
+import test.webNIO.client.ClientPool;
+import test.webNIO.client.RpcFrame;
+import test.webNIO.codec.HeaderBodyCodec;
+import test.webNIO.codec.ScatteringMessageReader;
+import test.webNIO.metrics.ServerSnapshot;
+import test.webNIO.reactor.ChannelHandler;
+import test.webNIO.reactor.Connection;
+import test.webNIO.reactor.IdleState;
+import test.webNIO.reactor.OutboundQueue;
+import test.webNIO.reactor.ReactorServer;
+import test.webNIO.reactor.SubReactor;
+import test.webNIO.reactor.TextChannelHandler;
+import test.webNIO.reactor.codec.LengthFieldFrameDecoder;
+import test.webNIO.reactor.codec.RawFrameDecoder;
+
 /**
  * 一：使用NIO 完成网络通信的三个核心
  * 1. 通道Channel：负责连接
@@ -30,7 +76,7 @@ import org.junit.Test;
  */
 public class TestNonBlockingNIO {
     
-    // 使用非阻塞式NIO 完成极简版聊天室
+    // 使用非阻塞式NIO 完成极简版聊天室（服务端只打印收到的消息，转发给其他客户端的版本见 testChatRoom）
     
     // 非阻塞式客户端
     @Test
@@ -42,7 +88,9 @@ public class TestNonBlockingNIO {
             
             socketChannel.configureBlocking(false);
             
-            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+            ByteBuffer byteBuffer = BufferPool.getDefault().acquire(1024);
+            // 文本直接编码进直接缓冲区，不经过 String.getBytes() 产生的中间数组
+            StreamingEncoder encoder = new StreamingEncoder(StandardCharsets.UTF_8);
             
 //            while(inChannel.read(byteBuffer) != -1) {
 //                byteBuffer.flip();
@@ -51,14 +99,22 @@ public class TestNonBlockingNIO {
 //            }
             Scanner scanner = new Scanner(System.in);
             
-            while(scanner.hasNext()) {
-                String str = scanner.next();
-                byteBuffer.put((LocalDateTime.now().toString() + "\n" + str).getBytes());
-                byteBuffer.flip();
-                socketChannel.write(byteBuffer);
-                byteBuffer.clear();
-                
-               
+            try {
+                while(scanner.hasNext()) {
+                    String str = scanner.next();
+                    CharBuffer text = CharBuffer.wrap(LocalDateTime.now().toString() + "\n" + str);
+                    // 输入比缓冲区长时分几次编码、发送
+                    CoderResult result;
+                    do {
+                        result = encoder.encode(text, byteBuffer, true);
+                        byteBuffer.flip();
+                        // 非阻塞模式下 write 不保证一次写完，没写完的部分需要等通道可写时继续写
+                        OutboundQueue.writeFully(socketChannel, byteBuffer);
+                        byteBuffer.clear();
+                    } while (result.isOverflow());
+                }
+            } finally {
+                BufferPool.getDefault().release(byteBuffer);
             }
             
         } catch (Exception e) {
@@ -85,6 +141,9 @@ public class TestNonBlockingNIO {
             //4. 将通道注册到选择器中，并且指定监听接收事件
             serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
             
+            // 所有连接共用的字符缓冲区，解码结果打印以后就清空
+            CharBuffer chars = CharBuffer.allocate(1024);
+            
             // 5. 轮询选择器上的所有“就绪”事件
             // 如果选择器上的就绪事件大于0个，即已经有事件准备就绪了
             while(selector.select() > 0) {
@@ -101,17 +160,15 @@ public class TestNonBlockingNIO {
                         //9. 将客户端连接切换到非阻塞式模式
                         socketChannel.configureBlocking(false);
                         
-                        // 10. 将客户端通道注册到选择器上
-                        socketChannel.register(selector, SelectionKey.OP_READ);
-                        
-                        ByteBuffer buffer = ByteBuffer.allocate(1024);
+                        // 10. 将客户端通道注册到选择器上，附带这条连接自己的流式解码器
+                        socketChannel.register(selector, SelectionKey.OP_READ, new StreamingDecoder(StandardCharsets.UTF_8));
                         
                     }else if (selectionKey.isReadable()) {
                         //11. 获取选择器上读就绪状态的通道
                         SocketChannel channel = (SocketChannel) selectionKey.channel();
                         
-                        //12. 读取数据
-                        ByteBuffer buffer = ByteBuffer.allocate(1024);
+                        //12. 读取数据（从缓冲区池中借用直接缓冲区，用完归还）
+                        ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
 //                        while(channel.read(buffer) != -1) {
 //                            buffer.flip();
 ////                          System.out.println(new String(buffer.array(), 0, buffer.limit()));
@@ -119,12 +176,38 @@ public class TestNonBlockingNIO {
 //                            buffer.clear();
 //                        }
                         int len = 0;
-                        // 将管道里的数据写入到缓冲区中
-                        while((len = channel.read(buffer)) > 0) {
-                            buffer.flip();
-                            // 将缓冲区里的字节数据读取出来转换为字符串
-                            System.out.println(new String(buffer.array(), 0, buffer.limit()));
-                            buffer.clear();
+                        StreamingDecoder decoder = (StreamingDecoder) selectionKey.attachment();
+                        try {
+                            // 将管道里的数据写入到缓冲区中
+                            while((len = channel.read(buffer)) > 0) {
+                                buffer.flip();
+                                // 将缓冲区里的字节解码到复用的字符缓冲区中（直接缓冲区没有 array()），
+                                // 一个汉字被拆在两次读取之间时，前半截留在解码器里等下一次读取
+                                CoderResult result;
+                                do {
+                                    result = decoder.decode(buffer, chars, false);
+                                    chars.flip();
+                                    System.out.print(chars);
+                                    chars.clear();
+                                } while (result.isOverflow());
+                                System.out.println();
+                                buffer.clear();
+                            }
+                        } catch (IOException e) {
+                            // 连接被对端重置，按关闭处理，不能让一条连接的异常结束整个服务端
+                            len = -1;
+                        } finally {
+                            BufferPool.getDefault().release(buffer);
+                        }
+                        // 读到 -1 说明对端已经关闭，必须取消选择键并关闭通道，
+                        // 否则这个键会一直处于读就绪状态，每次 select 都被选中
+                        if (len == -1) {
+                            if (decoder.hasPendingInput()) {
+                                System.out.println("连接关闭时还有不完整的字符");
+                            }
+                            System.out.println("客户端已断开：" + channel.socket().getRemoteSocketAddress());
+                            selectionKey.cancel();
+                            channel.close();
                         }
                        
                         
@@ -142,4 +225,597 @@ public class TestNonBlockingNIO {
     }
     
     
+    // 主从多 Reactor 服务端：boss 线程负责接收连接，worker 线程（默认 CPU 核数个）负责读写
+    @Test
+    public void testReactorServer() throws Exception {
+        int clients = 8;
+        String message = "保持饥饿，大智若愚";
+        long expected = (long) clients * message.getBytes().length;
+        AtomicLong received = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        ChannelHandler handler = (connection, buffer) -> {
+            System.out.println(Thread.currentThread().getName() + " 收到 " + buffer.remaining() + " 字节");
+            if (received.addAndGet(buffer.remaining()) == expected) {
+                latch.countDown();
+            }
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler)) {
+            server.start();
+            System.out.println("worker 线程数：" + server.getWorkerCount());
+
+            for (int i = 0; i < clients; i++) {
+                try (SocketChannel socketChannel = SocketChannel.open(server.getLocalAddress())) {
+                    socketChannel.write(ByteBuffer.wrap(message.getBytes()));
+                }
+            }
+
+            System.out.println("全部接收完毕：" + latch.await(5, TimeUnit.SECONDS) + "，共 " + received.get() + " 字节");
+        }
+    }
+    
+    /**
+     * 事件循环指标：回显服务端跑一段负载以后，通过 snapshot() 拉取快照，再通过 JMX 读取同样的数据
+     * 运行期间也可以用 jconsole 连接进程，在 MBean 页签的 test.webNIO 下查看
+     */
+    @Test
+    public void testReactorMetrics() throws Exception {
+        int clients = 16;
+        int messages = 1000;
+        byte[] message = "保持饥饿，大智若愚".getBytes(StandardCharsets.UTF_8);
+
+        ChannelHandler echo = (connection, buffer) -> {
+            ByteBuffer copy = BufferPool.getDefault().acquire(buffer.remaining());
+            copy.put(buffer).flip();
+            connection.write(copy, () -> BufferPool.getDefault().release(copy));
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), echo,
+                RawFrameDecoder::new, 2)) {
+            server.start();
+            ObjectName objectName = server.registerMBean("metrics-demo");
+
+            SocketChannel[] channels = new SocketChannel[clients];
+            for (int i = 0; i < clients; i++) {
+                channels[i] = SocketChannel.open(server.getLocalAddress());
+            }
+            ByteBuffer response = ByteBuffer.allocate(message.length);
+            for (int round = 0; round < messages; round++) {
+                for (SocketChannel channel : channels) {
+                    channel.write(ByteBuffer.wrap(message));
+                }
+                for (SocketChannel channel : channels) {
+                    response.clear();
+                    while (response.hasRemaining()) {
+                        channel.read(response);
+                    }
+                }
+            }
+
+            ServerSnapshot snapshot = server.snapshot();
+            System.out.println(snapshot);
+            System.out.println("JMX 读取：connections=" + ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(objectName, "Connections") + ", handlerP99Micros="
+                    + ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "HandlerP99Micros"));
+
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+    
+    /**
+     * 空闲检测：500 毫秒内没有读到数据的连接被服务端关闭，一直在发送数据的连接保持打开
+     * 超时任务挂在 worker 线程的时间轮上，不需要为每条连接创建定时任务
+     */
+    @Test
+    public void testIdleTimeout() throws Exception {
+        ChannelHandler handler = new ChannelHandler() {
+            @Override
+            public void channelRead(Connection connection, ByteBuffer frame) {
+                frame.position(frame.limit());
+            }
+
+            @Override
+            public void channelIdle(Connection connection, IdleState state) {
+                System.out.println(connection.remoteAddress() + " " + state + "，关闭连接");
+                ChannelHandler.super.channelIdle(connection, state);
+            }
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler)
+                .idleTimeout(500, 0, TimeUnit.MILLISECONDS)) {
+            server.start();
+            try (SocketChannel idle = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel active = SocketChannel.open(server.getLocalAddress())) {
+                for (int i = 0; i < 8; i++) {
+                    active.write(ByteBuffer.wrap("ping".getBytes()));
+                    Thread.sleep(200);
+                }
+                // 服务端早已关闭了空闲的连接，读到 -1
+                System.out.println("空闲连接读到：" + idle.read(ByteBuffer.allocate(1)));
+                System.out.println("服务端剩余连接：" + server.snapshot().connections());
+            }
+        }
+    }
+    
+    // 主动连接的超时：连接建立不了时不会一直挂在选择器上，到期后以 SocketTimeoutException 结束
+    @Test
+    public void testConnectTimeout() throws Exception {
+        SubReactor reactor = new SubReactor((connection, frame) -> frame.position(frame.limit()));
+        Thread thread = new Thread(reactor, "connector");
+        thread.setDaemon(true);
+        thread.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            Connection connection = reactor.connect(serverSocketChannel.getLocalAddress(), new RawFrameDecoder(),
+                    1, TimeUnit.SECONDS).get();
+            System.out.println("连接成功：" + connection.remoteAddress());
+            connection.close();
+
+            // 不可路由的地址，SYN 没有回应；网络不可达时会立即失败
+            long start = System.nanoTime();
+            try {
+                reactor.connect(new InetSocketAddress("10.255.255.1", 9898), new RawFrameDecoder(), 500,
+                        TimeUnit.MILLISECONDS).get().close();
+                System.out.println("连接成功（网络中有代理）");
+            } catch (ExecutionException e) {
+                System.out.println("连接失败：" + e.getCause() + "，耗时 "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+        } finally {
+            reactor.shutdown();
+        }
+    }
+    
+    /**
+     * 客户端连接池：一万个请求同时提交，连接池为这个地址最多建立 4 条连接，请求在连接上流水线地发出，
+     * 不等上一个响应。服务端把每 10 个请求中的一个推迟 200 毫秒响应，响应乱序到达，客户端按关联 ID 匹配
+     */
+    @Test
+    public void testClientPool() throws Exception {
+        BufferPool bufferPool = BufferPool.getDefault();
+        ChannelHandler handler = (connection, frame) -> {
+            ByteBuffer body = RpcFrame.body(frame);
+            boolean delayed = body.getInt(0) % 10 == 0;
+            ByteBuffer response = RpcFrame.encode(bufferPool, RpcFrame.correlationId(frame), body);
+            Runnable reply = () -> connection.write(response, () -> bufferPool.release(response));
+            if (delayed) {
+                connection.reactor().schedule(reply, 200, TimeUnit.MILLISECONDS);
+            } else {
+                reply.run();
+            }
+        };
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                () -> RpcFrame.decoder(64 * 1024), 1);
+                ClientPool pool = new ClientPool().maxConnectionsPerEndpoint(4)) {
+            server.start();
+            pool.start();
+            InetSocketAddress address = server.getLocalAddress();
+            int requests = 10000;
+            List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>(requests);
+            ConcurrentLinkedQueue<Integer> completionOrder = new ConcurrentLinkedQueue<>();
+            ByteBuffer request = ByteBuffer.allocate(64);
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                request.clear();
+                request.putInt(i).put(("请求 " + i).getBytes(StandardCharsets.UTF_8)).flip();
+                // 回调在连接池的事件循环线程中执行，只做记录
+                futures.add(pool.call(address, request)
+                        .whenComplete((response, cause) -> {
+                            if (response != null) {
+                                completionOrder.add(response.getInt(0));
+                            }
+                        }));
+            }
+            int matched = 0;
+            for (int i = 0; i < requests; i++) {
+                ByteBuffer response = futures.get(i).get(5, TimeUnit.SECONDS);
+                if (response.getInt(0) == i && StandardCharsets.UTF_8.decode(response).toString().endsWith("请求 " + i)) {
+                    matched++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            int outOfOrder = 0;
+            int previous = -1;
+            for (int id : completionOrder) {
+                if (id < previous) {
+                    outOfOrder++;
+                }
+                previous = id;
+            }
+            System.out.println("请求 " + requests + "，匹配 " + matched + "，乱序完成 " + outOfOrder + "，耗时 "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms，连接数 " + pool.connectionCount(address));
+        }
+    }
+    
+    /**
+     * 用二进制记录代替 testNonBlockingClient 中的 LocalDateTime.now().toString() + 文本：
+     * 客户端把序号、发送时间（纪元纳秒）和消息体直接编码进池化的直接缓冲区，
+     * 服务端在 channelRead 中用 RecordReader 读帧，算出每条消息从发送到处理的延迟，两边都不产生 String
+     */
+    @Test
+    public void testRecordMessages() throws Exception {
+        RecordSchema schema = RecordSchema.builder(1, 1).int64("seq").timestamp("sentAt").bytes("text").build();
+        Field seq = schema.field("seq");
+        Field sentAt = schema.field("sentAt");
+        Field text = schema.field("text");
+        int messages = 100000;
+        CountDownLatch done = new CountDownLatch(messages);
+        AtomicLong totalLatency = new AtomicLong();
+        AtomicLong outOfOrder = new AtomicLong();
+        // 只有一个 worker 线程，一个 RecordReader 就够了；多个 worker 时每个线程一个
+        RecordReader reader = new RecordReader(schema);
+        long[] lastSeq = { -1 };
+        ChannelHandler handler = (connection, frame) -> {
+            reader.wrap(frame);
+            long current = reader.getLong(seq);
+            if (current != lastSeq[0] + 1) {
+                outOfOrder.incrementAndGet();
+            }
+            lastSeq[0] = current;
+            totalLatency.addAndGet(EpochClock.nanos() - reader.getTimestamp(sentAt));
+            done.countDown();
+        };
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                () -> new LengthFieldFrameDecoder(4, 1024), 1)) {
+            server.start();
+            byte[] hello = "你好，NIO".getBytes(StandardCharsets.UTF_8);
+            RecordWriter writer = new RecordWriter(schema);
+            ByteBuffer buffer = BufferPool.getDefault().acquire(64 * 1024);
+            long start = System.nanoTime();
+            try (SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+                for (int i = 0; i < messages; i++) {
+                    if (buffer.remaining() < 4 + schema.minEncodedLength() + hello.length) {
+                        buffer.flip();
+                        OutboundQueue.writeFully(channel, buffer);
+                        buffer.clear();
+                    }
+                    // 先空出 4 个字节的长度字段，记录写完以后再填
+                    int frameStart = buffer.position();
+                    int length = writer.wrap(buffer, frameStart + 4)
+                            .putLong(seq, i)
+                            .putTimestamp(sentAt, EpochClock.nanos())
+                            .putBytes(text, hello, 0, hello.length)
+                            .finish();
+                    buffer.putInt(frameStart, length).position(frameStart + 4 + length);
+                }
+                buffer.flip();
+                OutboundQueue.writeFully(channel, buffer);
+                done.await(10, TimeUnit.SECONDS);
+            } finally {
+                BufferPool.getDefault().release(buffer);
+            }
+            long elapsed = System.nanoTime() - start;
+            long received = messages - done.getCount();
+            System.out.println("收到 " + received + " 条，乱序 " + outOfOrder.get() + "，平均延迟 "
+                    + (received == 0 ? 0 : totalLatency.get() / received / 1000) + " µs，耗时 "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        }
+    }
+    
+    /**
+     * 聊天室广播：每条消息只编码一次，所有接收者的待写队列共享同一块直接内存的只读视图
+     * 一个从不读取数据的客户端越过高水位以后按 DISCONNECT 策略被断开，不会让服务端无限积压
+     */
+    @Test
+    public void testChatRoom() throws Exception {
+        int messages = 20000;
+        ChatRoom room = new ChatRoom(SlowSubscriberPolicy.DISCONNECT);
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), new ChatHandler(room),
+                () -> new LengthFieldFrameDecoder(4, 64 * 1024), 2).writeBufferWaterMark(64 * 1024, 256 * 1024)) {
+            server.start();
+            SocketChannel alice = SocketChannel.open(server.getLocalAddress());
+            SocketChannel bob = SocketChannel.open(server.getLocalAddress());
+            // 接收缓冲区很小并且从不读取，服务端的待写队列很快越过高水位
+            SocketChannel slow = SocketChannel.open();
+            slow.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+            slow.connect(server.getLocalAddress());
+            while (room.size() < 3) {
+                Thread.sleep(10);
+            }
+
+            // bob 在后台线程按长度前缀解码，统计收到的消息
+            AtomicLong received = new AtomicLong();
+            Thread reader = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(4, 64 * 1024);
+                try {
+                    while (received.get() < messages && bob.read(buffer) > 0) {
+                        buffer.flip();
+                        ByteBuffer frame;
+                        while ((frame = decoder.decode(buffer)) != null) {
+                            if (received.incrementAndGet() == 1) {
+                                System.out.println("bob 收到：" + StandardCharsets.UTF_8.decode(frame).subSequence(0, 12)
+                                        + "...（" + frame.limit() + " 字节）");
+                            }
+                        }
+                        buffer.compact();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            reader.start();
+
+            // alice 发出的每条消息都由服务端转发给 bob 和 slow，不会发回给 alice 自己
+            byte[] body = ("保持饥饿，大智若愚" + new String(new char[1000]).replace('\0', '!')).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = ByteBuffer.allocate(4 + body.length);
+            frame.putInt(body.length).put(body).flip();
+            for (int i = 0; i < messages; i++) {
+                frame.rewind();
+                OutboundQueue.writeFully(alice, frame);
+            }
+            reader.join(10000);
+
+            System.out.println("bob 收到 " + received.get() + " 条，slow 断开前内核缓冲的数据：" + slow.read(ByteBuffer.allocate(1 << 20)) + " 字节");
+            System.out.println("广播 " + room.messages() + " 条，投递 " + room.delivered() + " 次，断开 "
+                    + room.disconnected() + " 个慢订阅者，房间剩余 " + room.size() + " 人");
+            alice.close();
+            bob.close();
+            slow.close();
+        }
+        System.out.println(BufferPool.getDefault().stats());
+    }
+    
+    // 长度前缀分帧：消息被拆成多次发送（甚至从一个汉字的中间断开），服务端依然能还原出完整的消息
+    @Test
+    public void testLengthFieldFrame() throws Exception {
+        String[] messages = {"保持饥饿，大智若愚", "hello", "我爱你!"};
+        ConcurrentLinkedQueue<String> received = new ConcurrentLinkedQueue<>();
+        CountDownLatch latch = new CountDownLatch(messages.length);
+
+        // 帧是完整的，所以按 UTF-8 解码时不会出现半个字符
+        ChannelHandler handler = (connection, frame) -> {
+            received.add(StandardCharsets.UTF_8.decode(frame).toString());
+            latch.countDown();
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                () -> new LengthFieldFrameDecoder(4, 64 * 1024), 1);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            socketChannel.connect(server.getLocalAddress());
+
+            LengthFieldFrameDecoder encoder = new LengthFieldFrameDecoder(4, 64 * 1024);
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            for (String message : messages) {
+                encoder.encode(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), buffer);
+            }
+            buffer.flip();
+
+            // 每次只发 5 个字节，模拟拆包
+            while (buffer.hasRemaining()) {
+                ByteBuffer piece = buffer.duplicate();
+                piece.limit(Math.min(piece.position() + 5, buffer.limit()));
+                socketChannel.write(piece);
+                buffer.position(piece.position());
+                Thread.sleep(5);
+            }
+
+            System.out.println("全部接收完毕：" + latch.await(5, TimeUnit.SECONDS));
+            received.forEach(System.out::println);
+        }
+    }
+    
+    // 聊天消息持久化：服务端把每一帧追加到内存映射日志，没有每条消息一次的 write 系统调用
+    @Test
+    public void testMessageLog() throws Exception {
+        int clients = 4;
+        int messagesPerClient = 1000;
+        Path dir = Files.createTempDirectory("chat-log");
+        CountDownLatch latch = new CountDownLatch(clients * messagesPerClient);
+        try (MappedLog log = new MappedLog(dir)) {
+            ChannelHandler handler = (connection, frame) -> {
+                try {
+                    log.append(frame);
+                    latch.countDown();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            };
+            try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                    () -> new LengthFieldFrameDecoder(2, 64 * 1024))) {
+                server.start();
+                LengthFieldFrameDecoder encoder = new LengthFieldFrameDecoder(2, 64 * 1024);
+                for (int c = 0; c < clients; c++) {
+                    try (SocketChannel socketChannel = SocketChannel.open(server.getLocalAddress())) {
+                        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                        for (int i = 0; i < messagesPerClient; i++) {
+                            encoder.encode(StandardCharsets.UTF_8.encode("用户" + c + "：第 " + i + " 条消息"), buffer);
+                        }
+                        buffer.flip();
+                        OutboundQueue.writeFully(socketChannel, buffer);
+                    }
+                }
+                System.out.println("全部写入日志：" + latch.await(10, TimeUnit.SECONDS));
+            }
+            System.out.println("日志中的消息数：" + log.nextOffset());
+            System.out.println("第一条：" + StandardCharsets.UTF_8.decode(log.read(0)));
+            System.out.println("最后一条：" + StandardCharsets.UTF_8.decode(log.read(log.nextOffset() - 1)));
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+    
+    /**
+     * 消息头 + 消息体协议：消息头 8 个字节（类型 2 字节、序号 2 字节、消息体长度 4 字节）
+     * 客户端和服务端都用聚集写一次发出消息头和消息体，客户端用分散读把响应直接读进消息头和池化的消息体缓冲区
+     */
+    @Test
+    public void testHeaderBodyCodec() throws Exception {
+        HeaderBodyCodec codec = new HeaderBodyCodec(8, 4, 4, 64 * 1024);
+        BufferPool pool = BufferPool.getDefault();
+        String[] messages = {"保持饥饿，大智若愚", "hello", "", "我爱你!"};
+
+        ChannelHandler handler = (connection, frame) -> {
+            short seq = frame.getShort(frame.position() + 2);
+            frame.position(frame.position() + codec.headerSize());
+            String text = StandardCharsets.UTF_8.decode(frame).toString();
+
+            ByteBuffer header = pool.acquire(codec.headerSize());
+            header.putShort((short) 2).putShort(seq).putInt(0).flip();
+            ByteBuffer body = pool.acquire(256);
+            new StreamingEncoder(StandardCharsets.UTF_8).encode(CharBuffer.wrap("收到 #" + seq + "：" + text), body, true);
+            body.flip();
+            codec.write(connection, header, body, () -> {
+                pool.release(header);
+                pool.release(body);
+            });
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler, codec::decoder, 1);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            socketChannel.connect(server.getLocalAddress());
+
+            ByteBuffer header = ByteBuffer.allocate(codec.headerSize());
+            for (short seq = 0; seq < messages.length; seq++) {
+                ByteBuffer body = StandardCharsets.UTF_8.encode(messages[seq]);
+                header.clear();
+                header.putShort((short) 1).putShort(seq).putInt(0).flip();
+                codec.setBodyLength(header, body);
+                OutboundQueue.writeFully(socketChannel, new ByteBuffer[] { header, body });
+            }
+
+            int[] received = {0};
+            ScatteringMessageReader reader = new ScatteringMessageReader(codec, socketChannel, (h, body) -> {
+                System.out.println("类型 " + h.getShort(0) + "，消息体 " + body.remaining() + " 字节："
+                        + StandardCharsets.UTF_8.decode(body));
+                received[0]++;
+            });
+            while (received[0] < messages.length && reader.read() >= 0) {
+            }
+            reader.close();
+        }
+    }
+    
+    // 待写队列和高低水位：客户端故意读得很慢，服务端在不可写时暂停生产，恢复可写后继续
+    @Test
+    public void testWriteBackpressure() throws Exception {
+        int total = 8 * 1024 * 1024;
+        int chunk = 16 * 1024;
+        BufferPool pool = BufferPool.getDefault();
+
+        ChannelHandler handler = new ChannelHandler() {
+            private int produced;
+
+            @Override
+            public void channelActive(Connection connection) {
+                produce(connection);
+            }
+
+            @Override
+            public void channelRead(Connection connection, ByteBuffer frame) {
+            }
+
+            @Override
+            public void channelWritabilityChanged(Connection connection) {
+                System.out.println("可写状态：" + connection.isWritable() + "，待写字节：" + connection.pendingWriteBytes());
+                produce(connection);
+            }
+
+            // 只在可写时生产，待写数据永远不会超过高水位太多
+            private void produce(Connection connection) {
+                while (produced < total && connection.isWritable()) {
+                    ByteBuffer buffer = pool.acquire(chunk);
+                    buffer.limit(chunk);
+                    buffer.position(chunk);
+                    buffer.flip();
+                    connection.write(buffer, () -> pool.release(buffer));
+                    produced += chunk;
+                }
+            }
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler, 
+                RawFrameDecoder::new, 1).writeBufferWaterMark(64 * 1024, 128 * 1024);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            // 接收缓冲区调小，让服务端更快地堆积待写数据
+            socketChannel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024);
+            socketChannel.connect(server.getLocalAddress());
+
+            ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            long received = 0;
+            while (received < total) {
+                received += socketChannel.read(buffer);
+                buffer.clear();
+                Thread.sleep(1);
+            }
+            System.out.println("客户端共收到：" + received + " 字节");
+        }
+    }
+    
+    // 文本协议：客户端每次只发一个字节（汉字一定会被拆开），服务端流式解码，按行回复
+    @Test
+    public void testTextChannelHandler() throws Exception {
+        String message = "保持饥饿，大智若愚 Stay hungry!\n我爱你!\n";
+        TextChannelHandler handler = new TextChannelHandler(StandardCharsets.UTF_8) {
+            @Override
+            protected void textRead(Connection connection, CharBuffer text) {
+                StringBuilder line = (StringBuilder) connection.attachment();
+                if (line == null) {
+                    line = new StringBuilder();
+                    connection.attach(line);
+                }
+                while (text.hasRemaining()) {
+                    char c = text.get();
+                    if (c == '\n') {
+                        writeText(connection, "收到：" + line + "\n");
+                        line.setLength(0);
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            socketChannel.connect(server.getLocalAddress());
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(message);
+            while (bytes.hasRemaining()) {
+                ByteBuffer piece = bytes.duplicate();
+                piece.limit(piece.position() + 1);
+                socketChannel.write(piece);
+                bytes.position(piece.position());
+                Thread.sleep(1);
+            }
+
+            // 客户端这边同样流式解码，两行回复可能分几次到达
+            StreamingDecoder decoder = new StreamingDecoder(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            CharBuffer chars = CharBuffer.allocate(64);
+            StringBuilder reply = new StringBuilder();
+            int lines = 0;
+            while (lines < 2 && socketChannel.read(buffer) != -1) {
+                buffer.flip();
+                decoder.decode(buffer, chars, false);
+                buffer.clear();
+                chars.flip();
+                while (chars.hasRemaining()) {
+                    char c = chars.get();
+                    reply.append(c);
+                    if (c == '\n') {
+                        lines++;
+                    }
+                }
+                chars.clear();
+            }
+            System.out.print(reply);
+        }
+    }
+    
 }
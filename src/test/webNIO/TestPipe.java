@@ -1,15 +1,116 @@
 package test.webNIO;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.Pipe;
 import java.nio.channels.Pipe.SinkChannel;
 import java.nio.channels.Pipe.SourceChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
+import test.nio.buffer.BufferPool;
+import test.webNIO.pipe.PipeMailbox;
+import test.webNIO.reactor.OutboundQueue;
+
 public class TestPipe {
 
+    /**
+     * 管道信箱：I/O 线程在同一个选择器上等待套接字事件和其他线程交回的结果
+     * 1. I/O 线程读到请求后交给工作线程池计算
+     * 2. 工作线程把“写回响应”的任务投递到信箱，不直接操作通道
+     * 3. I/O 线程被管道唤醒，在自己的线程里写回响应
+     */
+    @Test
+    public void testPipe2() throws Exception {
+        int requests = 1000;
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try (PipeMailbox<Runnable> mailbox = new PipeMailbox<>(1024);
+                Selector selector = Selector.open();
+                ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+                SocketChannel client = SocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+            client.connect(serverSocketChannel.getLocalAddress());
+            SocketChannel server = serverSocketChannel.accept();
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_READ);
+            mailbox.register(selector);
+
+            // 客户端一次发出所有请求，每个请求是一个 4 字节的整数
+            ByteBuffer request = ByteBuffer.allocate(4 * requests);
+            for (int i = 0; i < requests; i++) {
+                request.putInt(i);
+            }
+            request.flip();
+            while (request.hasRemaining()) {
+                client.write(request);
+            }
+
+            ByteBuffer inbound = ByteBuffer.allocate(4096);
+            int responded = 0;
+            int wakeups = 0;
+            while (responded < requests) {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.attachment() == mailbox) {
+                        // 其他线程交回的任务在 I/O 线程中执行
+                        wakeups++;
+                        responded += mailbox.drain(Runnable::run);
+                    } else if (key.isReadable()) {
+                        server.read(inbound);
+                        inbound.flip();
+                        while (inbound.remaining() >= 4) {
+                            int n = inbound.getInt();
+                            workers.execute(() -> {
+                                // 工作线程中计算，结果放进池化的缓冲区
+                                ByteBuffer response = BufferPool.getDefault().acquire(8);
+                                response.putInt(n).putInt(n * n).flip();
+                                while (!mailbox.offer(() -> {
+                                    try {
+                                        OutboundQueue.writeFully(server, response);
+                                    } catch (IOException e) {
+                                        e.printStackTrace();
+                                    } finally {
+                                        BufferPool.getDefault().release(response);
+                                    }
+                                })) {
+                                    // 信箱满了，让出 CPU 等 I/O 线程消费
+                                    Thread.yield();
+                                }
+                            });
+                        }
+                        inbound.compact();
+                    }
+                }
+            }
+
+            ByteBuffer responses = ByteBuffer.allocate(8 * requests);
+            while (responses.hasRemaining()) {
+                client.read(responses);
+            }
+            responses.flip();
+            long sum = 0;
+            while (responses.hasRemaining()) {
+                responses.getInt();
+                sum += responses.getInt();
+            }
+            System.out.println("响应数：" + responded + "，管道唤醒次数：" + wakeups + "，平方和：" + sum);
+            server.close();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
     @Test
     public void testPipe1() throws IOException {
         Pipe pipe = Pipe.open();
@@ -1,15 +1,56 @@
 package test.webNIO;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
+import test.nio.buffer.BufferPool;
+import test.nio.buffer.OffHeapAccounting;
+import test.nio.cache.CachedFile;
+import test.nio.cache.MappedFileCache;
+import test.nio.charset.StreamingDecoder;
+import test.nio.charset.StreamingEncoder;
+import test.nio.compress.BlockCompressor;
+import test.nio.compress.Codec;
+import test.nio.compress.DeflateCodec;
+import test.nio.compress.LzCodec;
+import test.webNIO.async.AsyncConnection;
+import test.webNIO.async.AsyncFileSender;
+import test.webNIO.async.AsyncHandler;
+import test.webNIO.async.AsyncServer;
+import test.webNIO.reactor.ChannelHandler;
+import test.webNIO.reactor.Connection;
+import test.webNIO.reactor.FileRegion;
+import test.webNIO.reactor.OutboundQueue;
+import test.webNIO.reactor.ReactorServer;
+import test.webNIO.reactor.TransferResult;
+import test.webNIO.reactor.codec.CompressionFrameDecoder;
+import test.webNIO.reactor.codec.FixedLengthFrameDecoder;
+import test.webNIO.reactor.codec.LengthFieldFrameDecoder;
+import test.webNIO.reactor.codec.RawFrameDecoder;
+
 /**
  * 一：使用NIO 完成网络通信的三个核心
  * 1. 通道Channel：负责连接
@@ -27,6 +68,372 @@ import org.junit.Test;
  */
 public class TestWebNIO {
 
+    // 零拷贝客户端：transferTo 直接把文件交给 socket，数据不经过用户空间的缓冲区
+    @Test
+    public void testClient3() {
+        try (FileChannel fileChannel = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ);
+                SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", 9988))) {
+            long position = 0;
+            long size = fileChannel.size();
+            // transferTo 不保证一次传完（例如 Linux 单次 sendfile 有上限），需要循环
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, socketChannel);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 零拷贝服务端：transferFrom 直接从 socket 写入文件，直到对端关闭
+    @Test
+    public void testServer3() {
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+                FileChannel outChannel = FileChannel.open(Paths.get("3.jpg"), StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            serverSocketChannel.bind(new InetSocketAddress(9988));
+            try (SocketChannel socketChannel = serverSocketChannel.accept()) {
+                long position = 0;
+                long n;
+                // 阻塞模式下 transferFrom 返回 0 说明对端已经关闭
+                while ((n = outChannel.transferFrom(socketChannel, position, 1024 * 1024)) > 0) {
+                    position += n;
+                }
+                System.out.println("接收完毕：" + position + " 字节");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 基于事件循环的文件收发：先收 8 个字节的文件长度，再把文件内容写入临时文件，收完后原样发回给客户端
+    @Test
+    public void testZeroCopyReactor() throws Exception {
+        Path received = Files.createTempFile("received", ".jpg");
+
+        ChannelHandler handler = new ChannelHandler() {
+            @Override
+            public void channelRead(Connection connection, ByteBuffer frame) {
+                long length = frame.getLong();
+                try {
+                    FileChannel outChannel = FileChannel.open(received, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    connection.receiveFile(outChannel, 0, length, result -> {
+                        System.out.println("服务端接收：" + result);
+                        // 收完以后零拷贝发回，发完再关闭文件
+                        connection.sendFile(new FileRegion(outChannel, 0, length, sent -> {
+                            System.out.println("服务端发送：" + sent);
+                            closeQuietly(outChannel);
+                        }).onFailure(e -> closeQuietly(outChannel)));
+                    }, e -> closeQuietly(outChannel));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+        };
+
+        Path echoed = Files.createTempFile("echoed", ".jpg");
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                () -> new FixedLengthFrameDecoder(8), 1);
+                FileChannel inChannel = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ);
+                FileChannel echoChannel = FileChannel.open(echoed, StandardOpenOption.WRITE)) {
+            server.start();
+            try (SocketChannel socketChannel = SocketChannel.open(server.getLocalAddress())) {
+                long size = inChannel.size();
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putLong(size).flip();
+                OutboundQueue.writeFully(socketChannel, header);
+                for (long position = 0; position < size; ) {
+                    position += inChannel.transferTo(position, size - position, socketChannel);
+                }
+                long position = 0;
+                long n;
+                while (position < size && (n = echoChannel.transferFrom(socketChannel, position, size - position)) > 0) {
+                    position += n;
+                }
+                System.out.println("客户端收回：" + position + " 字节");
+            }
+            System.out.println("内容一致：" + Arrays.equals(Files.readAllBytes(Paths.get("1.jpg")), Files.readAllBytes(echoed)));
+        } finally {
+            Files.delete(received);
+            Files.delete(echoed);
+        }
+    }
+
+    /**
+     * 完成通知模型的文件传输：1.jpg → 临时文件（代替 testClient/testServer 的 3.jpg，避免覆盖仓库里的文件）
+     * 1. 客户端：AsyncFileSender 用两个缓冲区轮转，读文件和写 socket 重叠进行
+     * 2. 服务端：每收到一段数据，拷贝到池化缓冲区后发起异步文件写，位置在发起时就确定，完成顺序无关紧要
+     */
+    @Test
+    public void testAsyncFileTransfer() throws Exception {
+        Path source = Paths.get("1.jpg");
+        long size = Files.size(source);
+        Path received = Files.createTempFile("received", ".jpg");
+        BufferPool pool = BufferPool.getDefault();
+        AtomicLong written = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        try (AsynchronousFileChannel outChannel = AsynchronousFileChannel.open(received, StandardOpenOption.WRITE)) {
+            CompletionHandler<Integer, ByteBuffer> fileWritten = new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer len, ByteBuffer buffer) {
+                    pool.release(buffer);
+                    if (written.addAndGet(len) == size) {
+                        latch.countDown();
+                    }
+                }
+
+                @Override
+                public void failed(Throwable e, ByteBuffer buffer) {
+                    pool.release(buffer);
+                    e.printStackTrace();
+                }
+            };
+            AsyncHandler handler = new AsyncHandler() {
+                @Override
+                public void channelActive(AsyncConnection connection) {
+                    connection.attach(new long[1]);
+                }
+
+                @Override
+                public void channelRead(AsyncConnection connection, ByteBuffer frame) {
+                    long[] position = (long[]) connection.attachment();
+                    int length = frame.remaining();
+                    ByteBuffer copy = pool.acquire(length);
+                    copy.put(frame).flip();
+                    // 文件写一次就能写完（本地文件不会像 socket 那样写一部分），位置在发起时确定；
+                    // 发起以后 copy 可能随时写完并被归还，不能再访问它
+                    outChannel.write(copy, position[0], copy, fileWritten);
+                    position[0] += length;
+                }
+            };
+
+            try (AsyncServer server = new AsyncServer(new InetSocketAddress("127.0.0.1", 0), handler)) {
+                server.start();
+                AsynchronousChannelGroup group = AsyncServer.newGroup(1, "async-client-");
+                try {
+                    AsyncConnection client = AsyncConnection.connect(group, server.getLocalAddress(),
+                            (connection, frame) -> { }, new RawFrameDecoder()).get();
+                    TransferResult result = AsyncFileSender.send(source, client).get();
+                    System.out.println("客户端发送：" + result);
+                    client.close();
+                    System.out.println("服务端写完：" + latch.await(10, TimeUnit.SECONDS) + "，" + written.get() + " 字节");
+                } finally {
+                    group.shutdownNow();
+                }
+            }
+            System.out.println("内容一致：" + Arrays.equals(Files.readAllBytes(source), Files.readAllBytes(received)));
+        } finally {
+            Files.delete(received);
+        }
+    }
+
+    /**
+     * testClient/testServer 的文件传输加上压缩阶段：客户端用 BlockCompressor 把文件切块压缩后写进 socket，
+     * 服务端用 CompressionFrameDecoder 解压，处理器收到的是原始的文件内容
+     * 1. 每条连接（每次传输）可以选不同的算法，也可以关闭压缩，服务端的配置不变
+     * 2. 1.jpg 本身已经压缩过，按魔数识别出来以后原样发送，不浪费 CPU
+     */
+    @Test
+    public void testCompressedTransfer() throws Exception {
+        Path text = Files.createTempFile("access", ".log");
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            log.append("2026-10-18T10:").append(i % 60).append(" INFO GET /static/").append(i % 97)
+                    .append(".jpg 200 ").append(i * 31 % 5000).append(" bytes in ").append(i % 17).append(" ms\n");
+        }
+        Files.write(text, log.toString().getBytes(StandardCharsets.UTF_8));
+
+        // 每条连接把收到的内容写进自己的临时文件，连接关闭时交给测试线程比较
+        BlockingQueue<Path> received = new LinkedBlockingQueue<>();
+        ChannelHandler handler = new ChannelHandler() {
+            @Override
+            public void channelActive(Connection connection) {
+                try {
+                    Path file = Files.createTempFile("received", ".bin");
+                    connection.attach(new Object[] { file, FileChannel.open(file, StandardOpenOption.WRITE) });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+
+            @Override
+            public void channelRead(Connection connection, ByteBuffer frame) {
+                FileChannel outChannel = (FileChannel) ((Object[]) connection.attachment())[1];
+                try {
+                    while (frame.hasRemaining()) {
+                        outChannel.write(frame);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    connection.close();
+                }
+            }
+
+            @Override
+            public void channelInactive(Connection connection) {
+                Object[] state = (Object[]) connection.attachment();
+                if (state != null) {
+                    closeQuietly((FileChannel) state[1]);
+                    received.add((Path) state[0]);
+                }
+            }
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                CompressionFrameDecoder::new, 1)) {
+            server.start();
+            Object[][] transfers = {
+                    { text, new LzCodec(), true },
+                    { text, new DeflateCodec(), true },
+                    { text, new LzCodec(), false },
+                    { Paths.get("1.jpg"), new DeflateCodec(), true } };
+            for (Object[] transfer : transfers) {
+                Path source = (Path) transfer[0];
+                Codec codec = (Codec) transfer[1];
+                long start = System.nanoTime();
+                try (BlockCompressor compressor = new BlockCompressor(codec).enabled((Boolean) transfer[2]);
+                        FileChannel inChannel = FileChannel.open(source, StandardOpenOption.READ);
+                        SocketChannel socketChannel = SocketChannel.open(server.getLocalAddress())) {
+                    long wire = compressor.compress(inChannel, socketChannel);
+                    socketChannel.shutdownOutput();
+                    Path copy = received.poll(5, TimeUnit.SECONDS);
+                    try {
+                        System.out.println(source.getFileName() + "，" + codec.getClass().getSimpleName()
+                                + (compressor.detectedFormat() != null ? "（识别为 " + compressor.detectedFormat() + "，不压缩）"
+                                        : (Boolean) transfer[2] ? "" : "（关闭压缩）")
+                                + "：原始 " + Files.size(source) + " 字节，传输 " + wire + " 字节，耗时 "
+                                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms，内容一致："
+                                + (copy != null && Arrays.equals(Files.readAllBytes(source), Files.readAllBytes(copy))));
+                    } finally {
+                        if (copy != null) {
+                            Files.delete(copy);
+                        }
+                    }
+                }
+            }
+        } finally {
+            Files.delete(text);
+        }
+    }
+
+    /**
+     * 静态文件服务：请求是文件名，响应是 8 个字节的长度加文件内容（不存在时长度为 -1）
+     * 1. 命中缓存时把映射区的 duplicate() 视图和长度头一起聚集写出，不打开文件、不拷贝数据
+     * 2. 超过 maxFileSize 的文件不缓存，退回 FileRegion（transferTo）
+     * 3. 文件通过“写临时文件再 rename”的方式更新以后，过了检查间隔就能读到新内容
+     */
+    @Test
+    public void testMappedFileCache() throws Exception {
+        Path root = Files.createTempDirectory("static");
+        for (String name : new String[] { "0.jpg", "1.jpg", "2.jpg" }) {
+            Files.copy(Paths.get(name), root.resolve(name));
+        }
+        Files.write(root.resolve("index.txt"), "第一版".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("big.bin"), new byte[2 * 1024 * 1024]);
+
+        MappedFileCache cache = new MappedFileCache(16 * 1024 * 1024).maxFileSize(1024 * 1024)
+                .checkInterval(100, TimeUnit.MILLISECONDS);
+        ChannelHandler handler = (connection, frame) -> {
+            Path path = root.resolve(StandardCharsets.UTF_8.decode(frame).toString()).normalize();
+            ByteBuffer header = ByteBuffer.allocate(8);
+            try {
+                if (!path.startsWith(root) || !Files.isRegularFile(path)) {
+                    header.putLong(-1).flip();
+                    connection.write(header);
+                    return;
+                }
+                CachedFile file = cache.acquire(path);
+                if (file != null) {
+                    header.putLong(file.size()).flip();
+                    connection.write(new ByteBuffer[] { header, file.view() }, file.onRelease());
+                    return;
+                }
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                header.putLong(channel.size()).flip();
+                connection.write(header);
+                connection.sendFile(new FileRegion(channel, 0, channel.size(), result -> closeQuietly(channel))
+                        .onFailure(e -> closeQuietly(channel)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                connection.close();
+            }
+        };
+
+        try (ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), handler,
+                () -> new LengthFieldFrameDecoder(2, 1024), 1);
+                SocketChannel socketChannel = SocketChannel.open()) {
+            server.start();
+            socketChannel.connect(server.getLocalAddress());
+            String[] names = { "0.jpg", "1.jpg", "2.jpg", "index.txt", "big.bin", "missing.txt" };
+            int mismatches = 0;
+            for (int round = 0; round < 200; round++) {
+                for (String name : names) {
+                    byte[] body = fetch(socketChannel, name);
+                    Path path = root.resolve(name);
+                    byte[] expected = Files.exists(path) ? Files.readAllBytes(path) : null;
+                    if (!Arrays.equals(expected, body)) {
+                        mismatches++;
+                    }
+                }
+            }
+            System.out.println("不一致的响应：" + mismatches + "，" + cache.stats());
+
+            // 原子地替换文件：已经映射的旧版本不受影响，检查间隔过后读到新版本
+            Path temp = Files.createTempFile(root, "index", ".tmp");
+            Files.write(temp, "第二版，内容更长".getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, root.resolve("index.txt"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Thread.sleep(150);
+            System.out.println("更新以后：" + new String(fetch(socketChannel, "index.txt"), StandardCharsets.UTF_8)
+                    + "，" + cache.stats());
+        } finally {
+            cache.close();
+            System.out.println("关闭以后：" + OffHeapAccounting.snapshot());
+            try (Stream<Path> files = Files.list(root)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(root);
+        }
+    }
+
+    // 发送文件名，读回响应，文件不存在时返回 null
+    private static byte[] fetch(SocketChannel socketChannel, String name) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(1024);
+        new LengthFieldFrameDecoder(2, 1024).encode(StandardCharsets.UTF_8.encode(name), request);
+        request.flip();
+        OutboundQueue.writeFully(socketChannel, request);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(socketChannel, header);
+        long length = header.getLong(0);
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate((int) length);
+        readFully(socketChannel, body);
+        return body.array();
+    }
+
+    private static void readFully(SocketChannel socketChannel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (socketChannel.read(buffer) < 0) {
+                throw new IOException("server closed");
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+    
+
     /*
      * 服务端等待客户端的连接，当客户端连接上服务端后，不仅需要向服务端发送数据
      * 还需要从服务端接收返回的数据，即客户端程序一直没有结束，导致服务端不知道客户端的数据是否发送完毕
@@ -41,28 +448,34 @@ public class TestWebNIO {
         try (FileChannel inChannel = FileChannel.open(Paths.get("2.jpg"), StandardOpenOption.READ);
                 SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", 9988))) {
             
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            // 将通道的数据写入到缓冲区中
-            while(inChannel.read(buffer) != -1) {
-                buffer.flip();
-                // 将缓冲区中的数据写入到通道中
-                socketChannel.write(buffer);
-                buffer.clear();
-            }
-            // 告诉服务器数据已经发送完毕
-            socketChannel.shutdownOutput();
-            
-            // 将服务端传来的数据读取到缓冲区中
-            int len = 0;
-            while((len = (socketChannel.read(buffer))) != -1) {
-                // 切换缓冲区的状态
-                buffer.flip();
-             
-                // 两种写法都可以
-//                System.out.println(new String(buffer.array(), 0, buffer.limit()));
-                System.out.println(new String(buffer.array(), 0, len));
-                // 清空缓冲区的缓存，将position位置重新指向0
-                buffer.clear();
+            ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+            try {
+                // 将通道的数据写入到缓冲区中
+                while(inChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    // 将缓冲区中的数据写入到通道中
+                    socketChannel.write(buffer);
+                    buffer.clear();
+                }
+                // 告诉服务器数据已经发送完毕
+                socketChannel.shutdownOutput();
+                
+                // 将服务端传来的数据读取到缓冲区中
+                StreamingDecoder decoder = new StreamingDecoder(StandardCharsets.UTF_8);
+                CharBuffer chars = CharBuffer.allocate(1024);
+                while(socketChannel.read(buffer) != -1) {
+                    // 切换缓冲区的状态
+                    buffer.flip();
+                    // 直接缓冲区没有 array()，流式解码到复用的字符缓冲区中，一次读取末尾的半个汉字留到下一次
+                    decoder.decode(buffer, chars, false);
+                    // 清空缓冲区的缓存，将position位置重新指向0
+                    buffer.clear();
+                }
+                decoder.decode(buffer, chars, true);
+                chars.flip();
+                System.out.println(chars);
+            } finally {
+                BufferPool.getDefault().release(buffer);
             }
             
         } catch (Exception e) {
@@ -83,18 +496,22 @@ public class TestWebNIO {
             serverSocketChannel.bind(new InetSocketAddress(9988));
             SocketChannel socketChannel = serverSocketChannel.accept();
             
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            while(socketChannel.read(buffer) != -1) {
+            ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+            try {
+                while(socketChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    outChannel.write(buffer);
+                    buffer.clear();
+                }
+                
+                // 发送反馈给客户端
+                new StreamingEncoder(StandardCharsets.UTF_8).encode(CharBuffer.wrap("服务端接受成功！"), buffer, true);
                 buffer.flip();
-                outChannel.write(buffer);
+                socketChannel.write(buffer);
                 buffer.clear();
+            } finally {
+                BufferPool.getDefault().release(buffer);
             }
-            
-            // 发送反馈给客户端
-            buffer.put("服务端接受成功！".getBytes());
-            buffer.flip();
-            socketChannel.write(buffer);
-            buffer.clear();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -110,11 +527,15 @@ public class TestWebNIO {
         try (FileChannel fileChannel = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ);
                 SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", 9988))) {
             
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            while(fileChannel.read(buffer) != -1) {
-                buffer.flip();
-                socketChannel.write(buffer);
-                buffer.clear();
+            ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+            try {
+                while(fileChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    OutboundQueue.writeFully(socketChannel, buffer);
+                    buffer.clear();
+                }
+            } finally {
+                BufferPool.getDefault().release(buffer);
             }
             
         } catch (Exception e) {
@@ -133,11 +554,15 @@ public class TestWebNIO {
             serverSocketChannel.bind(new InetSocketAddress(9988));
             SocketChannel socketChannel = serverSocketChannel.accept();
             
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-            while(socketChannel.read(buffer) != -1) {
-                buffer.flip();
-                outChannel.write(buffer);
-                buffer.clear();
+            ByteBuffer buffer = BufferPool.getDefault().acquire(1024);
+            try {
+                while(socketChannel.read(buffer) != -1) {
+                    buffer.flip();
+                    outChannel.write(buffer);
+                    buffer.clear();
+                }
+            } finally {
+                BufferPool.getDefault().release(buffer);
             }
             
         } catch (Exception e) {
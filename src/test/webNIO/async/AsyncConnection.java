@@ -0,0 +1,311 @@
+package test.webNIO.async;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.reactor.codec.FrameDecoder;
+import test.webNIO.reactor.codec.TooLongFrameException;
+
+/**
+ * 基于 AsynchronousSocketChannel（NIO.2，完成通知模型）的连接
+ *
+ * 一：和 reactor.Connection（就绪通知模型）的区别
+ *  1. 不是“通道可读了再去读”，而是先把缓冲区交给内核发起读操作，读完以后回调 CompletionHandler
+ *  2. 读：一次只有一个未完成的读操作，完成回调里解码、交给处理器，然后立即发起下一次读，形成一条回调链
+ *  3. 写：一个通道同时只能有一个未完成的写操作（否则 WritePendingException），
+ *     所以写入的数据先进无锁队列，由写回调链一个接一个地写出，写不完的部分在回调里继续写
+ *
+ * 二：缓冲区复用
+ *  1. 累积缓冲区在连接的整个生命周期内复用（池化的直接缓冲区），不为每次读分配缓冲区
+ *  2. 读、写回调各是一个对象，每次发起 I/O 时复用，不为每次操作创建新的 CompletionHandler
+ *
+ * 三：分帧复用 reactor.codec 中的 FrameDecoder
+ */
+public class AsyncConnection implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final AsynchronousSocketChannel channel;
+    private final AsyncHandler handler;
+    private final FrameDecoder decoder;
+    private final BufferPool bufferPool = BufferPool.getDefault();
+    private final ReadHandler readHandler = new ReadHandler();
+    private final WriteHandler writeHandler = new WriteHandler();
+    private final Queue<Entry> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // 只有读回调链访问，相邻的两次读之间由通道保证可见性
+    private ByteBuffer inbound;
+    private volatile Object attachment;
+
+    AsyncConnection(AsynchronousSocketChannel channel, AsyncHandler handler, FrameDecoder decoder) {
+        this.channel = channel;
+        this.handler = handler;
+        this.decoder = decoder;
+    }
+
+    /**
+     * 客户端：在 group 中建立连接，连接建立以后开始读
+     * @param group 为 null 时使用 JVM 默认的通道组
+     */
+    public static CompletableFuture<AsyncConnection> connect(AsynchronousChannelGroup group,
+            InetSocketAddress address, AsyncHandler handler, FrameDecoder decoder) {
+        CompletableFuture<AsyncConnection> future = new CompletableFuture<>();
+        try {
+            AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(group);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(address, null, new CompletionHandler<Void, Void>() {
+                @Override
+                public void completed(Void result, Void attachment) {
+                    AsyncConnection connection = new AsyncConnection(channel, handler, decoder);
+                    connection.start();
+                    future.complete(connection);
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    closeQuietly(channel);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    void start() {
+        handler.channelActive(this);
+        read();
+    }
+
+    private void read() {
+        try {
+            if (inbound == null) {
+                inbound = bufferPool.acquire(Math.min(INITIAL_BUFFER_SIZE, decoder.maxFrameLength()));
+            } else if (!inbound.hasRemaining()) {
+                expand();
+            }
+            channel.read(inbound, null, readHandler);
+        } catch (TooLongFrameException | RuntimeException e) {
+            // ShutdownChannelGroupException、通道已关闭等
+            readFailed(e);
+        }
+    }
+
+    private void expand() throws TooLongFrameException {
+        int capacity = inbound.capacity();
+        if (capacity >= decoder.maxFrameLength()) {
+            throw new TooLongFrameException(capacity, decoder.maxFrameLength());
+        }
+        ByteBuffer bigger = bufferPool.acquire(Math.min(capacity << 1, decoder.maxFrameLength()));
+        inbound.flip();
+        bigger.put(inbound);
+        bufferPool.release(inbound);
+        inbound = bigger;
+    }
+
+    private void readFailed(Throwable e) {
+        if (!closed.get() && !(e instanceof IOException)) {
+            e.printStackTrace();
+        }
+        if (inbound != null) {
+            bufferPool.release(inbound);
+            inbound = null;
+        }
+        decoder.release();
+        close();
+    }
+
+    // 读回调链：解码、回调处理器、发起下一次读
+    private final class ReadHandler implements CompletionHandler<Integer, Void> {
+        @Override
+        public void completed(Integer len, Void attachment) {
+            if (len < 0) {
+                readFailed(new IOException("closed by peer"));
+                return;
+            }
+            try {
+                inbound.flip();
+                ByteBuffer frame;
+                while (!closed.get() && (frame = decoder.decode(inbound)) != null) {
+                    handler.channelRead(AsyncConnection.this, frame);
+                }
+                inbound.compact();
+            } catch (IOException | RuntimeException e) {
+                readFailed(e);
+                return;
+            }
+            if (closed.get()) {
+                readFailed(new IOException("closed"));
+                return;
+            }
+            read();
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            readFailed(e);
+        }
+    }
+
+    // 写出 buffer（读模式），入队以后调用方不能再修改它。可以在任意线程调用
+    public void write(ByteBuffer buffer) {
+        write(buffer, null);
+    }
+
+    /**
+     * 可以在任意线程调用，按调用的先后顺序写出
+     * @param onRelease 数据写完或者连接关闭、不再需要 buffer 时调用，用于归还池化的缓冲区；
+     *                  调用时 buffer 还有剩余数据说明没有写完就被丢弃了
+     */
+    public void write(ByteBuffer buffer, Runnable onRelease) {
+        if (closed.get()) {
+            release(onRelease);
+            return;
+        }
+        writeQueue.add(new Entry(buffer, onRelease));
+        if (writing.compareAndSet(false, true)) {
+            writeNext();
+        }
+        if (closed.get()) {
+            // 入队的同时连接被关闭了，队列由这里负责清空
+            drainWriteQueue();
+        }
+    }
+
+    // 只有持有 writing 标记的线程调用
+    private void writeNext() {
+        Entry entry = writeQueue.poll();
+        if (entry == null) {
+            writing.set(false);
+            // 放下标记之前可能有别的线程入队但没抢到标记，重新检查一次
+            if (!writeQueue.isEmpty() && writing.compareAndSet(false, true)) {
+                writeNext();
+            }
+            return;
+        }
+        try {
+            channel.write(entry.buffer, entry, writeHandler);
+        } catch (RuntimeException e) {
+            writeHandler.failed(e, entry);
+        }
+    }
+
+    // 写回调链：没写完的部分继续写，写完以后归还缓冲区、写下一个
+    private final class WriteHandler implements CompletionHandler<Integer, Entry> {
+        @Override
+        public void completed(Integer written, Entry entry) {
+            if (entry.buffer.hasRemaining() && !closed.get()) {
+                try {
+                    channel.write(entry.buffer, entry, this);
+                } catch (RuntimeException e) {
+                    failed(e, entry);
+                }
+                return;
+            }
+            release(entry.onRelease);
+            writeNext();
+        }
+
+        @Override
+        public void failed(Throwable e, Entry entry) {
+            release(entry.onRelease);
+            writing.set(false);
+            close();
+        }
+    }
+
+    private void drainWriteQueue() {
+        Entry entry;
+        while ((entry = writeQueue.poll()) != null) {
+            release(entry.onRelease);
+        }
+    }
+
+    private static void release(Runnable onRelease) {
+        if (onRelease != null) {
+            onRelease.run();
+        }
+    }
+
+    // 半关闭：不再发送数据，对端会读到 EOF，但还可以继续接收
+    public void shutdownOutput() {
+        write(ByteBuffer.allocate(0), () -> {
+            try {
+                channel.shutdownOutput();
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    public AsynchronousSocketChannel channel() {
+        return channel;
+    }
+
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public Object attachment() {
+        return attachment;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * 关闭连接，可以在任意线程调用，重复调用没有影响
+     * 未完成的读写会以 AsynchronousCloseException 失败，累积缓冲区在读回调链结束时归还
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closeQuietly(channel);
+        drainWriteQueue();
+        handler.channelInactive(this);
+    }
+
+    static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // 关闭时的异常没有处理价值
+        }
+    }
+
+    private static final class Entry {
+        final ByteBuffer buffer;
+        final Runnable onRelease;
+
+        Entry(ByteBuffer buffer, Runnable onRelease) {
+            this.buffer = buffer;
+            this.onRelease = onRelease;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package test.webNIO.async;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.reactor.TransferResult;
+
+/**
+ * 异步的文件到套接字流水线：AsynchronousFileChannel 读 → AsyncConnection 写
+ *
+ * 一：和 TestWebNIO.testClient 先读文件再写 socket、两者交替阻塞相比
+ *  1. 使用多个（默认 2 个）池化缓冲区轮转：一个缓冲区在写 socket 的同时，下一个缓冲区已经在读文件
+ *  2. 文件读按顺序发起，同一时刻只有一个未完成的文件读，所以写入 socket 的顺序就是文件的顺序
+ *  3. 缓冲区写完（onRelease）以后回到空闲队列，再用来读文件的下一段，整个过程不分配新的缓冲区
+ *
+ * 二：AsynchronousFileChannel 在 Linux 上由内部线程池模拟异步，没有零拷贝，
+ *    需要零拷贝时用 reactor.Connection.sendFile(transferTo)
+ */
+public class AsyncFileSender {
+
+    private final AsynchronousFileChannel file;
+    private final AsyncConnection connection;
+    private final long size;
+    private final CompletableFuture<TransferResult> future = new CompletableFuture<>();
+    private final BufferPool pool = BufferPool.getDefault();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final ReadHandler readHandler = new ReadHandler();
+    private final long startNanos = System.nanoTime();
+
+    private long position;
+    private long written;
+    private boolean reading;
+    private boolean failed;
+
+    private AsyncFileSender(AsynchronousFileChannel file, AsyncConnection connection, int bufferSize, int buffers)
+            throws IOException {
+        this.file = file;
+        this.connection = connection;
+        this.size = file.size();
+        for (int i = 0; i < buffers; i++) {
+            free.add(pool.acquire(bufferSize));
+        }
+    }
+
+    /**
+     * 发送整个文件，返回的 future 在最后一个字节写入 socket 以后完成，文件在完成时关闭
+     */
+    public static CompletableFuture<TransferResult> send(Path path, AsyncConnection connection) {
+        return send(path, connection, 64 * 1024, 2);
+    }
+
+    public static CompletableFuture<TransferResult> send(Path path, AsyncConnection connection, int bufferSize,
+            int buffers) {
+        try {
+            AsyncFileSender sender = new AsyncFileSender(
+                    AsynchronousFileChannel.open(path, StandardOpenOption.READ), connection, bufferSize, buffers);
+            if (sender.size == 0) {
+                sender.finish();
+                sender.future.complete(new TransferResult(0, 0));
+            } else {
+                sender.next();
+            }
+            return sender.future;
+        } catch (IOException e) {
+            CompletableFuture<TransferResult> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    // 有空闲缓冲区、还有没读的数据、没有正在进行的文件读时，发起下一次文件读
+    private void next() {
+        ByteBuffer buffer;
+        synchronized (this) {
+            if (failed || reading || position >= size || free.isEmpty()) {
+                return;
+            }
+            buffer = free.poll();
+            reading = true;
+        }
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), size - position));
+        file.read(buffer, position, buffer, readHandler);
+    }
+
+    private final class ReadHandler implements CompletionHandler<Integer, ByteBuffer> {
+        @Override
+        public void completed(Integer len, ByteBuffer buffer) {
+            if (len < 0) {
+                fail(buffer, new IOException("file truncated at " + position));
+                return;
+            }
+            if (buffer.hasRemaining()) {
+                // 文件读也可能读不满，接着读这一段剩下的部分
+                file.read(buffer, position + buffer.position(), buffer, this);
+                return;
+            }
+            buffer.flip();
+            int length = buffer.remaining();
+            synchronized (AsyncFileSender.this) {
+                position += length;
+                reading = false;
+            }
+            connection.write(buffer, () -> written(buffer, length));
+            next();
+        }
+
+        @Override
+        public void failed(Throwable e, ByteBuffer buffer) {
+            fail(buffer, e);
+        }
+    }
+
+    // socket 写完一个缓冲区，或者连接关闭时缓冲区被丢弃（还有没写出的数据），后者不能计入已发送的字节数
+    private void written(ByteBuffer buffer, int length) {
+        if (buffer.hasRemaining()) {
+            fail(buffer, new IOException("connection closed, " + buffer.remaining() + " of " + length
+                    + " bytes not written"));
+            return;
+        }
+        boolean done;
+        synchronized (this) {
+            if (failed) {
+                pool.release(buffer);
+                return;
+            }
+            free.add(buffer);
+            written += length;
+            done = written >= size;
+        }
+        if (!connection.isOpen() && !done) {
+            fail(null, new IOException("connection closed after " + written + " bytes"));
+            return;
+        }
+        if (done) {
+            finish();
+            future.complete(new TransferResult(size, System.nanoTime() - startNanos));
+            return;
+        }
+        next();
+    }
+
+    private void fail(ByteBuffer buffer, Throwable e) {
+        synchronized (this) {
+            if (failed) {
+                if (buffer != null) {
+                    pool.release(buffer);
+                }
+                return;
+            }
+            if (buffer != null) {
+                free.add(buffer);
+            }
+            failed = true;
+        }
+        finish();
+        future.completeExceptionally(e);
+    }
+
+    // 关闭文件，归还空闲的缓冲区；还在写队列里的缓冲区写完以后回到 free，由 written 归还
+    private void finish() {
+        AsyncConnection.closeQuietly(file);
+        synchronized (this) {
+            ByteBuffer buffer;
+            while ((buffer = free.poll()) != null) {
+                pool.release(buffer);
+            }
+        }
+    }
+}
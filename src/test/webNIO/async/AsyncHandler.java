@@ -0,0 +1,22 @@
+package test.webNIO.async;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 异步连接的回调接口，和 reactor.ChannelHandler 一一对应
+ *
+ * 回调在 AsynchronousChannelGroup 的线程池中执行。同一条连接上的读回调一个接一个地发生（上一次读完成以后才发起下一次读），
+ * 但不保证每次都是同一个线程，所以回调之间共享的状态需要通过 attachment 保存，而不是 ThreadLocal
+ */
+public interface AsyncHandler {
+
+    default void channelActive(AsyncConnection connection) {
+    }
+
+    // 解码出完整的一帧，frame 是连接累积缓冲区的视图，只在回调期间有效，需要保留时自行拷贝
+    void channelRead(AsyncConnection connection, ByteBuffer frame);
+
+    // 对端关闭、读写出错或者主动关闭
+    default void channelInactive(AsyncConnection connection) {
+    }
+}
@@ -0,0 +1,121 @@
+package test.webNIO.async;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import test.webNIO.reactor.codec.FrameDecoder;
+import test.webNIO.reactor.codec.RawFrameDecoder;
+
+/**
+ * 基于 AsynchronousServerSocketChannel 的服务端
+ *
+ * 一：所有通道属于同一个固定大小的 AsynchronousChannelGroup，I/O 完成以后由组内的线程执行回调，
+ *    线程数默认为 CPU 核数，和 ReactorServer 的 worker 数一致，便于对比
+ *
+ * 二：accept 也是回调链：每接收一个连接就立即发起下一次 accept，然后再初始化这个连接
+ *
+ * 三：和 ReactorServer 一样，处理器的回调里不能做阻塞操作，否则会占住组内的线程
+ */
+public class AsyncServer implements Closeable {
+
+    private final InetSocketAddress address;
+    private final AsyncHandler handler;
+    private final Supplier<FrameDecoder> decoderFactory;
+    private final int threads;
+    private final AcceptHandler acceptHandler = new AcceptHandler();
+
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel serverChannel;
+
+    public AsyncServer(InetSocketAddress address, AsyncHandler handler) {
+        this(address, handler, RawFrameDecoder::new);
+    }
+
+    public AsyncServer(InetSocketAddress address, AsyncHandler handler, Supplier<FrameDecoder> decoderFactory) {
+        this(address, handler, decoderFactory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AsyncServer(InetSocketAddress address, AsyncHandler handler, Supplier<FrameDecoder> decoderFactory,
+            int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        this.address = address;
+        this.handler = handler;
+        this.decoderFactory = decoderFactory;
+        this.threads = threads;
+    }
+
+    public void start() throws IOException {
+        group = newGroup(threads, "async-worker-");
+        serverChannel = AsynchronousServerSocketChannel.open(group);
+        serverChannel.bind(address, 1024);
+        serverChannel.accept(null, acceptHandler);
+    }
+
+    // 固定大小的通道组，线程是守护线程，不会阻止 JVM 退出
+    public static AsynchronousChannelGroup newGroup(int threads, String namePrefix) throws IOException {
+        AtomicInteger index = new AtomicInteger();
+        return AsynchronousChannelGroup.withFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, namePrefix + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final class AcceptHandler implements CompletionHandler<AsynchronousSocketChannel, Void> {
+        @Override
+        public void completed(AsynchronousSocketChannel channel, Void attachment) {
+            // 先发起下一次 accept，再处理这个连接
+            serverChannel.accept(null, this);
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                AsyncConnection.closeQuietly(channel);
+                return;
+            }
+            new AsyncConnection(channel, handler, decoderFactory.get()).start();
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            if (serverChannel.isOpen()) {
+                e.printStackTrace();
+                serverChannel.accept(null, this);
+            }
+        }
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // 关闭通道组会关闭组内所有的通道
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (group != null) {
+            group.shutdownNow();
+            try {
+                group.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
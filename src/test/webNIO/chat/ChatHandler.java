@@ -0,0 +1,38 @@
+package test.webNIO.chat;
+
+import java.nio.ByteBuffer;
+
+import test.webNIO.reactor.ChannelHandler;
+import test.webNIO.reactor.Connection;
+
+/**
+ * 聊天室服务端的处理器：连接建立时加入房间，收到的每一帧转发给房间里的其他人，连接关闭时离开房间
+ * 需要配合 LengthFieldFrameDecoder(4, ...) 使用，收到的帧是去掉长度前缀的消息体
+ */
+public class ChatHandler implements ChannelHandler {
+
+    private final ChatRoom room;
+
+    public ChatHandler(ChatRoom room) {
+        this.room = room;
+    }
+
+    @Override
+    public void channelActive(Connection connection) {
+        room.join(connection);
+    }
+
+    @Override
+    public void channelRead(Connection connection, ByteBuffer frame) {
+        room.broadcast(frame, connection);
+    }
+
+    @Override
+    public void channelInactive(Connection connection) {
+        room.leave(connection);
+    }
+
+    public ChatRoom room() {
+        return room;
+    }
+}
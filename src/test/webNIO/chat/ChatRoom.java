@@ -0,0 +1,149 @@
+package test.webNIO.chat;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import test.nio.buffer.BufferPool;
+import test.nio.buffer.RefCountedBuffer;
+import test.webNIO.reactor.Connection;
+
+/**
+ * 聊天室：把一条消息广播给房间里的所有连接
+ *
+ * 一：消息只编码一次
+ *  1. 编码进一个带引用计数的池化直接缓冲区，帧格式是 4 个字节的长度前缀加 UTF-8 消息体，
+ *     客户端可以用 LengthFieldFrameDecoder(4, ...) 解码
+ *  2. 每个接收者的待写队列里放的是同一块内存的只读视图，写完或者连接关闭时释放一次引用，
+ *     最后一个接收者写完以后缓冲区归还给缓冲区池
+ *
+ * 二：慢订阅者按 SlowSubscriberPolicy 处理，判断依据是连接的高低水位（ReactorServer.writeBufferWaterMark）
+ *
+ * 所有方法都可以在任意线程调用
+ */
+public class ChatRoom {
+
+    private static final int LENGTH_FIELD_LENGTH = 4;
+
+    private final BufferPool pool = BufferPool.getDefault();
+    private final Set<Connection> members = ConcurrentHashMap.newKeySet();
+    private final SlowSubscriberPolicy policy;
+    private final ThreadLocal<CharsetEncoder> encoders = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8
+            .newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    public ChatRoom(SlowSubscriberPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void join(Connection connection) {
+        members.add(connection);
+    }
+
+    public void leave(Connection connection) {
+        members.remove(connection);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * 广播一条消息（读模式，不包含长度前缀），消息会被拷贝一次，调用返回以后 payload 可以继续使用
+     * @param exclude 不接收这条消息的连接（一般是发送者），可以为 null
+     * @return 实际排进待写队列的接收者数量
+     */
+    public int broadcast(ByteBuffer payload, Connection exclude) {
+        RefCountedBuffer message = RefCountedBuffer.allocate(pool, LENGTH_FIELD_LENGTH + payload.remaining());
+        ByteBuffer buffer = message.buffer();
+        buffer.putInt(payload.remaining());
+        buffer.put(payload.duplicate());
+        buffer.flip();
+        return fanOut(message, exclude);
+    }
+
+    // 按 UTF-8 把文本直接编码进广播缓冲区
+    public int broadcast(CharSequence text, Connection exclude) {
+        CharsetEncoder encoder = encoders.get();
+        int maxLength = (int) Math.ceil(text.length() * (double) encoder.maxBytesPerChar());
+        RefCountedBuffer message = RefCountedBuffer.allocate(pool, LENGTH_FIELD_LENGTH + maxLength);
+        ByteBuffer buffer = message.buffer();
+        buffer.position(LENGTH_FIELD_LENGTH);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(text), buffer, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(buffer);
+        }
+        if (!result.isUnderflow()) {
+            // 容量按最坏情况预留，不会溢出
+            message.release();
+            throw new IllegalStateException("encode failed: " + result);
+        }
+        buffer.putInt(0, buffer.position() - LENGTH_FIELD_LENGTH);
+        buffer.flip();
+        return fanOut(message, exclude);
+    }
+
+    private int fanOut(RefCountedBuffer message, Connection exclude) {
+        messages.increment();
+        int count = 0;
+        try {
+            for (Connection member : members) {
+                if (member == exclude) {
+                    continue;
+                }
+                if (!member.isOpen()) {
+                    members.remove(member);
+                    continue;
+                }
+                if (!member.isWritable()) {
+                    if (policy == SlowSubscriberPolicy.DROP) {
+                        dropped.increment();
+                        continue;
+                    }
+                    members.remove(member);
+                    disconnected.increment();
+                    member.close();
+                    continue;
+                }
+                message.retain();
+                member.write(message.view(), message.onRelease());
+                count++;
+            }
+        } finally {
+            // 释放创建者的那一次引用
+            message.release();
+        }
+        delivered.add(count);
+        return count;
+    }
+
+    public long messages() {
+        return messages.sum();
+    }
+
+    // 排进待写队列的消息数（每个接收者算一次）
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    // DROP 策略下因为慢而跳过的消息数（每个接收者算一次）
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    // DISCONNECT 策略下断开的连接数
+    public long disconnected() {
+        return disconnected.sum();
+    }
+}
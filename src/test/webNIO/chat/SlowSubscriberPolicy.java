@@ -0,0 +1,12 @@
+package test.webNIO.chat;
+
+/**
+ * 广播时遇到慢订阅者（待写数据已经越过高水位，isWritable() 为 false）的处理方式
+ * 不处理的话一个不读数据的客户端会让服务端为它无限制地积压消息
+ */
+public enum SlowSubscriberPolicy {
+    // 跳过这条消息，订阅者追上以后继续接收之后的消息
+    DROP,
+    // 断开连接并移出房间
+    DISCONNECT
+}
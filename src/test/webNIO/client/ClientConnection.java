@@ -0,0 +1,74 @@
+package test.webNIO.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.reactor.Connection;
+
+/**
+ * 连接池中的一条连接，作为 Connection 的附件保存
+ *
+ * 请求按分派的顺序写出，每个请求分配一个本连接内递增的关联 ID，
+ * 响应到达时按关联 ID 找到在途的请求，所以不要求服务端按顺序响应
+ *
+ * 只在端点所属的事件循环线程中访问
+ */
+final class ClientConnection {
+
+    final Endpoint endpoint;
+    final Connection connection;
+    // 关联 ID → 已经写出、等待响应的请求
+    private final Map<Long, PendingCall> inFlight = new HashMap<>();
+    private long nextCorrelationId;
+
+    ClientConnection(Endpoint endpoint, Connection connection) {
+        this.endpoint = endpoint;
+        this.connection = connection;
+    }
+
+    void dispatch(PendingCall call) {
+        long correlationId = nextCorrelationId++;
+        RpcFrame.correlationId(call.frame, correlationId);
+        call.connection = this;
+        call.correlationId = correlationId;
+        inFlight.put(correlationId, call);
+        // 写完以后由待写队列归还请求帧，不需要等响应
+        call.written();
+        ByteBuffer frame = call.frame;
+        connection.write(frame, () -> BufferPool.getDefault().release(frame));
+    }
+
+    // frame 是解码器切出的视图，只在回调期间有效，所以消息体拷贝一份交给调用方
+    void onResponse(ByteBuffer frame) {
+        PendingCall call = inFlight.remove(RpcFrame.correlationId(frame));
+        if (call == null) {
+            // 已经超时的请求，响应迟到了
+            return;
+        }
+        ByteBuffer body = RpcFrame.body(frame);
+        ByteBuffer response = ByteBuffer.allocate(body.remaining());
+        response.put(body).flip();
+        call.complete(response);
+        endpoint.capacityAvailable();
+    }
+
+    // 请求超时，不再等待它的响应
+    void remove(PendingCall call) {
+        inFlight.remove(call.correlationId);
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    // 连接关闭，所有在途的请求都失败
+    void failAll(Throwable cause) {
+        for (PendingCall call : new ArrayList<>(inFlight.values())) {
+            call.fail(cause);
+        }
+        inFlight.clear();
+    }
+}
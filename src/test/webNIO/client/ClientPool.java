@@ -0,0 +1,239 @@
+package test.webNIO.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.reactor.ChannelHandler;
+import test.webNIO.reactor.Connection;
+import test.webNIO.reactor.SubReactor;
+
+/**
+ * 非阻塞的客户端连接池，帧格式见 RpcFrame
+ *
+ * 一：和 testNonBlockingClient 相比
+ *  1. 连接通过 SubReactor.connect 非阻塞地建立（connect + OP_CONNECT + finishConnect），调用线程不等待握手
+ *  2. 每个服务端地址保持有上限的若干条连接，连接建立以后一直复用，不是每次调用新建一条
+ *  3. 一条连接上同时可以有很多个请求在途（流水线），不必等上一个响应回来再发下一个，
+ *     响应按关联 ID 匹配到请求，服务端可以乱序响应
+ *
+ * 二：线程模型
+ *  1. 每个服务端地址固定由一个事件循环负责，按轮询分配；这个地址的连接、在途请求和等待队列都只在该线程中访问
+ *  2. call() 可以在任意线程调用：在调用线程中把请求编码进池化的缓冲区，再作为任务投递给事件循环
+ *  3. 返回的 future 在事件循环线程中完成，thenApply 等回调也会在事件循环线程中执行，
+ *     回调里不能阻塞，需要阻塞的后续处理用 thenApplyAsync
+ *
+ * 三：请求超时（默认 10 秒）从提交开始计算，包括在等待队列中的时间，挂在事件循环的时间轮上
+ *
+ * 配置方法需要在 start() 之前调用
+ */
+public class ClientPool implements Closeable {
+
+    private final SubReactor[] loops;
+    private final ConcurrentHashMap<InetSocketAddress, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final BufferPool bufferPool = BufferPool.getDefault();
+
+    private int maxConnectionsPerEndpoint = 4;
+    private int maxInFlightPerConnection = 1024;
+    private int maxWaitersPerEndpoint = 64 * 1024;
+    private int maxFrameLength = 64 * 1024;
+    private long connectTimeoutNanos = TimeUnit.SECONDS.toNanos(3);
+    private long requestTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    // 一个事件循环线程，对大量小请求通常已经足够
+    public ClientPool() throws IOException {
+        this(1);
+    }
+
+    public ClientPool(int loopCount) throws IOException {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("loopCount: " + loopCount);
+        }
+        ChannelHandler handler = new Handler();
+        this.loops = new SubReactor[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new SubReactor(handler, "client-loop-" + i);
+        }
+    }
+
+    // 每个服务端地址最多保持多少条连接
+    public ClientPool maxConnectionsPerEndpoint(int maxConnectionsPerEndpoint) {
+        if (maxConnectionsPerEndpoint <= 0) {
+            throw new IllegalArgumentException("maxConnectionsPerEndpoint: " + maxConnectionsPerEndpoint);
+        }
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+        return this;
+    }
+
+    // 每条连接最多同时有多少个请求在途，超过以后请求在端点的等待队列中排队
+    public ClientPool maxInFlightPerConnection(int maxInFlightPerConnection) {
+        if (maxInFlightPerConnection <= 0) {
+            throw new IllegalArgumentException("maxInFlightPerConnection: " + maxInFlightPerConnection);
+        }
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        return this;
+    }
+
+    // 每个服务端地址的等待队列长度，队列满了以后新请求以 RejectedExecutionException 失败
+    public ClientPool maxWaitersPerEndpoint(int maxWaitersPerEndpoint) {
+        if (maxWaitersPerEndpoint < 0) {
+            throw new IllegalArgumentException("maxWaitersPerEndpoint: " + maxWaitersPerEndpoint);
+        }
+        this.maxWaitersPerEndpoint = maxWaitersPerEndpoint;
+        return this;
+    }
+
+    // 请求帧和响应帧的最大长度（包括帧头）
+    public ClientPool maxFrameLength(int maxFrameLength) {
+        if (maxFrameLength <= RpcFrame.HEADER_SIZE) {
+            throw new IllegalArgumentException("maxFrameLength: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+        return this;
+    }
+
+    // 0 表示不限制
+    public ClientPool connectTimeout(long timeout, TimeUnit unit) {
+        this.connectTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    // 0 表示不限制
+    public ClientPool requestTimeout(long timeout, TimeUnit unit) {
+        this.requestTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    public ClientPool start() {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "client-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        started = true;
+        return this;
+    }
+
+    /**
+     * 向 endpoint 发送一个请求，可以在任意线程调用
+     * @param request 读模式，调用返回时已经被读完，调用方可以立即复用
+     * @return 响应的消息体（堆缓冲区，读模式）；连接建立失败、连接关闭、超时或者排队的请求太多时以异常完成，
+     *         和 close() 同时调用时以 ClosedChannelException 完成
+     * @throws IllegalStateException 还没有 start() 或者已经 close()
+     */
+    public CompletableFuture<ByteBuffer> call(InetSocketAddress endpoint, ByteBuffer request) {
+        if (!started || closed) {
+            throw new IllegalStateException(closed ? "client pool closed" : "client pool not started");
+        }
+        if (RpcFrame.HEADER_SIZE + request.remaining() > maxFrameLength) {
+            throw new IllegalArgumentException("request too large: " + request.remaining());
+        }
+        // 关联 ID 在分派到连接时才填入
+        PendingCall call = new PendingCall(RpcFrame.encode(bufferPool, 0, request));
+        // 检查 closed 和投递任务相对 close() 是原子的：投递成功的任务一定排在 close() 投递的关闭任务前面，
+        // 否则任务可能投递到已经停止的事件循环上，future 永远不会完成
+        synchronized (this) {
+            if (closed) {
+                call.fail(new ClosedChannelException());
+                return call.future;
+            }
+            Endpoint target = endpoints.computeIfAbsent(endpoint,
+                    address -> new Endpoint(this, address, loops[Math.floorMod(next.getAndIncrement(), loops.length)]));
+            target.reactor.execute(() -> target.submit(call));
+        }
+        return call.future;
+    }
+
+    // endpoint 当前已经建立的连接数，可以在任意线程调用
+    public int connectionCount(InetSocketAddress endpoint) {
+        Endpoint target = endpoints.get(endpoint);
+        return target == null ? 0 : target.connectionCount();
+    }
+
+    int maxConnectionsPerEndpoint() {
+        return maxConnectionsPerEndpoint;
+    }
+
+    int maxInFlightPerConnection() {
+        return maxInFlightPerConnection;
+    }
+
+    int maxWaitersPerEndpoint() {
+        return maxWaitersPerEndpoint;
+    }
+
+    int maxFrameLength() {
+        return maxFrameLength;
+    }
+
+    long connectTimeoutNanos() {
+        return connectTimeoutNanos;
+    }
+
+    long requestTimeoutNanos() {
+        return requestTimeoutNanos;
+    }
+
+    /**
+     * 关闭所有连接，等待中和在途的请求都以异常完成
+     * 先在每个事件循环中关闭它负责的端点并等待完成，再停止事件循环，否则投递的关闭任务可能来不及执行
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (started) {
+            CountDownLatch latch = new CountDownLatch(endpoints.size());
+            for (Endpoint endpoint : endpoints.values()) {
+                endpoint.reactor.execute(() -> {
+                    endpoint.close();
+                    latch.countDown();
+                });
+            }
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SubReactor loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    // 所有连接共用的处理器，把事件转给连接的附件
+    private static final class Handler implements ChannelHandler {
+
+        @Override
+        public void channelRead(Connection connection, ByteBuffer frame) {
+            ClientConnection clientConnection = (ClientConnection) connection.attachment();
+            if (clientConnection != null) {
+                clientConnection.onResponse(frame);
+            }
+        }
+
+        @Override
+        public void channelInactive(Connection connection) {
+            ClientConnection clientConnection = (ClientConnection) connection.attachment();
+            if (clientConnection != null) {
+                clientConnection.endpoint.connectionClosed(clientConnection);
+            }
+        }
+    }
+}
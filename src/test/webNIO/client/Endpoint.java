@@ -0,0 +1,162 @@
+package test.webNIO.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import test.webNIO.reactor.SubReactor;
+
+/**
+ * 同一个服务端地址的连接池，固定由一个事件循环负责，所有状态只在这个事件循环线程中访问，不需要加锁
+ *
+ * 一：分派：选在途请求最少的连接；它的在途请求数达到上限时请求进入等待队列，有连接空出名额或者新连接建立时再分派
+ *
+ * 二：扩容：最空闲的连接上也有请求在途，并且连接数（包括正在建立的）没有达到上限时，再建立一条连接。
+ *    当前请求不等新连接，仍然流水线地发到已有的连接上，新连接建立以后分担后续的请求
+ *
+ * 三：连接关闭时它的在途请求全部失败，不会自动重发（请求不一定是幂等的）；
+ *    没有可用连接时等待队列中的请求等待重新建立连接，连接建立失败时全部失败
+ */
+final class Endpoint {
+
+    private final ClientPool pool;
+    private final InetSocketAddress address;
+    final SubReactor reactor;
+
+    private final List<ClientConnection> connections = new ArrayList<>();
+    private final ArrayDeque<PendingCall> waiters = new ArrayDeque<>();
+    private int connecting;
+    private boolean closed;
+    // 给其他线程查看
+    private volatile int connectionCount;
+
+    Endpoint(ClientPool pool, InetSocketAddress address, SubReactor reactor) {
+        this.pool = pool;
+        this.address = address;
+        this.reactor = reactor;
+    }
+
+    void submit(PendingCall call) {
+        if (closed) {
+            call.fail(new ClosedChannelException());
+            return;
+        }
+        if (pool.requestTimeoutNanos() > 0) {
+            call.timeout = reactor.schedule(() -> timeout(call), pool.requestTimeoutNanos(), TimeUnit.NANOSECONDS);
+        }
+        ClientConnection target = leastLoaded();
+        if ((target == null || target.inFlight() > 0)
+                && connections.size() + connecting < pool.maxConnectionsPerEndpoint()) {
+            connect();
+        }
+        if (target != null && target.inFlight() < pool.maxInFlightPerConnection()) {
+            target.dispatch(call);
+            return;
+        }
+        if (waiters.size() >= pool.maxWaitersPerEndpoint()) {
+            call.fail(new RejectedExecutionException("too many pending requests to " + address));
+            return;
+        }
+        waiters.add(call);
+    }
+
+    private ClientConnection leastLoaded() {
+        ClientConnection best = null;
+        for (ClientConnection connection : connections) {
+            if (best == null || connection.inFlight() < best.inFlight()) {
+                best = connection;
+            }
+        }
+        return best;
+    }
+
+    private void connect() {
+        connecting++;
+        reactor.connect(address, RpcFrame.decoder(pool.maxFrameLength()), pool.connectTimeoutNanos(),
+                TimeUnit.NANOSECONDS).whenComplete((connection, cause) -> {
+                    // 连接的结果在事件循环线程中完成，这里也在事件循环线程中执行
+                    connecting--;
+                    if (cause != null) {
+                        connectFailed(cause);
+                        return;
+                    }
+                    if (closed) {
+                        connection.close();
+                        return;
+                    }
+                    ClientConnection clientConnection = new ClientConnection(this, connection);
+                    connection.attach(clientConnection);
+                    connections.add(clientConnection);
+                    connectionCount = connections.size();
+                    capacityAvailable();
+                });
+    }
+
+    private void connectFailed(Throwable cause) {
+        // 还有可用的连接（或者正在建立）时，等待中的请求交给它们
+        if (!connections.isEmpty() || connecting > 0) {
+            return;
+        }
+        PendingCall call;
+        while ((call = waiters.poll()) != null) {
+            call.fail(cause);
+        }
+    }
+
+    // 有连接空出了名额或者新连接建立，分派等待中的请求
+    void capacityAvailable() {
+        while (!waiters.isEmpty()) {
+            ClientConnection target = leastLoaded();
+            if (target == null || target.inFlight() >= pool.maxInFlightPerConnection()) {
+                return;
+            }
+            target.dispatch(waiters.poll());
+        }
+    }
+
+    private void timeout(PendingCall call) {
+        // 已经触发的超时不需要再取消
+        call.timeout = null;
+        if (call.connection != null) {
+            call.connection.remove(call);
+        } else {
+            waiters.remove(call);
+        }
+        call.fail(new TimeoutException("request to " + address + " timed out"));
+        if (call.connection != null) {
+            // 在途的请求超时也空出了名额（迟到的响应按关联 ID 丢弃），对端不再响应时等待中的请求不会一直排队
+            capacityAvailable();
+        }
+    }
+
+    // 连接关闭（对端关闭、读写出错或者连接池关闭）时由处理器回调
+    void connectionClosed(ClientConnection connection) {
+        connections.remove(connection);
+        connectionCount = connections.size();
+        connection.failAll(new IOException("connection to " + address + " closed"));
+        if (!closed && !waiters.isEmpty() && connections.isEmpty() && connecting == 0) {
+            connect();
+        }
+    }
+
+    void close() {
+        closed = true;
+        PendingCall call;
+        while ((call = waiters.poll()) != null) {
+            call.fail(new ClosedChannelException());
+        }
+        for (ClientConnection connection : new ArrayList<>(connections)) {
+            connection.connection.close();
+        }
+    }
+
+    int connectionCount() {
+        return connectionCount;
+    }
+}
@@ -0,0 +1,53 @@
+package test.webNIO.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.reactor.HashedWheelTimer;
+
+/**
+ * 一次调用：已经编码好的请求帧（关联 ID 在分派到连接时才填入）和等待响应的 future
+ * 只在端点所属的事件循环线程中访问
+ */
+final class PendingCall {
+
+    final ByteBuffer frame;
+    final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+    // 请求超时，不限制时为 null
+    HashedWheelTimer.Timeout timeout;
+    // 分派到的连接和关联 ID，还在端点的等待队列中时 connection 为 null
+    ClientConnection connection;
+    long correlationId;
+    // 请求帧已经交给连接的待写队列，由待写队列负责归还
+    private boolean written;
+
+    PendingCall(ByteBuffer frame) {
+        this.frame = frame;
+    }
+
+    void written() {
+        written = true;
+    }
+
+    void complete(ByteBuffer response) {
+        cancelTimeout();
+        future.complete(response);
+    }
+
+    void fail(Throwable cause) {
+        cancelTimeout();
+        if (!written) {
+            written = true;
+            BufferPool.getDefault().release(frame);
+        }
+        future.completeExceptionally(cause);
+    }
+
+    private void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package test.webNIO.client;
+
+import java.nio.ByteBuffer;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.reactor.codec.LengthFieldFrameDecoder;
+
+/**
+ * 客户端连接池使用的帧格式，请求和响应相同
+ *
+ *  +--------+----------------+----------------------+
+ *  | length | correlation id |  body（length - 8）   |
+ *  +--------+----------------+----------------------+
+ *     4 字节       8 字节
+ *
+ * 一条连接上可以同时有很多个请求在途，服务端把请求的关联 ID 原样写进响应，
+ * 客户端按关联 ID 找到对应的请求，所以服务端可以乱序响应
+ *
+ * 服务端用 decoder() 分帧，收到的帧去掉了长度字段，以关联 ID 开头
+ */
+public final class RpcFrame {
+
+    public static final int LENGTH_FIELD_LENGTH = 4;
+    public static final int HEADER_SIZE = LENGTH_FIELD_LENGTH + 8;
+
+    private RpcFrame() {
+    }
+
+    public static LengthFieldFrameDecoder decoder(int maxFrameLength) {
+        return new LengthFieldFrameDecoder(LENGTH_FIELD_LENGTH, maxFrameLength);
+    }
+
+    /**
+     * 从池中申请缓冲区，编码完整的一帧（读模式），写完以后由调用方归还缓冲区
+     * body 被读完，position 等于 limit
+     */
+    public static ByteBuffer encode(BufferPool pool, long correlationId, ByteBuffer body) {
+        int length = body.remaining();
+        ByteBuffer frame = pool.acquire(HEADER_SIZE + length);
+        frame.putInt(8 + length).putLong(correlationId).put(body);
+        frame.flip();
+        return frame;
+    }
+
+    // 改写已经编码好的帧中的关联 ID（绝对位置，不影响 position）
+    static void correlationId(ByteBuffer frame, long correlationId) {
+        frame.putLong(frame.position() + LENGTH_FIELD_LENGTH, correlationId);
+    }
+
+    // decoder() 解出的帧中的关联 ID
+    public static long correlationId(ByteBuffer frame) {
+        return frame.getLong(frame.position());
+    }
+
+    // decoder() 解出的帧中的消息体，是 frame 的视图
+    public static ByteBuffer body(ByteBuffer frame) {
+        ByteBuffer body = frame.duplicate();
+        body.position(frame.position() + 8);
+        return body.slice();
+    }
+}
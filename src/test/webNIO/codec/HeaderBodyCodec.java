@@ -0,0 +1,129 @@
+package test.webNIO.codec;
+
+import java.nio.ByteBuffer;
+
+import test.webNIO.reactor.Connection;
+import test.webNIO.reactor.codec.FrameDecoder;
+import test.webNIO.reactor.codec.TooLongFrameException;
+
+/**
+ * 消息头 + 消息体协议：消息头长度固定，其中某个位置是消息体长度字段
+ *
+ *  +---------------------------------------+---------------------+
+ *  |  header（headerSize 个字节）           |  body（length 个字节）|
+ *  |  ... | length（lengthFieldLength）| ... |                     |
+ *  +---------------------------------------+---------------------+
+ *
+ * 一：和 TestChannel4 把数据分散读进随意的 100 + 1024 字节缓冲区相比，分界线由协议决定：
+ *  1. 写：消息头和消息体是独立的缓冲区，通过一次聚集写 write(ByteBuffer[]) 发出，不需要先拷贝拼接
+ *  2. 读：ScatteringMessageReader 把消息头读进固定大小的缓冲区，再按长度字段借一个正好大小的池化缓冲区读消息体
+ *  3. 在 ReactorServer 中使用时，decoder() 返回对应的 FrameDecoder，交给处理器的帧是“消息头 + 消息体”
+ *
+ * 长度字段是大端无符号整数，只表示消息体的长度，不包括消息头。这个类是无状态的，可以共享
+ */
+public class HeaderBodyCodec {
+
+    private final int headerSize;
+    private final int lengthFieldOffset;
+    private final int lengthFieldLength;
+    private final int maxBodyLength;
+
+    public HeaderBodyCodec(int headerSize, int lengthFieldOffset, int lengthFieldLength, int maxBodyLength) {
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 4) {
+            throw new IllegalArgumentException("lengthFieldLength must be 1, 2 or 4: " + lengthFieldLength);
+        }
+        if (lengthFieldOffset < 0 || lengthFieldOffset + lengthFieldLength > headerSize || maxBodyLength < 0) {
+            throw new IllegalArgumentException("headerSize: " + headerSize + ", lengthFieldOffset: "
+                    + lengthFieldOffset + ", maxBodyLength: " + maxBodyLength);
+        }
+        this.headerSize = headerSize;
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.maxBodyLength = maxBodyLength;
+    }
+
+    public int headerSize() {
+        return headerSize;
+    }
+
+    public int maxBodyLength() {
+        return maxBodyLength;
+    }
+
+    // 从 headerStart 开始的消息头中读取消息体长度（绝对位置，不移动 position）
+    public int bodyLength(ByteBuffer buffer, int headerStart) throws TooLongFrameException {
+        int index = headerStart + lengthFieldOffset;
+        long length;
+        switch (lengthFieldLength) {
+        case 1:
+            length = buffer.get(index) & 0xFF;
+            break;
+        case 2:
+            length = buffer.getShort(index) & 0xFFFF;
+            break;
+        default:
+            length = buffer.getInt(index) & 0xFFFFFFFFL;
+        }
+        if (length > maxBodyLength) {
+            throw new TooLongFrameException(length, maxBodyLength);
+        }
+        return (int) length;
+    }
+
+    /**
+     * 把消息体的总长度写进消息头的长度字段（绝对位置，从 header 的 position 开始算），
+     * 消息头的其他字段由调用方填写
+     */
+    public void setBodyLength(ByteBuffer header, ByteBuffer... body) {
+        long length = 0;
+        for (ByteBuffer buffer : body) {
+            length += buffer.remaining();
+        }
+        if (length > maxBodyLength) {
+            throw new IllegalArgumentException("body too large: " + length);
+        }
+        int index = header.position() + lengthFieldOffset;
+        switch (lengthFieldLength) {
+        case 1:
+            header.put(index, (byte) length);
+            break;
+        case 2:
+            header.putShort(index, (short) length);
+            break;
+        default:
+            header.putInt(index, (int) length);
+        }
+    }
+
+    /**
+     * 填好长度字段，把消息头和消息体作为相邻的缓冲区交给连接，一次聚集写发出
+     * @param header    读模式，正好 headerSize 个字节
+     * @param onRelease 全部写完以后调用一次，用于归还池化的缓冲区
+     */
+    public void write(Connection connection, ByteBuffer header, ByteBuffer body, Runnable onRelease) {
+        setBodyLength(header, body);
+        connection.write(new ByteBuffer[] { header, body }, onRelease);
+    }
+
+    // ReactorServer 使用的帧解码器，帧包含消息头和消息体
+    public FrameDecoder decoder() {
+        return new FrameDecoder() {
+            @Override
+            public ByteBuffer decode(ByteBuffer in) throws TooLongFrameException {
+                if (in.remaining() < headerSize) {
+                    return null;
+                }
+                int frameLength = headerSize + bodyLength(in, in.position());
+                if (in.remaining() < frameLength) {
+                    return null;
+                }
+                return FrameDecoder.readSlice(in, frameLength);
+            }
+
+            @Override
+            public int maxFrameLength() {
+                return headerSize + maxBodyLength;
+            }
+        };
+    }
+}
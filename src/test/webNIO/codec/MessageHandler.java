@@ -0,0 +1,15 @@
+package test.webNIO.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ScatteringMessageReader 读出一条完整消息时的回调
+ */
+@FunctionalInterface
+public interface MessageHandler {
+
+    /**
+     * header 和 body 都处于读模式，只在回调期间有效：回调返回以后消息头缓冲区会被复用，消息体缓冲区会还给缓冲区池
+     */
+    void onMessage(ByteBuffer header, ByteBuffer body);
+}
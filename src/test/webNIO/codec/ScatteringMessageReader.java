@@ -0,0 +1,128 @@
+package test.webNIO.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+
+import test.nio.buffer.BufferPool;
+
+/**
+ * 按 HeaderBodyCodec 的格式分散读取消息
+ *
+ * 一：读取过程
+ *  1. 先读消息头，消息头缓冲区正好 headerSize 个字节，读满以后解析长度字段
+ *  2. 从缓冲区池借一个容量不小于消息体长度的直接缓冲区，limit 设为消息体长度
+ *  3. 分散读 read({body, nextHeader})：消息体读满以后，多出来的数据直接落进下一条消息的消息头，
+ *     背靠背的小消息不需要为每个消息头单独发起一次系统调用
+ *
+ * 二：数据不经过累积缓冲区，消息体直接读进最终交给处理器的缓冲区，没有拼接和拷贝
+ *
+ * 不是线程安全的，每条连接一个实例
+ */
+public class ScatteringMessageReader {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+    private final HeaderBodyCodec codec;
+    private final ScatteringByteChannel channel;
+    private final MessageHandler handler;
+    private final BufferPool pool = BufferPool.getDefault();
+    private final ByteBuffer[] scatter = new ByteBuffer[2];
+
+    // 两个消息头缓冲区轮换：一个属于当前消息，另一个接收分散读溢出的下一条消息头
+    private ByteBuffer header;
+    private ByteBuffer nextHeader;
+    private ByteBuffer body;
+
+    public ScatteringMessageReader(HeaderBodyCodec codec, ScatteringByteChannel channel, MessageHandler handler) {
+        this.codec = codec;
+        this.channel = channel;
+        this.handler = handler;
+        this.header = ByteBuffer.allocateDirect(codec.headerSize());
+        this.nextHeader = ByteBuffer.allocateDirect(codec.headerSize());
+    }
+
+    /**
+     * 读取并分发消息，返回本次分发的消息数（可能为 0），对端关闭时返回 -1
+     * 分发出消息以后不再发起新的读，只处理已经读进来的数据，所以阻塞通道上也不会为了下一条消息而阻塞；
+     * 非阻塞通道在选择器的读就绪事件中调用，数据没读完时选择器会再次返回读就绪
+     */
+    public int read() throws IOException {
+        int messages = 0;
+        while (true) {
+            if (body == null) {
+                if (header.hasRemaining()) {
+                    if (messages > 0) {
+                        return messages;
+                    }
+                    long n = channel.read(header);
+                    if (n < 0) {
+                        return eof(messages);
+                    }
+                    if (header.hasRemaining()) {
+                        return messages;
+                    }
+                }
+                startBody();
+            }
+            if (body.hasRemaining()) {
+                if (messages > 0) {
+                    return messages;
+                }
+                scatter[0] = body;
+                scatter[1] = nextHeader;
+                long n = channel.read(scatter);
+                if (n < 0) {
+                    return eof(messages);
+                }
+                if (body.hasRemaining()) {
+                    return messages;
+                }
+            }
+            deliver();
+            messages++;
+        }
+    }
+
+    // 消息头已经读满，按长度字段准备消息体缓冲区
+    private void startBody() throws IOException {
+        int length = codec.bodyLength(header, 0);
+        if (length == 0) {
+            body = EMPTY.duplicate();
+        } else {
+            body = pool.acquire(length);
+            body.limit(length);
+        }
+    }
+
+    private void deliver() {
+        header.flip();
+        body.flip();
+        try {
+            handler.onMessage(header, body);
+        } finally {
+            if (body.capacity() > 0) {
+                pool.release(body);
+            }
+            body = null;
+            // 分散读可能已经把下一条消息头的一部分读进了 nextHeader，交换以后继续
+            ByteBuffer current = header;
+            header = nextHeader;
+            nextHeader = current;
+            nextHeader.clear();
+        }
+    }
+
+    private int eof(int messages) {
+        close();
+        return messages > 0 ? messages : -1;
+    }
+
+    // 归还正在读取的消息体缓冲区，不关闭通道
+    public void close() {
+        if (body != null && body.capacity() > 0) {
+            pool.release(body);
+        }
+        body = null;
+    }
+}
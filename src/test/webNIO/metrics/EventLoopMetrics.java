@@ -0,0 +1,90 @@
+package test.webNIO.metrics;
+
+/**
+ * 一个选择器事件循环的指标
+ *
+ * 一：每次唤醒记录
+ *  1. select 阻塞的时间：一直很短说明事件循环几乎没有空闲
+ *  2. 处理就绪事件和任务的时间（busy）：累计 busy / (busy + select) 就是事件循环的繁忙程度，接近 1 表示已经饱和
+ *  3. 每次唤醒的就绪键数量
+ *
+ * 二：处理器回调的耗时、读写字节数、连接数、待写队列的总字节数、异常次数和最近一次异常
+ *
+ * 只允许事件循环线程写入，其他线程通过 snapshot() 读取；计数器是单写者的 volatile 字段，不需要 CAS
+ */
+public class EventLoopMetrics {
+
+    private final String name;
+    private final Histogram selectNanos = new Histogram();
+    private final Histogram busyNanos = new Histogram();
+    private final Histogram readyKeys = new Histogram();
+    private final Histogram handlerNanos = new Histogram();
+
+    private volatile long wakeups;
+    private volatile long tasks;
+    private volatile long totalSelectNanos;
+    private volatile long totalBusyNanos;
+    private volatile long connections;
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    private volatile long pendingWriteBytes;
+    private volatile long errors;
+    private volatile String lastError;
+
+    public EventLoopMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 一轮循环结束时调用
+     * @param selectNanos 阻塞在 select() 中的时间
+     * @param busyNanos   处理就绪事件和任务的时间
+     */
+    public void wakeup(long selectNanos, long busyNanos, int readyKeys, int tasks) {
+        this.selectNanos.record(selectNanos);
+        this.busyNanos.record(busyNanos);
+        this.readyKeys.record(readyKeys);
+        totalSelectNanos += selectNanos;
+        totalBusyNanos += busyNanos;
+        this.tasks += tasks;
+        wakeups++;
+    }
+
+    public void handlerTime(long nanos) {
+        handlerNanos.record(nanos);
+    }
+
+    public void bytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten += bytes;
+    }
+
+    // 待写字节数的变化量
+    public void pendingWriteBytes(long delta) {
+        pendingWriteBytes += delta;
+    }
+
+    public void connectionOpened() {
+        connections++;
+    }
+
+    public void connectionClosed() {
+        connections--;
+    }
+
+    public void error(Throwable e) {
+        errors++;
+        lastError = e.toString();
+    }
+
+    public EventLoopSnapshot snapshot() {
+        long select = totalSelectNanos;
+        long busy = totalBusyNanos;
+        return new EventLoopSnapshot(name, wakeups, tasks, connections, bytesRead, bytesWritten, pendingWriteBytes,
+                errors, lastError, select + busy == 0 ? 0 : (double) busy / (select + busy), selectNanos.snapshot(),
+                busyNanos.snapshot(), readyKeys.snapshot(), handlerNanos.snapshot());
+    }
+}
@@ -0,0 +1,51 @@
+package test.webNIO.metrics;
+
+/**
+ * 事件循环指标的快照，不可变，耗时类的直方图单位是纳秒
+ */
+public class EventLoopSnapshot {
+
+    public final String name;
+    public final long wakeups;
+    public final long tasks;
+    public final long connections;
+    public final long bytesRead;
+    public final long bytesWritten;
+    public final long pendingWriteBytes;
+    public final long errors;
+    public final String lastError;
+    // 从启动开始累计的繁忙比例，0 到 1
+    public final double busyRatio;
+    public final HistogramSnapshot select;
+    public final HistogramSnapshot busy;
+    public final HistogramSnapshot readyKeys;
+    public final HistogramSnapshot handler;
+
+    EventLoopSnapshot(String name, long wakeups, long tasks, long connections, long bytesRead, long bytesWritten,
+            long pendingWriteBytes, long errors, String lastError, double busyRatio, HistogramSnapshot select,
+            HistogramSnapshot busy, HistogramSnapshot readyKeys, HistogramSnapshot handler) {
+        this.name = name;
+        this.wakeups = wakeups;
+        this.tasks = tasks;
+        this.connections = connections;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.pendingWriteBytes = pendingWriteBytes;
+        this.errors = errors;
+        this.lastError = lastError;
+        this.busyRatio = busyRatio;
+        this.select = select;
+        this.busy = busy;
+        this.readyKeys = readyKeys;
+        this.handler = handler;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s：连接 %d，唤醒 %d 次，任务 %d，读 %d 字节，写 %d 字节，待写 %d 字节，繁忙 %.1f%%，异常 %d%s%n"
+                + "  select   %s%n  busy     %s%n  就绪键   %s%n  处理器   %s", name, connections, wakeups, tasks,
+                bytesRead, bytesWritten, pendingWriteBytes, busyRatio * 100, errors,
+                lastError == null ? "" : "（" + lastError + "）", select.toMicros(), busy.toMicros(), readyKeys,
+                handler.toMicros());
+    }
+}
@@ -0,0 +1,75 @@
+package test.webNIO.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数线性分桶的直方图（HdrHistogram 的简化版），用于记录耗时等非负整数
+ *
+ * 一：分桶
+ *  1. 小于 16 的值每个值一个桶
+ *  2. 之后每个 2 的幂区间 [2^e, 2^(e+1)) 均分成 16 个桶，相对误差不超过 1/16（约 6%）
+ *  3. 整个非负 long 范围只需要 960 个桶，记录一次就是一次位运算加一次数组自增，不分配对象
+ *
+ * 二：只允许一个线程写入（事件循环线程），其他线程可以随时调用 snapshot() 读取，
+ *    单线程写入不需要 CAS，只用 lazySet 发布新值
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // 非负 long 的最高位最多是第 62 位
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long sum;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = index(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        // count 最后写，读到 count 的线程一定能读到之前的桶计数
+        count++;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    // 桶能表示的最大值
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    // 各个字段不是原子地一起读取的，快照和最新的记录之间可能差几条，对监控来说足够
+    public HistogramSnapshot snapshot() {
+        long total = count;
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(copy, total, sum, total == 0 ? 0 : min, max);
+    }
+}
@@ -0,0 +1,57 @@
+package test.webNIO.metrics;
+
+/**
+ * 直方图在某一时刻的快照，不可变
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+    public final long count;
+    public final long sum;
+    public final long min;
+    public final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long min, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // 分位数，percentile 取 0 到 1，返回所在桶的上界（不超过最大值）
+    public long percentile(double percentile) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, target)) {
+                return Math.min(Histogram.upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    // 按纳秒记录的直方图以微秒显示
+    public String toMicros() {
+        return String.format("count=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", count,
+                percentile(0.5) / 1e3, percentile(0.99) / 1e3, percentile(0.999) / 1e3, max / 1e3);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", count, mean(), percentile(0.5),
+                percentile(0.99), max);
+    }
+}
@@ -0,0 +1,115 @@
+package test.webNIO.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ReactorMetricsMXBean 的实现，每次读取属性时从 snapshot 拉取一次快照
+ */
+public class ReactorMetrics implements ReactorMetricsMXBean {
+
+    private final Supplier<ServerSnapshot> snapshot;
+
+    public ReactorMetrics(Supplier<ServerSnapshot> snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * 注册到平台 MBeanServer，对象名为 test.webNIO:type=ReactorServer,name=&lt;name&gt;
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("test.webNIO:type=ReactorServer,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return snapshot.get().accepted;
+    }
+
+    @Override
+    public double getAcceptRate() {
+        return snapshot.get().acceptRate();
+    }
+
+    @Override
+    public long getConnections() {
+        return snapshot.get().connections();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return snapshot.get().bytesRead();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return snapshot.get().bytesWritten();
+    }
+
+    @Override
+    public long getPendingWriteBytes() {
+        return snapshot.get().pendingWriteBytes();
+    }
+
+    @Override
+    public long getErrors() {
+        return snapshot.get().errors();
+    }
+
+    @Override
+    public double getMaxBusyRatio() {
+        return snapshot.get().maxBusyRatio();
+    }
+
+    @Override
+    public double getSelectP99Micros() {
+        return maxMicros(loop -> loop.select.percentile(0.99));
+    }
+
+    @Override
+    public double getHandlerP99Micros() {
+        return maxMicros(loop -> loop.handler.percentile(0.99));
+    }
+
+    @Override
+    public double getHandlerMaxMicros() {
+        return maxMicros(loop -> loop.handler.max);
+    }
+
+    @Override
+    public long getBufferPoolOutstanding() {
+        return snapshot.get().bufferPool.outstanding();
+    }
+
+    @Override
+    public long getBufferPoolAllocatedBytes() {
+        return snapshot.get().bufferPool.allocatedBytes;
+    }
+
+    @Override
+    public String[] getEventLoops() {
+        return snapshot.get().loops.stream().map(EventLoopSnapshot::toString).toArray(String[]::new);
+    }
+
+    private double maxMicros(ToLongFunction<EventLoopSnapshot> nanos) {
+        return snapshot.get().loops.stream().mapToLong(nanos).max().orElse(0) / 1e3;
+    }
+}
@@ -0,0 +1,38 @@
+package test.webNIO.metrics;
+
+/**
+ * 通过 JMX 暴露的服务端指标，可以用 jconsole / VisualVM 查看，也可以用 MBeanServer.getAttribute 读取
+ *
+ * 每次读取属性都会生成一次新的快照，耗时类的分位数取所有事件循环中最大的一个，单位是微秒
+ */
+public interface ReactorMetricsMXBean {
+
+    long getAcceptedConnections();
+
+    double getAcceptRate();
+
+    long getConnections();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getPendingWriteBytes();
+
+    long getErrors();
+
+    double getMaxBusyRatio();
+
+    double getSelectP99Micros();
+
+    double getHandlerP99Micros();
+
+    double getHandlerMaxMicros();
+
+    long getBufferPoolOutstanding();
+
+    long getBufferPoolAllocatedBytes();
+
+    // 每个事件循环一行的文字摘要
+    String[] getEventLoops();
+}
@@ -0,0 +1,67 @@
+package test.webNIO.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+import test.nio.buffer.BufferPool;
+
+/**
+ * 整个服务端的指标快照：接收连接的数量和速率、每个事件循环的快照以及缓冲区池的使用情况
+ */
+public class ServerSnapshot {
+
+    public final long uptimeMillis;
+    public final long accepted;
+    public final List<EventLoopSnapshot> loops;
+    public final BufferPool.Stats bufferPool;
+
+    public ServerSnapshot(long uptimeMillis, long accepted, List<EventLoopSnapshot> loops,
+            BufferPool.Stats bufferPool) {
+        this.uptimeMillis = uptimeMillis;
+        this.accepted = accepted;
+        this.loops = Collections.unmodifiableList(loops);
+        this.bufferPool = bufferPool;
+    }
+
+    // 启动以来平均每秒接收的连接数
+    public double acceptRate() {
+        return uptimeMillis == 0 ? 0 : accepted * 1000.0 / uptimeMillis;
+    }
+
+    public long connections() {
+        return loops.stream().mapToLong(loop -> loop.connections).sum();
+    }
+
+    public long bytesRead() {
+        return loops.stream().mapToLong(loop -> loop.bytesRead).sum();
+    }
+
+    public long bytesWritten() {
+        return loops.stream().mapToLong(loop -> loop.bytesWritten).sum();
+    }
+
+    public long pendingWriteBytes() {
+        return loops.stream().mapToLong(loop -> loop.pendingWriteBytes).sum();
+    }
+
+    public long errors() {
+        return loops.stream().mapToLong(loop -> loop.errors).sum();
+    }
+
+    // 最忙的事件循环的繁忙比例，负载不均时平均值会掩盖单个饱和的线程
+    public double maxBusyRatio() {
+        return loops.stream().mapToDouble(loop -> loop.busyRatio).max().orElse(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("运行 %d ms，接收连接 %d（%.1f/s），当前连接 %d，读 %d 字节，写 %d 字节，待写 %d 字节，异常 %d%n",
+                uptimeMillis, accepted, acceptRate(), connections(), bytesRead(), bytesWritten(),
+                pendingWriteBytes(), errors()));
+        for (EventLoopSnapshot loop : loops) {
+            builder.append(loop).append(System.lineSeparator());
+        }
+        return builder.append(bufferPool).toString();
+    }
+}
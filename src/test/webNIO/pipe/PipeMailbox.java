@@ -0,0 +1,163 @@
+package test.webNIO.pipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * 基于 Pipe 的进程内信箱：多个生产者线程投递消息，一个 I/O 线程在自己的 Selector 上消费
+ *
+ * 一：和 TestPipe.testPipe1 把数据本身写进管道相比
+ *  1. 消息（通常是缓冲区的引用）放在无锁的环形数组里，不经过管道拷贝，也不需要序列化
+ *  2. 管道只用来唤醒：source 端注册到 Selector 上，和套接字事件在同一个 select() 中等待，
+ *     I/O 线程不需要额外的线程或锁就能收到其他线程交回的结果
+ *  3. 只有信箱从“已唤醒”变成“未唤醒”以后的第一条消息才会写管道，一批消息最多一次系统调用
+ *
+ * 二：环形数组是有界的，满了以后 offer 返回 false，由生产者决定重试还是丢弃
+ *
+ *  +-----------+        offer()        +------------------+      drain()      +-----------+
+ *  | 生产者线程 | --------------------> | 环形数组 (无锁)   | ----------------> |  I/O 线程  |
+ *  +-----------+   第一条消息写 1 字节  +------------------+   读走唤醒字节    +-----------+
+ *                 ---------------------> Pipe.sink -> Pipe.source (OP_READ) ------>
+ *
+ * offer 可以在任意线程调用；drain、poll 只能在消费线程调用
+ */
+public class PipeMailbox<T> implements Closeable {
+
+    private final Pipe pipe;
+    private final int mask;
+    private final Object[] elements;
+    // 每个槽位的序号：等于 pos 时可以写入，等于 pos + 1 时可以读取（有界 MPSC 队列的常见做法）
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // 只有消费线程读写
+    private long head;
+    // 管道里是否已经有还没被读走的唤醒字节
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private final ByteBuffer signal = ByteBuffer.allocateDirect(1);
+    private final ByteBuffer drainBuffer = ByteBuffer.allocateDirect(64);
+
+    public PipeMailbox(int capacity) throws IOException {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.elements = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        pipe.source().configureBlocking(false);
+    }
+
+    /**
+     * 把 source 端注册到消费线程的选择器上，附件是这个信箱本身。
+     * 读就绪时调用 drain(...)
+     */
+    public SelectionKey register(Selector selector) throws IOException {
+        return pipe.source().register(selector, SelectionKey.OP_READ, this);
+    }
+
+    // 投递一条消息，信箱已满时返回 false
+    public boolean offer(T message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        long pos;
+        int index;
+        while (true) {
+            pos = tail.get();
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // 消费者还没有读走这一圈之前的消息
+                return false;
+            }
+            // diff > 0：别的生产者已经抢到这个位置，重新读取 tail
+        }
+        elements[index] = message;
+        // lazySet 保证消费者看到序号时一定能看到上面写入的消息
+        sequences.lazySet(index, pos + 1);
+        wakeup();
+        return true;
+    }
+
+    // 管道里最多只有一个未读的唤醒字节，管道缓冲区永远不会写满
+    private void wakeup() {
+        if (signalled.compareAndSet(false, true)) {
+            try {
+                synchronized (signal) {
+                    signal.clear();
+                    pipe.sink().write(signal);
+                }
+            } catch (IOException e) {
+                // 信箱已经关闭
+            }
+        }
+    }
+
+    // 取出一条消息，没有消息时返回 null，只能在消费线程调用
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        T message = (T) elements[index];
+        elements[index] = null;
+        // 槽位留给下一圈的生产者
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return message;
+    }
+
+    /**
+     * 读走唤醒字节，再取出所有已投递的消息，返回处理的消息数。只能在消费线程调用
+     * 必须先清除唤醒标记再取消息：取消息期间投递的消息会重新写管道，不会被漏掉
+     */
+    public int drain(Consumer<? super T> consumer) throws IOException {
+        drainBuffer.clear();
+        while (pipe.source().read(drainBuffer) > 0) {
+            drainBuffer.clear();
+        }
+        signalled.set(false);
+        int count = 0;
+        T message;
+        while ((message = poll()) != null) {
+            consumer.accept(message);
+            count++;
+        }
+        return count;
+    }
+
+    // 大致的消息数，只用于监控
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            pipe.sink().close();
+        } finally {
+            pipe.source().close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package test.webNIO.reactor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import test.webNIO.reactor.codec.FrameDecoder;
+import test.webNIO.reactor.codec.RawFrameDecoder;
+
+/**
+ * 阻塞式服务端：每条连接一个线程，处理器接口和 ReactorServer 完全相同
+ *
+ * 一：和 TestWebNIO.testServer/testServer2 相比
+ *  1. 不是只接收一个连接，接收线程不停地 accept，每条连接交给自己的线程阻塞读写
+ *  2. 分帧、池化缓冲区、ChannelHandler 回调都和 ReactorServer 共用 Connection 的实现
+ *
+ * 二：运行在 JDK 21 及以上时每条连接一个虚拟线程（通过反射调用 Executors.newVirtualThreadPerTaskExecutor），
+ *    阻塞的 read/write 只会挂起虚拟线程，不占用平台线程，可以支撑上万条连接；
+ *    更低的版本退回到平台线程，每条连接一个线程（栈大小调小到 256K），连接数受内存和线程数上限限制
+ *
+ * 三：回调在连接自己的线程中执行，可以在回调里做阻塞操作，这是和 ReactorServer 最大的区别
+ */
+public class BlockingServer implements Closeable {
+
+    private static final long PLATFORM_THREAD_STACK_SIZE = 256 * 1024;
+
+    private final InetSocketAddress address;
+    private final ChannelHandler handler;
+    private final Supplier<FrameDecoder> decoderFactory;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private ServerSocketChannel serverSocketChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    public BlockingServer(InetSocketAddress address, ChannelHandler handler) {
+        this(address, handler, RawFrameDecoder::new);
+    }
+
+    public BlockingServer(InetSocketAddress address, ChannelHandler handler, Supplier<FrameDecoder> decoderFactory) {
+        this.address = address;
+        this.handler = handler;
+        this.decoderFactory = decoderFactory;
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : newPlatformThreadPerTaskExecutor();
+    }
+
+    // 编译目标是 JDK 8，只能通过反射创建虚拟线程执行器，不支持时返回 null
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (Boolean.getBoolean("blockingServer.platformThreads")) {
+            return null;
+        }
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadPerTaskExecutor() {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(null, r, "blocking-connection-" + index.getAndIncrement(),
+                    PLATFORM_THREAD_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        // 连接在短时间内大量涌入时，默认 50 的积压队列很快就满了
+        serverSocketChannel.bind(address, 1024);
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "blocking-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                executor.execute(() -> serve(socketChannel));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // 连接线程：回调 channelActive，然后阻塞读取直到连接关闭
+    private void serve(SocketChannel socketChannel) {
+        Connection connection = new Connection(socketChannel, handler, decoderFactory.get());
+        connections.add(connection);
+        try {
+            handler.channelActive(connection);
+            connection.read();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            connection.close();
+            connection.releaseInbound();
+            connections.remove(connection);
+        }
+    }
+
+    // 是否使用虚拟线程
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverSocketChannel.getLocalAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+    }
+}
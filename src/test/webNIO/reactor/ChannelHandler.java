@@ -0,0 +1,33 @@
+package test.webNIO.reactor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 连接事件的回调接口，所有回调都在连接所属的 worker 线程（SubReactor）中执行，
+ * 因此实现类不需要为同一条连接做额外的同步，但也不能在回调里做阻塞操作
+ */
+public interface ChannelHandler {
+
+    // 客户端连接已注册到 worker 选择器上
+    default void channelActive(Connection connection) {
+    }
+
+    // 解码出完整的一帧，frame 处于读模式，是连接累积缓冲区的视图，只在回调期间有效，需要保留时自行拷贝
+    void channelRead(Connection connection, ByteBuffer frame);
+
+    // 待写数据越过高水位（不可写）或者降到低水位以下（恢复可写），通过 connection.isWritable() 查看当前状态
+    default void channelWritabilityChanged(Connection connection) {
+    }
+
+    /**
+     * 连接在设定的时间内没有读到数据（READER_IDLE）或者没有写出数据（WRITER_IDLE），默认关闭连接
+     * 只有通过 ReactorServer.idleTimeout 开启空闲检测以后才会回调，连接一直空闲时每隔一个周期回调一次
+     */
+    default void channelIdle(Connection connection, IdleState state) {
+        connection.close();
+    }
+
+    // 连接已关闭（对端关闭、解码出错、读写出错或者空闲超时）
+    default void channelInactive(Connection connection) {
+    }
+}
@@ -0,0 +1,583 @@
+package test.webNIO.reactor;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.metrics.EventLoopMetrics;
+import test.webNIO.reactor.codec.FrameDecoder;
+import test.webNIO.reactor.codec.TooLongFrameException;
+
+/**
+ * 连接上下文，作为 SelectionKey 的附件保存
+ *
+ * 一：读路径
+ *  1. 数据读入累积缓冲区（inbound，写模式），一次 read 可能只读到半帧，也可能读到多帧
+ *  2. 切换到读模式后交给帧解码器，解出的每一帧都是累积缓冲区的 slice 视图，不拷贝数据
+ *  3. compact() 只把剩下不足一帧的尾巴挪到缓冲区开头，而不是每次拷贝整个缓冲区
+ *  4. 缓冲区被一帧填满时按两倍扩容（最多到解码器允许的最大帧长）
+ *  5. 数据全部消费完时把缓冲区还给缓冲区池，空闲连接不占用直接内存
+ *
+ * 二：写路径
+ *  1. 队列为空时先直接写，写不完的部分进入待写队列（OutboundQueue）
+ *  2. 只有队列里有数据时才关注 OP_WRITE，写空以后立即取消，避免选择器不停地返回可写事件
+ *  3. 待写字节数越过高低水位时回调 channelWritabilityChanged
+ *
+ * 三：文件传输
+ *  1. sendFile()：文件区域排进待写队列，通过 transferTo 零拷贝发送
+ *  2. receiveFile()：接下来的 count 个字节不再交给解码器，而是通过 transferFrom 写入文件
+ *
+ * 四：连接的读写都在所属的 worker 线程中完成，标明“可以在任意线程调用”的方法除外
+ *
+ * 五：阻塞模式（BlockingServer 使用，reactor 为 null）
+ *  1. 连接独占一个线程，read() 阻塞读取直到连接关闭，回调都在这个线程中执行
+ *  2. write()/sendFile() 在调用线程中同步写完才返回，写操作之间用锁串行化，
+ *     内核发送缓冲区满时调用线程阻塞，这就是阻塞模式下的背压，所以 isWritable() 始终为 true
+ *
+ * 六：空闲检测（非阻塞模式）
+ *  1. 读写时只更新最近一次读写的时间（事件循环本轮的时间，不额外调用 nanoTime）
+ *  2. 时间轮上每条连接最多挂两个超时任务，到期时检查实际空闲了多久，不够的话按剩余时间重新挂上，
+ *     这样读写路径上不需要反复取消和添加超时任务
+ *
+ * 七：指标：每条连接累计读写的字节数；非阻塞模式下同时汇总到所属事件循环的 EventLoopMetrics，
+ *    包括处理器 channelRead 的耗时和待写队列的字节数
+ */
+public class Connection {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final SubReactor reactor;
+    private final SocketChannel channel;
+    private final SelectionKey selectionKey;
+    private final ChannelHandler handler;
+    private final FrameDecoder decoder;
+    private final BufferPool bufferPool = BufferPool.getDefault();
+    private final OutboundQueue outboundQueue;
+    // 阻塞模式下为 null
+    private final EventLoopMetrics metrics;
+
+    // 累积缓冲区，始终处于写模式，没有未消费数据时为 null
+    private ByteBuffer inbound;
+    // 正在接收的文件，为 null 时读到的数据交给解码器
+    private FileReceiver fileReceiver;
+    private volatile Object attachment;
+    private volatile boolean writable = true;
+    // 阻塞模式下其他线程也会读写这个标记
+    private volatile boolean closed;
+    // 阻塞模式下串行化多个线程的写操作
+    private final Object writeLock = new Object();
+
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    // 已经同步到 metrics 的待写字节数
+    private long reportedPendingBytes;
+
+    // 空闲检测，0 表示不检测
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private long lastReadNanos;
+    private long lastWriteNanos;
+    private HashedWheelTimer.Timeout readIdleTimeout;
+    private HashedWheelTimer.Timeout writeIdleTimeout;
+
+    Connection(SubReactor reactor, SocketChannel channel, SelectionKey selectionKey, ChannelHandler handler,
+            FrameDecoder decoder, int lowWaterMark, int highWaterMark, long readIdleNanos, long writeIdleNanos) {
+        this.reactor = reactor;
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+        this.handler = handler;
+        this.decoder = decoder;
+        this.outboundQueue = new OutboundQueue(lowWaterMark, highWaterMark);
+        this.metrics = reactor == null ? null : reactor.metrics();
+        this.readIdleNanos = readIdleNanos;
+        this.writeIdleNanos = writeIdleNanos;
+    }
+
+    // 阻塞模式，channel 处于阻塞状态，由 BlockingServer 为每条连接分配一个线程调用 read()
+    Connection(SocketChannel channel, ChannelHandler handler, FrameDecoder decoder) {
+        this(null, channel, null, handler, decoder, OutboundQueue.DEFAULT_LOW_WATER_MARK,
+                OutboundQueue.DEFAULT_HIGH_WATER_MARK, 0, 0);
+    }
+
+    private boolean isBlocking() {
+        return reactor == null;
+    }
+
+    // 读就绪时由 worker 线程调用；阻塞模式下一直读到连接关闭才返回
+    void read() {
+        try {
+            while (true) {
+                if (fileReceiver != null) {
+                    long n = fileReceiver.receive(channel);
+                    if (fileReceiver.isDone()) {
+                        fileReceiver = null;
+                    }
+                    if (n > 0) {
+                        continue;
+                    }
+                    // 接收完毕或者 transferFrom 返回 0（可能是对端关闭），走普通的读路径
+                }
+                if (inbound == null) {
+                    inbound = bufferPool.acquire(Math.min(INITIAL_BUFFER_SIZE, decoder.maxFrameLength()));
+                } else if (!inbound.hasRemaining()) {
+                    expand();
+                }
+                int len = channel.read(inbound);
+                if (len == -1) {
+                    // 对端已经关闭了输出，不取消的话这个 key 会一直处于读就绪状态
+                    close();
+                    return;
+                }
+                if (len == 0) {
+                    return;
+                }
+                bytesRead += len;
+                if (metrics != null) {
+                    metrics.bytesRead(len);
+                    lastReadNanos = reactor.loopNanos();
+                }
+                decodeFrames();
+                if (closed) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close();
+        } catch (RuntimeException e) {
+            // 处理器抛出异常时缓冲区的状态已经不可信，直接关闭连接
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    private void decodeFrames() throws IOException {
+        inbound.flip();
+        while (!closed && !drainToFile()) {
+            ByteBuffer frame = decoder.decode(inbound);
+            if (frame == null) {
+                break;
+            }
+            if (metrics == null) {
+                handler.channelRead(this, frame);
+                continue;
+            }
+            long start = System.nanoTime();
+            handler.channelRead(this, frame);
+            metrics.handlerTime(System.nanoTime() - start);
+        }
+        if (closed) {
+            return;
+        }
+        if (inbound.hasRemaining()) {
+            inbound.compact();
+        } else {
+            bufferPool.release(inbound);
+            inbound = null;
+        }
+    }
+
+    // 正在接收文件时，累积缓冲区中的数据先写入文件，返回 true 表示文件还没有接收完
+    private boolean drainToFile() throws IOException {
+        if (fileReceiver == null) {
+            return false;
+        }
+        fileReceiver.drain(inbound);
+        if (fileReceiver.isDone()) {
+            fileReceiver = null;
+            return false;
+        }
+        return true;
+    }
+
+    // 缓冲区被半帧填满，按两倍扩容
+    private void expand() throws TooLongFrameException {
+        int capacity = inbound.capacity();
+        if (capacity >= decoder.maxFrameLength()) {
+            throw new TooLongFrameException(capacity, decoder.maxFrameLength());
+        }
+        ByteBuffer bigger = bufferPool.acquire(Math.min(capacity << 1, decoder.maxFrameLength()));
+        inbound.flip();
+        bigger.put(inbound);
+        bufferPool.release(inbound);
+        inbound = bigger;
+    }
+
+    // 写出 buffer（读模式），入队以后调用方不能再修改它。可以在任意线程调用
+    public void write(ByteBuffer buffer) {
+        write(buffer, null);
+    }
+
+    /**
+     * 可以在任意线程调用
+     * @param onRelease 数据写完或者连接关闭、不再需要 buffer 时在 worker 线程中调用，用于归还池化的缓冲区
+     */
+    public void write(ByteBuffer buffer, Runnable onRelease) {
+        if (isBlocking()) {
+            writeBlocking(buffer, onRelease);
+            return;
+        }
+        if (!reactor.inEventLoop()) {
+            reactor.execute(() -> write(buffer, onRelease));
+            return;
+        }
+        if (closed) {
+            if (onRelease != null) {
+                onRelease.run();
+            }
+            return;
+        }
+        boolean wasEmpty = outboundQueue.isEmpty();
+        if (outboundQueue.add(buffer, onRelease)) {
+            writabilityChanged();
+        }
+        // 队列原本不为空说明已经在等待 OP_WRITE 了，直接排队即可
+        if (wasEmpty) {
+            flush();
+        } else {
+            syncWriteMetrics();
+        }
+    }
+
+    /**
+     * 按顺序写出多个缓冲区（例如消息头和消息体），它们在待写队列中相邻，通过一次聚集写发出，
+     * 不需要拷贝到同一个缓冲区。可以在任意线程调用
+     * @param onRelease 所有缓冲区都写完或者连接关闭时调用一次
+     */
+    public void write(ByteBuffer[] buffers, Runnable onRelease) {
+        if (buffers.length == 0) {
+            if (onRelease != null) {
+                onRelease.run();
+            }
+            return;
+        }
+        if (isBlocking()) {
+            try {
+                synchronized (writeLock) {
+                    if (!closed) {
+                        long length = 0;
+                        for (ByteBuffer buffer : buffers) {
+                            length += buffer.remaining();
+                        }
+                        OutboundQueue.writeFully(channel, buffers);
+                        bytesWritten += length;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            } finally {
+                if (onRelease != null) {
+                    onRelease.run();
+                }
+            }
+            return;
+        }
+        if (!reactor.inEventLoop()) {
+            reactor.execute(() -> write(buffers, onRelease));
+            return;
+        }
+        if (closed) {
+            if (onRelease != null) {
+                onRelease.run();
+            }
+            return;
+        }
+        boolean wasEmpty = outboundQueue.isEmpty();
+        boolean changed = false;
+        for (int i = 0; i < buffers.length; i++) {
+            changed |= outboundQueue.add(buffers[i], i == buffers.length - 1 ? onRelease : null);
+        }
+        if (changed) {
+            writabilityChanged();
+        }
+        if (wasEmpty) {
+            flush();
+        } else {
+            syncWriteMetrics();
+        }
+    }
+
+    private void writeBlocking(ByteBuffer buffer, Runnable onRelease) {
+        try {
+            synchronized (writeLock) {
+                if (!closed) {
+                    int length = buffer.remaining();
+                    OutboundQueue.writeFully(channel, buffer);
+                    bytesWritten += length;
+                }
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            if (onRelease != null) {
+                onRelease.run();
+            }
+        }
+    }
+
+    // 写就绪时由 worker 线程调用
+    void flush() {
+        try {
+            boolean changed = outboundQueue.flush(channel);
+            syncWriteMetrics();
+            if (changed) {
+                writabilityChanged();
+            }
+            if (closed) {
+                return;
+            }
+            if (outboundQueue.isEmpty()) {
+                interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+            } else {
+                interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * 通过 transferTo 零拷贝发送文件的一段区域，排在已经写入的数据之后。可以在任意线程调用
+     * 文件通道由调用方负责关闭（在 region 的 onComplete 和 onFailure 中关闭）；
+     * 连接已经关闭或者在传输完之前关闭时调用 region 的 onFailure
+     */
+    public void sendFile(FileRegion region) {
+        if (isBlocking()) {
+            try {
+                synchronized (writeLock) {
+                    while (!closed && !region.isDone()) {
+                        bytesWritten += region.transferTo(channel);
+                    }
+                }
+            } catch (IOException e) {
+                region.fail(e);
+                close();
+                return;
+            }
+            if (!region.isDone()) {
+                region.fail(new ClosedChannelException());
+            }
+            return;
+        }
+        if (!reactor.inEventLoop()) {
+            reactor.execute(() -> sendFile(region));
+            return;
+        }
+        if (closed) {
+            region.fail(new ClosedChannelException());
+            return;
+        }
+        boolean wasEmpty = outboundQueue.isEmpty();
+        outboundQueue.add(region, null);
+        if (wasEmpty) {
+            flush();
+        }
+    }
+
+    /**
+     * 把连接上接下来的 count 个字节写入文件 position 开始的位置，之后恢复交给解码器
+     * 只能在 worker 线程中调用，一般在 channelRead 中收到文件头以后调用
+     */
+    public void receiveFile(FileChannel file, long position, long count, Consumer<TransferResult> onComplete) {
+        receiveFile(file, position, count, onComplete, null);
+    }
+
+    /**
+     * 文件通道由调用方负责关闭（在 onComplete 和 onFailure 中关闭）
+     * @param onFailure 没有接收完就出错或者连接关闭时调用，和 onComplete 只会调用其中一个，可以为 null
+     */
+    public void receiveFile(FileChannel file, long position, long count, Consumer<TransferResult> onComplete,
+            Consumer<Throwable> onFailure) {
+        FileReceiver receiver = new FileReceiver(file, position, count, FileRegion.DEFAULT_CHUNK_SIZE, onComplete,
+                onFailure);
+        if (receiver.isDone()) {
+            if (onComplete != null) {
+                onComplete.accept(new TransferResult(0, 0));
+            }
+            return;
+        }
+        fileReceiver = receiver;
+    }
+
+    // 把写出的字节数和待写字节数的变化同步到事件循环的指标，只在 worker 线程调用
+    private void syncWriteMetrics() {
+        long written = outboundQueue.writtenBytes();
+        long pending = outboundQueue.pendingBytes();
+        if (written != bytesWritten) {
+            lastWriteNanos = reactor.loopNanos();
+        }
+        metrics.bytesWritten(written - bytesWritten);
+        metrics.pendingWriteBytes(pending - reportedPendingBytes);
+        bytesWritten = written;
+        reportedPendingBytes = pending;
+    }
+
+    // 连接注册完成后由 worker 线程调用，开始空闲检测
+    void startIdleTimers() {
+        lastReadNanos = lastWriteNanos = reactor.loopNanos();
+        if (readIdleNanos > 0) {
+            readIdleTimeout = scheduleIdle(IdleState.READER_IDLE, readIdleNanos);
+        }
+        if (writeIdleNanos > 0) {
+            writeIdleTimeout = scheduleIdle(IdleState.WRITER_IDLE, writeIdleNanos);
+        }
+    }
+
+    private HashedWheelTimer.Timeout scheduleIdle(IdleState state, long delayNanos) {
+        return reactor.timer().schedule(() -> checkIdle(state), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void checkIdle(IdleState state) {
+        if (closed) {
+            return;
+        }
+        boolean reader = state == IdleState.READER_IDLE;
+        long timeout = reader ? readIdleNanos : writeIdleNanos;
+        long idle = System.nanoTime() - (reader ? lastReadNanos : lastWriteNanos);
+        // 先挂上下一个周期，处理器可能在回调里关闭连接，close() 会把它取消
+        HashedWheelTimer.Timeout next = scheduleIdle(state, idle >= timeout ? timeout : timeout - idle);
+        if (reader) {
+            readIdleTimeout = next;
+        } else {
+            writeIdleTimeout = next;
+        }
+        if (idle >= timeout) {
+            handler.channelIdle(this, state);
+        }
+    }
+
+    private void interestOps(int ops) {
+        if (selectionKey.isValid() && selectionKey.interestOps() != ops) {
+            selectionKey.interestOps(ops);
+        }
+    }
+
+    private void writabilityChanged() {
+        writable = outboundQueue.isWritable();
+        handler.channelWritabilityChanged(this);
+    }
+
+    // 待写数据没有越过高水位。可以在任意线程调用
+    public boolean isWritable() {
+        return writable;
+    }
+
+    // 还没有写出的字节数
+    public long pendingWriteBytes() {
+        return outboundQueue.pendingBytes();
+    }
+
+    // 累计读到的字节数，可以在任意线程调用
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    // 累计写出的字节数（包括文件区域），可以在任意线程调用
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    // 阻塞模式下为 null
+    public SubReactor reactor() {
+        return reactor;
+    }
+
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 保存业务状态（例如用户信息），可以在任意线程调用
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public Object attachment() {
+        return attachment;
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // 关闭连接，可以在任意线程调用，重复调用没有影响
+    public void close() {
+        if (isBlocking()) {
+            closeBlocking();
+            return;
+        }
+        if (!reactor.inEventLoop()) {
+            reactor.execute(this::close);
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selectionKey.cancel();
+        SubReactor.closeQuietly(channel);
+        if (inbound != null) {
+            bufferPool.release(inbound);
+            inbound = null;
+        }
+        decoder.release();
+        failFileReceiver();
+        outboundQueue.clear();
+        if (readIdleTimeout != null) {
+            readIdleTimeout.cancel();
+        }
+        if (writeIdleTimeout != null) {
+            writeIdleTimeout.cancel();
+        }
+        syncWriteMetrics();
+        metrics.connectionClosed();
+        handler.channelInactive(this);
+    }
+
+    /**
+     * 关闭通道会让阻塞在 read() 中的连接线程抛出 AsynchronousCloseException 并退出，
+     * 累积缓冲区只由连接线程读写，所以在连接线程退出 read() 时释放
+     */
+    private void closeBlocking() {
+        // 不能用 writeLock：写线程可能正阻塞在内核发送缓冲区上，要靠关闭通道才能唤醒它
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        SubReactor.closeQuietly(channel);
+        handler.channelInactive(this);
+    }
+
+    // 阻塞模式下连接线程退出前调用
+    void releaseInbound() {
+        if (inbound != null) {
+            bufferPool.release(inbound);
+            inbound = null;
+        }
+        decoder.release();
+        failFileReceiver();
+    }
+
+    // 连接关闭时还没有接收完的文件通知 onFailure
+    private void failFileReceiver() {
+        if (fileReceiver != null) {
+            fileReceiver.fail(new ClosedChannelException());
+            fileReceiver = null;
+        }
+    }
+}
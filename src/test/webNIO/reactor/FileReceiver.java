@@ -0,0 +1,96 @@
+package test.webNIO.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.Consumer;
+
+/**
+ * 把连接上接下来的 count 个字节通过 FileChannel.transferFrom() 写入文件
+ *
+ * 每次读就绪最多传输一个分块，进度记录在 received 中，可以从任意 position 续传。
+ * 注意：socket 到文件方向 JDK 内部仍然会经过一块临时的直接缓冲区，但业务代码不需要再维护自己的缓冲区
+ */
+class FileReceiver {
+
+    private final FileChannel file;
+    private final long position;
+    private final long count;
+    private final long chunkSize;
+    private final Consumer<TransferResult> onComplete;
+    private final Consumer<Throwable> onFailure;
+    private final long startNanos = System.nanoTime();
+
+    private long received;
+    // onComplete 或者 onFailure 已经调用过
+    private boolean finished;
+
+    FileReceiver(FileChannel file, long position, long count, long chunkSize, Consumer<TransferResult> onComplete,
+            Consumer<Throwable> onFailure) {
+        this.file = file;
+        this.position = position;
+        this.count = count;
+        this.chunkSize = chunkSize;
+        this.onComplete = onComplete;
+        this.onFailure = onFailure;
+    }
+
+    // 从通道读取一个分块，返回本次传输的字节数。transferFrom 无法区分“暂时没有数据”和“对端已关闭”，都返回 0
+    long receive(ReadableByteChannel source) throws IOException {
+        long length = Math.min(chunkSize, count - received);
+        long n;
+        try {
+            n = file.transferFrom(source, position + received, length);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+        received += n;
+        complete();
+        return n;
+    }
+
+    // 累积缓冲区中紧跟在帧后面的数据也属于文件，先写入文件
+    void drain(ByteBuffer in) throws IOException {
+        int limit = in.limit();
+        if (in.remaining() > count - received) {
+            in.limit(in.position() + (int) (count - received));
+        }
+        try {
+            while (in.hasRemaining()) {
+                received += file.write(in, position + received);
+            }
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            in.limit(limit);
+        }
+        complete();
+    }
+
+    private void complete() {
+        if (isDone() && !finished) {
+            finished = true;
+            if (onComplete != null) {
+                onComplete.accept(new TransferResult(received, System.nanoTime() - startNanos));
+            }
+        }
+    }
+
+    // 没有接收完就被放弃（读写出错、连接关闭），和 onComplete 只会调用其中一个，重复调用没有影响
+    void fail(Throwable cause) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (onFailure != null) {
+            onFailure.accept(cause);
+        }
+    }
+
+    boolean isDone() {
+        return received >= count;
+    }
+}
@@ -0,0 +1,108 @@
+package test.webNIO.reactor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Consumer;
+
+/**
+ * 文件的一段区域，通过 FileChannel.transferTo() 直接发送到 socket（零拷贝）
+ *
+ * 数据从页缓存直接交给网卡（Linux 上是 sendfile），不经过用户空间的缓冲区。
+ * 每次只传输一个分块，传输进度记录在 transferred 中，下一次从断点继续，
+ * 所以大文件不会长时间占住事件循环，中断以后也可以从 position() 重新发起
+ */
+public class FileRegion {
+
+    public static final long DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final FileChannel file;
+    private final long position;
+    private final long count;
+    private final long chunkSize;
+    private final Consumer<TransferResult> onComplete;
+    private Consumer<IOException> onFailure;
+
+    private long transferred;
+    private long startNanos;
+    // onComplete 或者 onFailure 已经调用过
+    private boolean finished;
+
+    public FileRegion(FileChannel file, long position, long count, Consumer<TransferResult> onComplete) {
+        this(file, position, count, DEFAULT_CHUNK_SIZE, onComplete);
+    }
+
+    /**
+     * @param position   文件中的起始位置，断点续传时传入上一次的 position()
+     * @param chunkSize  每次 transferTo 最多传输的字节数
+     * @param onComplete 全部传输完毕时调用，可以为 null；没有传输完连接就关闭时调用的是 onFailure
+     */
+    public FileRegion(FileChannel file, long position, long count, long chunkSize,
+            Consumer<TransferResult> onComplete) {
+        if (position < 0 || count < 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("position: " + position + ", count: " + count + ", chunkSize: " + chunkSize);
+        }
+        this.file = file;
+        this.position = position;
+        this.count = count;
+        this.chunkSize = chunkSize;
+        this.onComplete = onComplete;
+    }
+
+    // 传输一个分块，返回本次传输的字节数，发送缓冲区满时返回 0
+    long transferTo(WritableByteChannel target) throws IOException {
+        if (startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+        long length = Math.min(chunkSize, count - transferred);
+        long written = file.transferTo(position + transferred, length, target);
+        if (written == 0 && length > 0 && position + transferred >= file.size()) {
+            throw new IOException("file truncated at " + (position + transferred));
+        }
+        transferred += written;
+        if (isDone() && !finished) {
+            finished = true;
+            if (onComplete != null) {
+                onComplete.accept(new TransferResult(transferred, System.nanoTime() - startNanos));
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 没有传输完就被放弃时调用（连接已经关闭、关闭时还在待写队列中、传输出错），和 onComplete 只会调用其中一个。
+     * 文件通道由调用方关闭时，两个回调中都要关闭
+     */
+    public FileRegion onFailure(Consumer<IOException> onFailure) {
+        this.onFailure = onFailure;
+        return this;
+    }
+
+    // 放弃这个区域，已经传输完或者已经放弃过时没有影响
+    void fail(IOException cause) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (onFailure != null) {
+            onFailure.accept(cause);
+        }
+    }
+
+    public boolean isDone() {
+        return transferred >= count;
+    }
+
+    // 下一个要发送的字节在文件中的位置
+    public long position() {
+        return position + transferred;
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    public long count() {
+        return count;
+    }
+}
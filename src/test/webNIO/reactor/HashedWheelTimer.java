@@ -0,0 +1,207 @@
+package test.webNIO.reactor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮，为大量连接的空闲超时、连接超时提供 O(1) 的添加和取消
+ *
+ * 一：结构
+ *  1. 环形数组，每个槽位是一个双向链表，一格代表 tick 的时长
+ *  2. 超时任务按到期的格数放进对应的槽位，超过一圈的记录还要再转几圈（rounds）
+ *  3. 推进时只处理走过的槽位：rounds 为 0 的到期执行，其余的 rounds 减一
+ *  4. 添加和取消只是链表的插入和删除；推进的开销只和走过的槽位及其中的任务数有关，和总任务数无关
+ *
+ * 二：和每条连接一个 ScheduledExecutorService 任务相比，不需要额外的线程和堆（添加、取消都是 O(log n) 并且要加锁），
+ *    几十万条连接各自挂一个超时任务也只是几十万个链表节点
+ *
+ * 三：精度是一格，到期的任务最多晚一格执行，适合空闲检测这种不要求精确的场景
+ *
+ * 四：不是线程安全的，由 SubReactor 在事件循环线程中驱动，不需要单独的线程
+ */
+public class HashedWheelTimer {
+
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    // 下一个要处理的格
+    private long tick;
+    private int size;
+
+    /**
+     * @param wheelSize 槽位数，向上取整到 2 的幂，tickDuration * wheelSize 就是转一圈的时长
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("tickDuration: " + tickDuration + ", wheelSize: " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int length = Integer.highestOneBit(wheelSize);
+        if (length < wheelSize) {
+            length <<= 1;
+        }
+        this.wheel = new Timeout[length];
+        this.mask = length - 1;
+    }
+
+    // 在 delay 之后执行 task（在调用 expire 的线程中执行）
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        // 向上取整，保证不会提前执行
+        long target = Math.max(tick, (deadline + tickNanos - 1) / tickNanos);
+        Timeout timeout = new Timeout(this, task);
+        timeout.rounds = (target - tick) / wheel.length;
+        link(timeout, (int) (target & mask));
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 推进到 nowNanos（System.nanoTime()），执行所有已经到期的任务
+     * @return 执行的任务数
+     */
+    public int expire(long nowNanos) {
+        long nowTick = (nowNanos - startNanos) / tickNanos;
+        int count = 0;
+        while (tick <= nowTick && size > 0) {
+            int index = (int) (tick & mask);
+            // 先推进，任务里新添加的超时不会落到正在处理的这一格
+            tick++;
+            count += runExpired(collectExpired(index));
+        }
+        if (size == 0 && tick <= nowTick) {
+            // 没有任务时直接跳到当前格
+            tick = nowTick + 1;
+        }
+        return count;
+    }
+
+    // 第一遍只摘链表，不执行任务，避免任务里取消其他超时时破坏正在遍历的链表
+    private Timeout collectExpired(int index) {
+        Timeout head = null;
+        Timeout tail = null;
+        Timeout timeout = wheel[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                unlink(timeout);
+                if (tail == null) {
+                    head = timeout;
+                } else {
+                    tail.next = timeout;
+                }
+                tail = timeout;
+            }
+            timeout = next;
+        }
+        return head;
+    }
+
+    private int runExpired(Timeout timeout) {
+        int count = 0;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            // 前面的任务可能已经取消了它
+            if (timeout.state == Timeout.PENDING) {
+                timeout.state = Timeout.EXPIRED;
+                size--;
+                count++;
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            timeout = next;
+        }
+        return count;
+    }
+
+    /**
+     * 到下一格还有多少毫秒，用作 select 的超时时间，至少 1 毫秒（select(0) 表示一直阻塞）
+     */
+    public long millisToNextTick(long nowNanos) {
+        long nanos = startNanos + tick * tickNanos - nowNanos;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + 999_999));
+    }
+
+    // 还没有到期也没有取消的任务数
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void link(Timeout timeout, int index) {
+        timeout.bucket = index;
+        timeout.prev = null;
+        timeout.next = wheel[index];
+        if (wheel[index] != null) {
+            wheel[index].prev = timeout;
+        }
+        wheel[index] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    /**
+     * 一个超时任务，只能在驱动时间轮的线程中取消
+     */
+    public static final class Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private int state = PENDING;
+        private long rounds;
+        // 所在的槽位，已经摘下等待执行时为 -1
+        private int bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(HashedWheelTimer timer, Runnable task) {
+            this.timer = timer;
+            this.task = task;
+        }
+
+        // 返回 false 表示已经执行或者已经取消
+        public boolean cancel() {
+            if (state != PENDING) {
+                return false;
+            }
+            state = CANCELLED;
+            timer.size--;
+            if (bucket >= 0) {
+                timer.unlink(this);
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+}
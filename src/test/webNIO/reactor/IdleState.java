@@ -0,0 +1,11 @@
+package test.webNIO.reactor;
+
+/**
+ * 空闲检测的类型，见 ReactorServer.idleTimeout
+ */
+public enum IdleState {
+    // 一段时间内没有读到数据，通常说明对端已经失联（断电、断网时不会收到 FIN）
+    READER_IDLE,
+    // 一段时间内没有写出数据，通常用来发送心跳
+    WRITER_IDLE
+}
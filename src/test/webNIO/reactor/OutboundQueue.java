@@ -0,0 +1,233 @@
+package test.webNIO.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 连接的待写队列
+ *
+ * 一：非阻塞通道的 write() 只写入 socket 发送缓冲区能容纳的部分，剩下的必须保存起来，
+ *    等通道再次可写（OP_WRITE）时继续写，否则对端读得慢时数据会悄悄丢掉
+ * 二：多个待写缓冲区通过 GatheringByteChannel.write(ByteBuffer[]) 一次系统调用聚集写出
+ * 三：高低水位：待写字节数超过高水位时变为不可写，降到低水位以下才恢复可写，
+ *    业务方根据 isWritable() 暂停生产，防止慢消费者把服务端内存撑爆
+ * 四：文件区域（FileRegion）通过 transferTo 零拷贝发送，不占用内存所以不计入水位；
+ *    每次 flush 最多发送一个分块，剩下的等下一次 OP_WRITE，大文件不会长时间占住事件循环
+ *
+ * 不是线程安全的，只在连接所属的 worker 线程中使用
+ */
+public class OutboundQueue {
+
+    public static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+    public static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+
+    // 一次聚集写最多的缓冲区个数（操作系统的 IOV_MAX 一般是 1024）
+    private static final int MAX_GATHER = 64;
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final int lowWaterMark;
+    private final int highWaterMark;
+
+    private long pendingBytes;
+    // 累计写出的字节数，包括文件区域
+    private long writtenBytes;
+    private boolean writable = true;
+
+    public OutboundQueue(int lowWaterMark, int highWaterMark) {
+        if (lowWaterMark < 0 || highWaterMark < lowWaterMark) {
+            throw new IllegalArgumentException("lowWaterMark: " + lowWaterMark + ", highWaterMark: " + highWaterMark);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * 加入队尾，buffer 处于读模式，入队以后调用方不能再修改它
+     * @param onRelease 队列不再需要 buffer 时（写完或者连接关闭）调用，可以为 null，用于归还池化的缓冲区
+     * @return 可写状态是否发生了变化
+     */
+    public boolean add(ByteBuffer buffer, Runnable onRelease) {
+        entries.addLast(new Entry(buffer, null, onRelease));
+        pendingBytes += buffer.remaining();
+        if (writable && pendingBytes > highWaterMark) {
+            writable = false;
+            return true;
+        }
+        return false;
+    }
+
+    // 加入一个文件区域，发送完毕或者连接关闭时调用 onRelease
+    public void add(FileRegion region, Runnable onRelease) {
+        entries.addLast(new Entry(null, region, onRelease));
+    }
+
+    /**
+     * 尽可能多地写出待写数据
+     * @return 可写状态是否发生了变化
+     */
+    public boolean flush(GatheringByteChannel channel) throws IOException {
+        while (!entries.isEmpty()) {
+            FileRegion region = entries.peekFirst().region;
+            if (region != null) {
+                writtenBytes += region.transferTo(channel);
+                if (!region.isDone()) {
+                    // 发送缓冲区满了，或者本轮的分块已经发完，让出事件循环
+                    break;
+                }
+                entries.pollFirst().release();
+                continue;
+            }
+            // 聚集连续的内存缓冲区，遇到文件区域为止
+            int count = 0;
+            long attempted = 0;
+            for (Entry entry : entries) {
+                if (entry.region != null) {
+                    break;
+                }
+                gather[count++] = entry.buffer;
+                attempted += entry.buffer.remaining();
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+            long written;
+            try {
+                written = channel.write(gather, 0, count);
+            } finally {
+                Arrays.fill(gather, 0, count, null);
+            }
+            pendingBytes -= written;
+            writtenBytes += written;
+            // 移除已经写完的缓冲区
+            while (!entries.isEmpty() && entries.peekFirst().region == null
+                    && !entries.peekFirst().buffer.hasRemaining()) {
+                entries.pollFirst().release();
+            }
+            // 没有全部写出说明发送缓冲区已满，等待下一次 OP_WRITE
+            if (written < attempted) {
+                break;
+            }
+        }
+        if (!writable && pendingBytes < lowWaterMark) {
+            writable = true;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public long writtenBytes() {
+        return writtenBytes;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // 连接关闭时丢弃所有待写数据，没有发完的文件区域通知 onFailure
+    public void clear() {
+        Entry entry;
+        while ((entry = entries.pollFirst()) != null) {
+            if (entry.region != null) {
+                entry.region.fail(new ClosedChannelException());
+            }
+            entry.release();
+        }
+        pendingBytes = 0;
+    }
+
+    /**
+     * 没有事件循环的简单客户端使用：把 buffer 全部写出以后才返回
+     * 阻塞通道直接循环写；非阻塞通道在发送缓冲区满时借助临时选择器等待 OP_WRITE，而不是空转
+     */
+    public static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        if (channel.isBlocking()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return;
+        }
+        Selector selector = null;
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) > 0) {
+                    continue;
+                }
+                if (selector == null) {
+                    selector = Selector.open();
+                    channel.register(selector, SelectionKey.OP_WRITE);
+                }
+                selector.select();
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    // 聚集写版本：多个缓冲区（例如消息头和消息体）通过 write(ByteBuffer[]) 写出，不需要先拼接到一起
+    public static void writeFully(SocketChannel channel, ByteBuffer[] buffers) throws IOException {
+        Selector selector = null;
+        try {
+            int first = 0;
+            while (first < buffers.length) {
+                if (!buffers[first].hasRemaining()) {
+                    first++;
+                    continue;
+                }
+                if (channel.write(buffers, first, buffers.length - first) > 0 || channel.isBlocking()) {
+                    continue;
+                }
+                if (selector == null) {
+                    selector = Selector.open();
+                    channel.register(selector, SelectionKey.OP_WRITE);
+                }
+                selector.select();
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final ByteBuffer buffer;
+        final FileRegion region;
+        final Runnable onRelease;
+
+        Entry(ByteBuffer buffer, FileRegion region, Runnable onRelease) {
+            this.buffer = buffer;
+            this.region = region;
+            this.onRelease = onRelease;
+        }
+
+        void release() {
+            if (onRelease != null) {
+                onRelease.run();
+            }
+        }
+    }
+}
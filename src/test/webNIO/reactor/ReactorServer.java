@@ -0,0 +1,205 @@
+package test.webNIO.reactor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import test.nio.buffer.BufferPool;
+import test.webNIO.metrics.EventLoopSnapshot;
+import test.webNIO.metrics.ReactorMetrics;
+import test.webNIO.metrics.ServerSnapshot;
+import test.webNIO.reactor.codec.FrameDecoder;
+import test.webNIO.reactor.codec.RawFrameDecoder;
+
+/**
+ * 主从多 Reactor 服务端
+ * 1. boss 线程：独占一个选择器，只监听 OP_ACCEPT，接收到连接后按轮询的方式交给 worker
+ * 2. worker 线程（SubReactor）：每个线程独占一个选择器，负责连接的读写，默认数量为 CPU 核数
+ * 
+ * 和 TestNonBlockingNIO 中单选择器单线程的服务端相比，连接的读写可以分摊到多个核上
+ *
+ * 指标：snapshot() 拉取一次快照，registerMBean() 把同样的数据通过 JMX 暴露出去
+ */
+public class ReactorServer implements Closeable {
+
+    private final InetSocketAddress address;
+    private final Supplier<FrameDecoder> decoderFactory;
+    private final SubReactor[] workers;
+
+    private ServerSocketChannel serverSocketChannel;
+    private Selector acceptSelector;
+    private Thread bossThread;
+    private volatile boolean running;
+    private int next;
+
+    // 只由 boss 线程写入
+    private volatile long accepted;
+    private volatile long startNanos;
+    private ObjectName objectName;
+
+    // 不分帧，每次读到的数据直接交给处理器
+    public ReactorServer(InetSocketAddress address, ChannelHandler handler) throws IOException {
+        this(address, handler, RawFrameDecoder::new);
+    }
+
+    public ReactorServer(InetSocketAddress address, ChannelHandler handler, Supplier<FrameDecoder> decoderFactory)
+            throws IOException {
+        this(address, handler, decoderFactory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param decoderFactory 帧解码器是有状态的，每条连接通过工厂创建一个新的实例
+     */
+    public ReactorServer(InetSocketAddress address, ChannelHandler handler, Supplier<FrameDecoder> decoderFactory,
+            int workerCount) throws IOException {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount: " + workerCount);
+        }
+        this.address = address;
+        this.decoderFactory = decoderFactory;
+        this.workers = new SubReactor[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new SubReactor(handler, "reactor-worker-" + i);
+        }
+    }
+
+    public void start() throws IOException {
+        //1. 获取服务端通道，切换至非阻塞式并绑定端口
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.configureBlocking(false);
+        // 连接在短时间内大量涌入时，默认 50 的积压队列很快就满了
+        serverSocketChannel.bind(address, 1024);
+
+        //2. boss 选择器只关心接收事件
+        acceptSelector = Selector.open();
+        serverSocketChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        //3. 启动所有 worker 线程
+        for (int i = 0; i < workers.length; i++) {
+            Thread thread = new Thread(workers[i], "reactor-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        //4. 启动 boss 线程
+        running = true;
+        startNanos = System.nanoTime();
+        bossThread = new Thread(this::acceptLoop, "reactor-boss");
+        bossThread.setDaemon(true);
+        bossThread.start();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> iterator = acceptSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+                    if (selectionKey.isValid() && selectionKey.isAcceptable()) {
+                        accept();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // 一次就绪可能对应多个排队的连接，一直接收到返回 null 为止
+    private void accept() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            accepted++;
+            nextWorker().register(socketChannel, decoderFactory.get());
+        }
+    }
+
+    // 只有 boss 线程调用，不需要同步
+    private SubReactor nextWorker() {
+        SubReactor worker = workers[next];
+        next = (next + 1) % workers.length;
+        return worker;
+    }
+
+    // 设置每条连接待写队列的高低水位，需要在 start() 之前调用
+    public ReactorServer writeBufferWaterMark(int lowWaterMark, int highWaterMark) {
+        for (SubReactor worker : workers) {
+            worker.writeBufferWaterMark(lowWaterMark, highWaterMark);
+        }
+        return this;
+    }
+
+    /**
+     * 空闲检测：连接在 readIdle 内没有读到数据、在 writeIdle 内没有写出数据时回调 channelIdle（默认关闭连接），
+     * 0 表示不检测，需要在 start() 之前调用
+     */
+    public ReactorServer idleTimeout(long readIdle, long writeIdle, TimeUnit unit) {
+        for (SubReactor worker : workers) {
+            worker.idleTimeout(readIdle, writeIdle, unit);
+        }
+        return this;
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverSocketChannel.getLocalAddress();
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    // 拉取一次指标快照，可以在任意线程调用
+    public ServerSnapshot snapshot() {
+        List<EventLoopSnapshot> loops = new ArrayList<>(workers.length);
+        for (SubReactor worker : workers) {
+            loops.add(worker.metrics().snapshot());
+        }
+        long uptime = startNanos == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return new ServerSnapshot(uptime, accepted, loops, BufferPool.getDefault().stats());
+    }
+
+    // 把指标注册到平台 MBeanServer，close() 时注销
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (objectName == null) {
+            objectName = new ReactorMetrics(this::snapshot).register(name);
+        }
+        return objectName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        synchronized (this) {
+            if (objectName != null) {
+                ReactorMetrics.unregister(objectName);
+                objectName = null;
+            }
+        }
+        if (acceptSelector != null) {
+            acceptSelector.close();
+        }
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        for (SubReactor worker : workers) {
+            worker.shutdown();
+        }
+    }
+}
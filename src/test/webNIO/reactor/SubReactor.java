@@ -0,0 +1,321 @@
+package test.webNIO.reactor;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import test.webNIO.metrics.EventLoopMetrics;
+import test.webNIO.reactor.codec.FrameDecoder;
+
+/**
+ * worker 线程：一个线程独占一个 Selector，负责已接收连接的读写事件
+ * 
+ * 其他线程（如 boss 线程）不能直接调用 channel.register(selector, ...)，
+ * 因为 register 会和正在阻塞的 select() 竞争同一把锁，导致注册线程被挂起。
+ * 所以这里把注册动作包装成任务放进队列，再 wakeup 选择器，由 worker 线程自己完成注册
+ *
+ * 定时任务：事件循环内置一个哈希时间轮（一格 100 毫秒），有定时任务时 select 最多阻塞到下一格，
+ * 每轮处理完就绪事件和任务以后执行到期的定时任务。连接的空闲检测和主动连接的超时都挂在上面
+ *
+ * 每一轮循环记录 select 阻塞时间、处理时间、就绪键数量和任务数，见 EventLoopMetrics
+ */
+public class SubReactor implements Runnable {
+
+    private final Selector selector;
+    private final ChannelHandler handler;
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    // 避免每次投递任务都调用 wakeup()（wakeup 本身是一次系统调用）
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    private volatile int lowWaterMark = OutboundQueue.DEFAULT_LOW_WATER_MARK;
+    private volatile int highWaterMark = OutboundQueue.DEFAULT_HIGH_WATER_MARK;
+
+    private volatile Thread thread;
+    private volatile boolean running = true;
+    private final EventLoopMetrics metrics;
+    private final HashedWheelTimer timer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 512);
+    // 本轮 select 返回的时间，连接用它记录最近一次读写的时间
+    private long loopNanos = System.nanoTime();
+
+    private volatile long readIdleNanos;
+    private volatile long writeIdleNanos;
+
+    public SubReactor(ChannelHandler handler) throws IOException {
+        this(handler, "sub-reactor");
+    }
+
+    // name 用于区分指标来自哪个事件循环
+    public SubReactor(ChannelHandler handler, String name) throws IOException {
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.metrics = new EventLoopMetrics(name);
+    }
+
+    // 由任意线程调用，把客户端连接交给当前 worker，连接上下文作为 SelectionKey 的附件
+    public void register(SocketChannel socketChannel, FrameDecoder decoder) {
+        execute(() -> {
+            try {
+                socketChannel.configureBlocking(false);
+                // 关闭 Nagle 算法：流水线上连续的小响应不能等上一个响应的 ACK（和对端的延迟 ACK 叠加会卡住几十毫秒）
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey selectionKey = socketChannel.register(selector, SelectionKey.OP_READ);
+                activate(socketChannel, selectionKey, decoder);
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeQuietly(socketChannel);
+            }
+        });
+    }
+
+    private Connection activate(SocketChannel socketChannel, SelectionKey selectionKey, FrameDecoder decoder) {
+        Connection connection = new Connection(this, socketChannel, selectionKey, handler, decoder, lowWaterMark,
+                highWaterMark, readIdleNanos, writeIdleNanos);
+        selectionKey.attach(connection);
+        metrics.connectionOpened();
+        connection.startIdleTimers();
+        handler.channelActive(connection);
+        return connection;
+    }
+
+    /**
+     * 非阻塞地连接 remote，连接建立以后和接收的连接一样由当前 worker 负责读写。可以在任意线程调用
+     * @param timeout 连接超时，0 表示不限制（由操作系统决定，通常要几十秒甚至几分钟）
+     * @return 连接建立（channelActive 回调之后）时完成；超时时以 SocketTimeoutException 异常完成
+     */
+    public CompletableFuture<Connection> connect(SocketAddress remote, FrameDecoder decoder, long timeout,
+            TimeUnit unit) {
+        CompletableFuture<Connection> future = new CompletableFuture<>();
+        execute(() -> {
+            SocketChannel socketChannel = null;
+            try {
+                socketChannel = SocketChannel.open();
+                socketChannel.configureBlocking(false);
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (socketChannel.connect(remote)) {
+                    future.complete(activate(socketChannel, socketChannel.register(selector, SelectionKey.OP_READ),
+                            decoder));
+                    return;
+                }
+                PendingConnect pending = new PendingConnect(socketChannel, decoder, future);
+                pending.selectionKey = socketChannel.register(selector, SelectionKey.OP_CONNECT, pending);
+                if (timeout > 0) {
+                    pending.timeout = timer.schedule(
+                            () -> pending.fail(new SocketTimeoutException("connect timed out: " + remote)), timeout,
+                            unit);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (socketChannel != null) {
+                    closeQuietly(socketChannel);
+                }
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 新连接的空闲检测，0 表示不检测，需要在连接注册之前设置
+     * @see ChannelHandler#channelIdle
+     */
+    public void idleTimeout(long readIdle, long writeIdle, TimeUnit unit) {
+        if (readIdle < 0 || writeIdle < 0) {
+            throw new IllegalArgumentException("readIdle: " + readIdle + ", writeIdle: " + writeIdle);
+        }
+        this.readIdleNanos = unit.toNanos(readIdle);
+        this.writeIdleNanos = unit.toNanos(writeIdle);
+    }
+
+    /**
+     * 在 delay 之后由 worker 线程执行 task，精度是时间轮的一格（100 毫秒）
+     * 只能在 worker 线程中调用，其他线程通过 execute(() -> schedule(...)) 提交；返回的 Timeout 也只能在 worker 线程中取消
+     */
+    public HashedWheelTimer.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+
+    HashedWheelTimer timer() {
+        return timer;
+    }
+
+    long loopNanos() {
+        return loopNanos;
+    }
+
+    // 新连接的待写队列高低水位
+    public void writeBufferWaterMark(int lowWaterMark, int highWaterMark) {
+        if (lowWaterMark < 0 || highWaterMark < lowWaterMark) {
+            throw new IllegalArgumentException("lowWaterMark: " + lowWaterMark + ", highWaterMark: " + highWaterMark);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    // 在 worker 线程中执行任务，如果当前就是 worker 线程则直接排队，等本轮事件处理完执行
+    public void execute(Runnable task) {
+        taskQueue.offer(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (running) {
+            try {
+                // 先复位标记再 select：如果在两者之间有任务投递，wakeup 会让下一次 select 立即返回；
+                // 上一轮 runTasks() 取空队列之后、复位之前投递的任务看到标记还是 true，不会调用 wakeup，
+                // 所以复位以后队列不空时只 selectNow()，不能阻塞
+                wakenUp.set(false);
+                long selectStart = System.nanoTime();
+                if (!taskQueue.isEmpty()) {
+                    selector.selectNow();
+                } else if (timer.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(timer.millisToNextTick(selectStart));
+                }
+                long selectEnd = System.nanoTime();
+                loopNanos = selectEnd;
+                int readyKeys = selector.selectedKeys().size();
+                processSelectedKeys();
+                int tasks = runTasks() + timer.expire(System.nanoTime());
+                metrics.wakeup(selectEnd - selectStart, System.nanoTime() - selectEnd, readyKeys, tasks);
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                metrics.error(e);
+                e.printStackTrace();
+            }
+        }
+        closeSelector();
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            // 一定要移除掉，否则下一轮还会被选中
+            iterator.remove();
+            Object attachment = selectionKey.attachment();
+            if (attachment instanceof PendingConnect) {
+                if (selectionKey.isValid() && selectionKey.isConnectable()) {
+                    ((PendingConnect) attachment).finish();
+                }
+                continue;
+            }
+            Connection connection = (Connection) attachment;
+            // 先写后读：写出待写数据可以尽快释放队列占用的内存
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                connection.flush();
+            }
+            if (selectionKey.isValid() && selectionKey.isReadable()) {
+                connection.read();
+            }
+        }
+    }
+
+    // 返回执行的任务数
+    private int runTasks() {
+        int count = 0;
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            count++;
+            try {
+                task.run();
+            } catch (Exception e) {
+                metrics.error(e);
+                e.printStackTrace();
+            }
+        }
+        return count;
+    }
+
+    // 只能由 worker 线程写入，可以在任意线程调用 snapshot() 读取
+    public EventLoopMetrics metrics() {
+        return metrics;
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeSelector() {
+        for (SelectionKey selectionKey : selector.keys()) {
+            Object attachment = selectionKey.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).close();
+            } else if (attachment instanceof PendingConnect) {
+                ((PendingConnect) attachment).fail(new ClosedChannelException());
+            } else {
+                closeQuietly(selectionKey.channel());
+            }
+        }
+        closeQuietly(selector);
+    }
+
+    // 正在建立的主动连接，作为 SelectionKey 的附件，连接建立以后替换成 Connection
+    private final class PendingConnect {
+        private final SocketChannel channel;
+        private final FrameDecoder decoder;
+        private final CompletableFuture<Connection> future;
+        private SelectionKey selectionKey;
+        private HashedWheelTimer.Timeout timeout;
+
+        PendingConnect(SocketChannel channel, FrameDecoder decoder, CompletableFuture<Connection> future) {
+            this.channel = channel;
+            this.decoder = decoder;
+            this.future = future;
+        }
+
+        void finish() {
+            try {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            selectionKey.interestOps(SelectionKey.OP_READ);
+            future.complete(activate(channel, selectionKey, decoder));
+        }
+
+        void fail(Throwable cause) {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            selectionKey.cancel();
+            closeQuietly(channel);
+            future.completeExceptionally(cause);
+        }
+    }
+
+    static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // 关闭时的异常没有处理价值
+        }
+    }
+}
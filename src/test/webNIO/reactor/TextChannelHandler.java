@@ -0,0 +1,95 @@
+package test.webNIO.reactor;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import test.nio.buffer.BufferPool;
+import test.nio.charset.StreamingDecoder;
+import test.nio.charset.StreamingEncoder;
+
+/**
+ * 文本协议的处理器基类：把收到的字节流式解码成字符，把要发送的文本直接编码进池化的直接缓冲区
+ *
+ * 一：和在 channelRead 里 new String(...) / Charset.decode(frame) 相比
+ *  1. 每条连接一个 StreamingDecoder 和一个复用的 CharBuffer，解码不分配 String 和中间数组
+ *  2. RawFrameDecoder 按块交付字节，一个汉字可能被拆在两块之间，StreamingDecoder 会把前半截留到下一块
+ *
+ * 二：textRead 收到的 CharBuffer 只在回调期间有效，需要保留时自行拷贝（例如 toString()）
+ *
+ * 子类覆盖 channelInactive 时需要调用 super.channelInactive
+ */
+public abstract class TextChannelHandler implements ChannelHandler {
+
+    private final Charset charset;
+    private final int charBufferSize;
+    private final Map<Connection, TextCodec> codecs = new ConcurrentHashMap<>();
+
+    protected TextChannelHandler(Charset charset) {
+        this(charset, 1024);
+    }
+
+    protected TextChannelHandler(Charset charset, int charBufferSize) {
+        this.charset = charset;
+        this.charBufferSize = charBufferSize;
+    }
+
+    // 解码出一段文本，text 处于读模式，可能只是一条消息的一部分
+    protected abstract void textRead(Connection connection, CharBuffer text);
+
+    @Override
+    public final void channelRead(Connection connection, ByteBuffer frame) {
+        TextCodec codec = codec(connection);
+        CharBuffer chars = codec.chars;
+        CoderResult result;
+        do {
+            result = codec.decoder.decode(frame, chars, false);
+            chars.flip();
+            if (chars.hasRemaining()) {
+                textRead(connection, chars);
+            }
+            chars.clear();
+        } while (result.isOverflow());
+    }
+
+    /**
+     * 把文本编码进池化的直接缓冲区并写出，可以在任意线程调用，缓冲区在写完以后归还
+     * 同一条连接上并发调用时按调用的先后顺序写出
+     */
+    public void writeText(Connection connection, CharSequence text) {
+        if (text.length() == 0) {
+            return;
+        }
+        TextCodec codec = codec(connection);
+        BufferPool pool = BufferPool.getDefault();
+        CharBuffer in = CharBuffer.wrap(text);
+        synchronized (codec.encoder) {
+            CoderResult result;
+            do {
+                int size = Math.min(in.remaining() * codec.encoder.maxBytesPerChar() + 1, pool.getMaxPooledSize());
+                ByteBuffer buffer = pool.acquire(size);
+                result = codec.encoder.encode(in, buffer, true);
+                buffer.flip();
+                connection.write(buffer, () -> pool.release(buffer));
+            } while (result.isOverflow());
+        }
+    }
+
+    @Override
+    public void channelInactive(Connection connection) {
+        codecs.remove(connection);
+    }
+
+    private TextCodec codec(Connection connection) {
+        return codecs.computeIfAbsent(connection, c -> new TextCodec());
+    }
+
+    private final class TextCodec {
+        final StreamingDecoder decoder = new StreamingDecoder(charset);
+        final StreamingEncoder encoder = new StreamingEncoder(charset);
+        final CharBuffer chars = CharBuffer.allocate(charBufferSize);
+    }
+}
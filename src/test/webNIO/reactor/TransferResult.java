@@ -0,0 +1,36 @@
+package test.webNIO.reactor;
+
+/**
+ * 一次文件传输的统计：传输的字节数和耗时
+ */
+public final class TransferResult {
+
+    private final long bytes;
+    private final long nanos;
+
+    public TransferResult(long bytes, long nanos) {
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    public long millis() {
+        return nanos / 1_000_000;
+    }
+
+    public double bytesPerSecond() {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d 字节，耗时 %d ms，%.2f MB/s", bytes, millis(), bytesPerSecond() / (1024 * 1024));
+    }
+}
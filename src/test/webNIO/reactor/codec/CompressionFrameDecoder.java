@@ -0,0 +1,51 @@
+package test.webNIO.reactor.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import test.nio.buffer.BufferPool;
+import test.nio.compress.BlockCompressor;
+import test.nio.compress.BlockDecompressor;
+
+/**
+ * 压缩阶段的解码器：按 4 个字节的长度字段切出 BlockCompressor 编码的块，再解压，交给处理器的帧是原始数据
+ *
+ * 一：块是否压缩、用哪种算法都写在块头里，由发送端按连接或者按传输决定，这个解码器都能处理
+ *
+ * 二：解压出的帧放在解码器复用的池化直接缓冲区里，只在 channelRead 回调期间有效（和其他解码器返回的视图一样），
+ *    连接关闭时通过 release() 归还
+ *
+ * 三：块的边界只由发送端的块大小决定，和应用层的消息边界无关；传输文件时处理器收到的就是一段段的文件内容，
+ *    需要按消息处理时由发送端每条消息编码成一块（消息不超过块大小）
+ */
+public class CompressionFrameDecoder implements FrameDecoder {
+
+    private final LengthFieldFrameDecoder frames;
+    private final BlockDecompressor decompressor;
+
+    public CompressionFrameDecoder() {
+        this(BlockCompressor.DEFAULT_BLOCK_SIZE);
+    }
+
+    // maxBlockSize 不小于发送端的块大小
+    public CompressionFrameDecoder(int maxBlockSize) {
+        this.frames = new LengthFieldFrameDecoder(4, BlockCompressor.maxFrameLength(maxBlockSize));
+        this.decompressor = new BlockDecompressor(BufferPool.getDefault(), maxBlockSize);
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer in) throws IOException {
+        ByteBuffer block = frames.decode(in);
+        return block == null ? null : decompressor.decode(block);
+    }
+
+    @Override
+    public int maxFrameLength() {
+        return frames.maxFrameLength();
+    }
+
+    @Override
+    public void release() {
+        decompressor.close();
+    }
+}
@@ -0,0 +1,45 @@
+package test.webNIO.reactor.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 分隔符帧：以指定的单字节分隔符（如 '\n'）结尾，交给处理器的帧不包含分隔符
+ * 
+ * 会记住上一次扫描到的位置，半包再次到达时只扫描新读入的数据，避免重复扫描整个缓冲区
+ */
+public class DelimiterFrameDecoder implements FrameDecoder {
+
+    private final byte delimiter;
+    private final int maxFrameLength;
+    // 相对于当前帧起始位置已经扫描过的字节数
+    private int scanned;
+
+    public DelimiterFrameDecoder(byte delimiter, int maxFrameLength) {
+        this.delimiter = delimiter;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer in) throws TooLongFrameException {
+        int start = in.position();
+        for (int i = start + scanned; i < in.limit(); i++) {
+            if (in.get(i) == delimiter) {
+                scanned = 0;
+                ByteBuffer frame = FrameDecoder.readSlice(in, i - start);
+                // 跳过分隔符
+                in.get();
+                return frame;
+            }
+        }
+        scanned = in.remaining();
+        if (scanned >= maxFrameLength) {
+            throw new TooLongFrameException(scanned, maxFrameLength);
+        }
+        return null;
+    }
+
+    @Override
+    public int maxFrameLength() {
+        return maxFrameLength;
+    }
+}
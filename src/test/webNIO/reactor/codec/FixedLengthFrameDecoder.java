@@ -0,0 +1,28 @@
+package test.webNIO.reactor.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 定长帧：每 frameLength 个字节为一帧
+ */
+public class FixedLengthFrameDecoder implements FrameDecoder {
+
+    private final int frameLength;
+
+    public FixedLengthFrameDecoder(int frameLength) {
+        if (frameLength <= 0) {
+            throw new IllegalArgumentException("frameLength: " + frameLength);
+        }
+        this.frameLength = frameLength;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer in) {
+        return in.remaining() >= frameLength ? FrameDecoder.readSlice(in, frameLength) : null;
+    }
+
+    @Override
+    public int maxFrameLength() {
+        return frameLength;
+    }
+}
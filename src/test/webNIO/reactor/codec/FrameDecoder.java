@@ -0,0 +1,36 @@
+package test.webNIO.reactor.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 帧解码器：从累积的读缓冲区中切出完整的一帧
+ * 
+ * 解码器是有状态的（例如分隔符解码器会记住已经扫描过的位置），每条连接一个实例
+ */
+public interface FrameDecoder {
+
+    /**
+     * @param in 处于读模式的累积缓冲区，position 之前的数据已经被消费
+     * @return 完整的一帧（in 的 slice 视图，不拷贝数据），数据不足一帧时返回 null 且不移动 position；
+     *         返回帧以后 in 的 position 移动到帧的末尾
+     */
+    ByteBuffer decode(ByteBuffer in) throws IOException;
+
+    // 单帧的最大长度（包括帧头），累积缓冲区最多扩容到这个大小
+    int maxFrameLength();
+
+    // 连接关闭、不再解码时调用（在解码所在的线程中），归还解码器自己持有的缓冲区，例如 CompressionFrameDecoder 的解压缓冲区
+    default void release() {
+    }
+
+    // 从 in 的当前 position 开始切出 length 个字节作为一帧，并移动 position
+    static ByteBuffer readSlice(ByteBuffer in, int length) {
+        int limit = in.limit();
+        in.limit(in.position() + length);
+        ByteBuffer frame = in.slice();
+        in.position(in.limit());
+        in.limit(limit);
+        return frame;
+    }
+}
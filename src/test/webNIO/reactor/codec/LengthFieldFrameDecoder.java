@@ -0,0 +1,85 @@
+package test.webNIO.reactor.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 长度前缀帧：帧头是一个大端的无符号长度字段（1、2 或 4 个字节），表示后面消息体的字节数
+ * 
+ *  +--------+----------------+
+ *  | length |  body（length） |
+ *  +--------+----------------+
+ * 
+ * 交给处理器的帧默认去掉了长度字段，只包含消息体
+ */
+public class LengthFieldFrameDecoder implements FrameDecoder {
+
+    private final int lengthFieldLength;
+    private final int maxFrameLength;
+    private final boolean stripLengthField;
+
+    public LengthFieldFrameDecoder(int lengthFieldLength, int maxFrameLength) {
+        this(lengthFieldLength, maxFrameLength, true);
+    }
+
+    public LengthFieldFrameDecoder(int lengthFieldLength, int maxFrameLength, boolean stripLengthField) {
+        if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 4) {
+            throw new IllegalArgumentException("lengthFieldLength must be 1, 2 or 4: " + lengthFieldLength);
+        }
+        this.lengthFieldLength = lengthFieldLength;
+        this.maxFrameLength = maxFrameLength;
+        this.stripLengthField = stripLengthField;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer in) throws TooLongFrameException {
+        if (in.remaining() < lengthFieldLength) {
+            return null;
+        }
+        // 用绝对位置读取长度字段，数据不够一帧时不需要回退 position
+        long bodyLength = bodyLength(in, in.position());
+        long frameLength = lengthFieldLength + bodyLength;
+        if (frameLength > maxFrameLength) {
+            throw new TooLongFrameException(frameLength, maxFrameLength);
+        }
+        if (in.remaining() < frameLength) {
+            return null;
+        }
+        if (stripLengthField) {
+            in.position(in.position() + lengthFieldLength);
+            return FrameDecoder.readSlice(in, (int) bodyLength);
+        }
+        return FrameDecoder.readSlice(in, (int) frameLength);
+    }
+
+    private long bodyLength(ByteBuffer in, int index) {
+        switch (lengthFieldLength) {
+        case 1:
+            return in.get(index) & 0xFF;
+        case 2:
+            return in.getShort(index) & 0xFFFF;
+        default:
+            return in.getInt(index) & 0xFFFFFFFFL;
+        }
+    }
+
+    @Override
+    public int maxFrameLength() {
+        return maxFrameLength;
+    }
+
+    // 编码一帧：写入长度字段和消息体，out 需要有足够的剩余空间
+    public void encode(ByteBuffer body, ByteBuffer out) {
+        int length = body.remaining();
+        switch (lengthFieldLength) {
+        case 1:
+            out.put((byte) length);
+            break;
+        case 2:
+            out.putShort((short) length);
+            break;
+        default:
+            out.putInt(length);
+        }
+        out.put(body);
+    }
+}
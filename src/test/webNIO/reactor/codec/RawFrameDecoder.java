@@ -0,0 +1,29 @@
+package test.webNIO.reactor.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 不分帧，每次把已读到的全部数据作为一帧交出去（和原来一次 read 一次回调的行为一致）
+ */
+public class RawFrameDecoder implements FrameDecoder {
+
+    private final int chunkSize;
+
+    public RawFrameDecoder() {
+        this(1024);
+    }
+
+    public RawFrameDecoder(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer in) {
+        return in.hasRemaining() ? FrameDecoder.readSlice(in, in.remaining()) : null;
+    }
+
+    @Override
+    public int maxFrameLength() {
+        return chunkSize;
+    }
+}
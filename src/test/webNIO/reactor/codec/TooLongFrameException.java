@@ -0,0 +1,15 @@
+package test.webNIO.reactor.codec;
+
+import java.io.IOException;
+
+/**
+ * 帧长度超过解码器允许的最大值，连接会被关闭
+ */
+public class TooLongFrameException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TooLongFrameException(long length, int maxFrameLength) {
+        super("frame length " + length + " exceeds " + maxFrameLength);
+    }
+}
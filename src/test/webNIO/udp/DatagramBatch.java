@@ -0,0 +1,67 @@
+package test.webNIO.udp;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 一批数据报，槽位里的缓冲区在每一批之间复用
+ *
+ * 交给 DatagramBatchHandler 时每个缓冲区都处于读模式；回调返回以后缓冲区会被下一批覆盖，
+ * 需要保留的数据请自行拷贝
+ */
+public final class DatagramBatch {
+
+    private final ByteBuffer[] buffers;
+    private final SocketAddress[] senders;
+    private int size;
+
+    DatagramBatch(ByteBuffer[] buffers) {
+        this.buffers = buffers;
+        this.senders = new SocketAddress[buffers.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ByteBuffer datagram(int index) {
+        checkIndex(index);
+        return buffers[index];
+    }
+
+    public SocketAddress sender(int index) {
+        checkIndex(index);
+        return senders[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    int capacity() {
+        return buffers.length;
+    }
+
+    // 下一个可以写入的槽位
+    ByteBuffer next() {
+        ByteBuffer buffer = buffers[size];
+        buffer.clear();
+        return buffer;
+    }
+
+    void commit(SocketAddress sender) {
+        buffers[size].flip();
+        senders[size] = sender;
+        size++;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == buffers.length;
+    }
+}
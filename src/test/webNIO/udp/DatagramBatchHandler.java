@@ -0,0 +1,10 @@
+package test.webNIO.udp;
+
+/**
+ * 批量接收数据报的回调，在接收线程中执行，同一个接收线程的回调不会并发
+ */
+@FunctionalInterface
+public interface DatagramBatchHandler {
+
+    void onBatch(DatagramBatch batch);
+}
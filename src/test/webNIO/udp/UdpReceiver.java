@@ -0,0 +1,240 @@
+package test.webNIO.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import test.nio.buffer.BufferPool;
+
+/**
+ * 高吞吐的 UDP 接收端
+ *
+ * 一：和 TestDatagramNIO.testReceive 相比
+ *  1. 每次唤醒把通道里所有已到达的数据报都读完（receive 返回 null 为止），而不是一次唤醒只读一个
+ *  2. 数据报读进预先分配的槽位，攒成一批再交给处理器，不为每个数据报分配缓冲区
+ *  3. 多个接收线程各自绑定一个 DatagramChannel 到同一个端口（SO_REUSEPORT），由内核把数据报分散到各个通道
+ *
+ * 二：超长的数据报会被 receive 静默截断。槽位比最大长度多一个字节，读满说明被截断，计入丢弃数
+ *
+ * 三：操作系统不支持 SO_REUSEPORT 时只启动一个接收线程
+ */
+public class UdpReceiver implements Closeable {
+
+    private final InetSocketAddress address;
+    private final DatagramBatchHandler handler;
+    private final int workerCount;
+    private final int batchSize;
+    private final int maxDatagramSize;
+    private int receiveBufferSize = 4 * 1024 * 1024;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder wakeups = new LongAdder();
+
+    public UdpReceiver(InetSocketAddress address, DatagramBatchHandler handler) {
+        this(address, handler, Runtime.getRuntime().availableProcessors(), 64, 2048);
+    }
+
+    /**
+     * @param workerCount     接收线程数，每个线程一个通道
+     * @param batchSize       一批最多多少个数据报
+     * @param maxDatagramSize 允许的最大数据报长度，超过的数据报被丢弃
+     */
+    public UdpReceiver(InetSocketAddress address, DatagramBatchHandler handler, int workerCount, int batchSize,
+            int maxDatagramSize) {
+        if (workerCount <= 0 || batchSize <= 0 || maxDatagramSize <= 0) {
+            throw new IllegalArgumentException("workerCount: " + workerCount + ", batchSize: " + batchSize
+                    + ", maxDatagramSize: " + maxDatagramSize);
+        }
+        this.address = address;
+        this.handler = handler;
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    // 内核接收缓冲区大小，突发流量超过这个大小时内核直接丢包，需要在 start() 之前调用
+    public UdpReceiver receiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    public void start() throws IOException {
+        running = true;
+        InetSocketAddress bindAddress = address;
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                SocketOption<Boolean> reusePort = reusePortOption(channel);
+                if (reusePort != null) {
+                    channel.setOption(reusePort, true);
+                }
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+                channel.configureBlocking(false);
+                channel.bind(bindAddress);
+                // 绑定端口 0 时，其余通道要绑定到第一个通道实际分配的端口
+                bindAddress = (InetSocketAddress) channel.getLocalAddress();
+
+                Worker worker = new Worker(channel);
+                workers.add(worker);
+                Thread thread = new Thread(worker, "udp-receiver-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                if (reusePort == null) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // SO_REUSEPORT 是 JDK 9 才加入 StandardSocketOptions 的，这里按名字查找，兼容 JDK 8
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption(DatagramChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if ("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class) {
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) workers.get(0).channel.getLocalAddress();
+    }
+
+    // 实际启动的接收线程数
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    public long packets() {
+        return packets.sum();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    // 超长被截断的数据报，以及处理器抛出异常的那一批数据报
+    public long drops() {
+        return drops.sum();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    public long wakeups() {
+        return wakeups.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Worker worker : workers) {
+            worker.close();
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final DatagramChannel channel;
+        private final Selector selector;
+        private final ByteBuffer[] slots = new ByteBuffer[batchSize];
+        private final DatagramBatch batch;
+
+        Worker(DatagramChannel channel) throws IOException {
+            this.channel = channel;
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            for (int i = 0; i < batchSize; i++) {
+                slots[i] = BufferPool.getDefault().acquire(maxDatagramSize + 1);
+            }
+            this.batch = new DatagramBatch(slots);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    // 一定要在循环里移除，否则下一轮选择时 key 还在已选择集合中
+                    selector.selectedKeys().clear();
+                    wakeups.increment();
+                    drain();
+                }
+            } catch (ClosedSelectorException e) {
+                // 关闭
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            } finally {
+                close();
+                for (ByteBuffer slot : slots) {
+                    BufferPool.getDefault().release(slot);
+                }
+            }
+        }
+
+        // 读完所有已到达的数据报，每攒满一批就交给处理器
+        private void drain() throws IOException {
+            boolean more = true;
+            while (more) {
+                batch.reset();
+                while (!batch.isFull()) {
+                    ByteBuffer slot = batch.next();
+                    SocketAddress sender = channel.receive(slot);
+                    if (sender == null) {
+                        more = false;
+                        break;
+                    }
+                    if (slot.position() > maxDatagramSize) {
+                        drops.increment();
+                        continue;
+                    }
+                    bytes.add(slot.position());
+                    batch.commit(sender);
+                }
+                if (batch.size() > 0) {
+                    packets.add(batch.size());
+                    batches.increment();
+                    try {
+                        handler.onBatch(batch);
+                    } catch (RuntimeException e) {
+                        drops.add(batch.size());
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        void close() {
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                // 关闭时的异常没有处理价值
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package test.webNIO.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import test.nio.buffer.BufferPool;
+
+/**
+ * 合并发送的 UDP 发送端
+ *
+ * 一：和 TestDatagramNIO.testSend 一条消息一次 send() 相比
+ *  1. 多条小消息合并进同一个不超过 MTU 的数据报，每条消息前面加 2 个字节的长度
+ *  2. 数据报缓冲区是池化的直接缓冲区，文本直接编码进去，不经过 String.getBytes()
+ *  3. 通道事先 connect 到目标地址，发送时用 write()，不需要每次都解析和校验地址
+ *  4. 当前数据报攒满或者攒的时间超过 linger 时发出，linger 内没有新消息也会由后台线程发出
+ *
+ *  +--------+---------+--------+---------+----
+ *  | length | message | length | message | ...
+ *  +--------+---------+--------+---------+----
+ *
+ * 二：背压：内核发送缓冲区满时已封装好的数据报留在待发队列中，待发队列满时 send 返回 false，
+ *    由调用方决定丢弃还是稍后重试
+ *
+ * 所有公开方法都是线程安全的
+ */
+public class UdpSender implements Closeable {
+
+    // 以太网 MTU 1500 减去 IP 头 20 字节和 UDP 头 8 字节
+    public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1472;
+
+    private final DatagramChannel channel;
+    private final int maxDatagramSize;
+    private final long lingerNanos;
+    private final int maxPendingDatagrams;
+    private final BufferPool pool = BufferPool.getDefault();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ScheduledExecutorService flusher;
+
+    // 正在合并的数据报，写模式
+    private ByteBuffer current;
+    private long currentStartNanos;
+    // 已经封装好、等待发送的数据报，读模式
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+    private long messages;
+    private long datagrams;
+    private long bytes;
+    private long rejected;
+
+    public UdpSender(InetSocketAddress target) throws IOException {
+        this(target, DEFAULT_MAX_DATAGRAM_SIZE, 1, 64);
+    }
+
+    /**
+     * @param maxDatagramSize     合并后数据报的最大长度
+     * @param lingerMillis        一条消息最多等待多久就必须发出，0 表示不等待，每条消息单独发送
+     * @param maxPendingDatagrams 待发队列的最大长度
+     */
+    public UdpSender(InetSocketAddress target, int maxDatagramSize, long lingerMillis, int maxPendingDatagrams)
+            throws IOException {
+        if (maxDatagramSize < 3 || maxDatagramSize > 65507 || lingerMillis < 0 || maxPendingDatagrams <= 0) {
+            throw new IllegalArgumentException("maxDatagramSize: " + maxDatagramSize + ", lingerMillis: "
+                    + lingerMillis + ", maxPendingDatagrams: " + maxPendingDatagrams);
+        }
+        this.maxDatagramSize = maxDatagramSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.maxPendingDatagrams = maxPendingDatagrams;
+        this.channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(target);
+        if (lingerMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "udp-sender-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushExpired, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    // 发送一条消息（读模式），返回 false 表示背压，消息没有被接收
+    public synchronized boolean send(ByteBuffer message) throws IOException {
+        int length = message.remaining();
+        if (length > maxDatagramSize - 2) {
+            throw new IllegalArgumentException("message too large: " + length);
+        }
+        if (!ensureRoom(2 + length)) {
+            return false;
+        }
+        current.putShort((short) length);
+        current.put(message);
+        return accepted();
+    }
+
+    /**
+     * 按 UTF-8 把文本直接编码进数据报缓冲区，返回 false 表示背压
+     * 不能编码的文本（例如落单的代理项）不做替换，无论长短都抛出 CharacterCodingException，消息不会被接收
+     */
+    public synchronized boolean send(CharSequence text) throws IOException {
+        // 先按最坏情况（每个字符 3 个字节）预留空间，避免编码到一半才发现放不下
+        int maxLength = text.length() * 3;
+        if (maxLength > maxDatagramSize - 2) {
+            // 太长时先编码到临时缓冲区确认实际长度，用同一个编码器，出错时的处理和短文本一致
+            return send(encoder.encode(CharBuffer.wrap(text)));
+        }
+        if (!ensureRoom(2 + maxLength)) {
+            return false;
+        }
+        int lengthIndex = current.position();
+        current.position(lengthIndex + 2);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(text), current, true);
+        if (!result.isUnderflow()) {
+            current.position(lengthIndex);
+            result.throwException();
+        }
+        encoder.flush(current);
+        current.putShort(lengthIndex, (short) (current.position() - lengthIndex - 2));
+        return accepted();
+    }
+
+    private boolean accepted() throws IOException {
+        messages++;
+        if (lingerNanos == 0 || System.nanoTime() - currentStartNanos >= lingerNanos) {
+            seal();
+        }
+        writePending();
+        return true;
+    }
+
+    // 确保当前数据报还能放下 size 个字节，放不下就先封装当前数据报
+    private boolean ensureRoom(int size) throws IOException {
+        if (current != null && current.remaining() >= size) {
+            return true;
+        }
+        if (current != null) {
+            seal();
+            writePending();
+        }
+        if (pending.size() >= maxPendingDatagrams) {
+            rejected++;
+            return false;
+        }
+        current = pool.acquire(maxDatagramSize);
+        current.limit(maxDatagramSize);
+        currentStartNanos = System.nanoTime();
+        return true;
+    }
+
+    private void seal() {
+        if (current == null) {
+            return;
+        }
+        current.flip();
+        pending.addLast(current);
+        current = null;
+    }
+
+    // 按顺序发送待发队列，内核发送缓冲区满时 write 返回 0，留到下一次
+    private void writePending() throws IOException {
+        ByteBuffer datagram;
+        while ((datagram = pending.peekFirst()) != null) {
+            int length = datagram.remaining();
+            if (channel.write(datagram) == 0) {
+                return;
+            }
+            pending.pollFirst();
+            pool.release(datagram);
+            datagrams++;
+            bytes += length;
+        }
+    }
+
+    // 立即封装并发送当前数据报，返回待发队列是否已经清空
+    public synchronized boolean flush() throws IOException {
+        seal();
+        writePending();
+        return pending.isEmpty();
+    }
+
+    private synchronized void flushExpired() {
+        try {
+            if (current != null && System.nanoTime() - currentStartNanos >= lingerNanos) {
+                seal();
+            }
+            writePending();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 待发队列还没满，send 不会因为背压返回 false
+    public synchronized boolean isWritable() {
+        return pending.size() < maxPendingDatagrams;
+    }
+
+    public synchronized long messages() {
+        return messages;
+    }
+
+    public synchronized long datagrams() {
+        return datagrams;
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    // 因为背压被拒绝的消息数
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+            for (ByteBuffer datagram : pending) {
+                pool.release(datagram);
+            }
+            pending.clear();
+        }
+    }
+
+    // 接收端使用：把合并后的数据报拆回一条条消息，每条消息是 datagram 的 slice 视图
+    public static void forEachMessage(ByteBuffer datagram, Consumer<ByteBuffer> consumer) {
+        ByteBuffer view = datagram.duplicate();
+        while (view.remaining() >= 2) {
+            int length = view.getShort() & 0xFFFF;
+            if (length > view.remaining()) {
+                throw new IllegalArgumentException("corrupt datagram: length " + length + " > " + view.remaining());
+            }
+            int limit = view.limit();
+            view.limit(view.position() + length);
+            consumer.accept(view.slice());
+            view.position(view.limit());
+            view.limit(limit);
+        }
+    }
+}